@@ -0,0 +1,117 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+
+/**
+ * End-to-end requests through the HTTP API, backed by an in-process fake
+ * Redis server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ApiBenchmark {
+
+	@Param({ "0", "1000" })
+	public int cacheEntries;
+
+	@Param({ "false", "true" })
+	public boolean async;
+
+	private FakeRedis redis;
+	private Shards shards;
+	private API api;
+
+	private HttpClient http;
+	private HttpRequest search;
+	private HttpRequest addBatch;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		redis = new FakeRedis();
+		JedisPooled client = new JedisPooled(HostAndPort.from(redis.host()));
+		for (int i = 0; i < 1000; i++) client.hset("bench:" + i, BenchmarkData.fields(i));
+
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+
+		Main.Config config = JacksonMapper.YAML.object(String.format("""
+			index: bench
+			prefix: "bench:"
+			redisHost: "%s"
+			redisTimeoutMillis: 5000
+			bindAddress: "127.0.0.1:%d"
+			rootPath: ""
+			corsAllowOrigins: "*"
+			submissionToken: token
+			schema:
+			  fields: []
+			cache:
+			  maxEntries: %d
+			  ttlMillis: 60000
+			  precompress: false
+			search:
+			  async: %s
+			""", redis.host(), port, cacheEntries, async), Main.Config.class);
+
+		shards = new Shards(List.of(client), async ? List.of(new AsyncRedis(HostAndPort.from(redis.host()), 2, 5000)) : List.of());
+		api = new API(config, shards);
+
+		http = HttpClient.newHttpClient();
+		search = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/search?q=shirt&limit=10")).build();
+
+		String batch = IntStream.range(0, 100)
+								.mapToObj(i -> "{\"id\":\"" + i + "\",\"fields\":{\"title\":\"Batch Shirt " + i + "\",\"price\":" + i + "}}")
+								.collect(Collectors.joining(",", "{\"docs\":[", "]}"));
+		addBatch = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/index/addBatch"))
+							  .header("Authorization", "token")
+							  .POST(HttpRequest.BodyPublishers.ofString(batch))
+							  .build();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		api.close();
+		shards.close();
+		redis.close();
+	}
+
+	@Benchmark
+	public String search() throws IOException, InterruptedException {
+		return http.send(search, HttpResponse.BodyHandlers.ofString()).body();
+	}
+
+	@Benchmark
+	public String addBatch() throws IOException, InterruptedException {
+		return http.send(addBatch, HttpResponse.BodyHandlers.ofString()).body();
+	}
+}
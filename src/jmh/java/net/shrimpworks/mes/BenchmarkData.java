@@ -0,0 +1,52 @@
+package net.shrimpworks.mes;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import redis.clients.jedis.search.Document;
+
+/**
+ * Representative documents and search replies shared by benchmarks.
+ */
+final class BenchmarkData {
+
+	static final String BODY = "A very basic blue t-shirt you can wear, available in a range of sizes. ".repeat(12);
+
+	private BenchmarkData() {}
+
+	static Map<String, String> fields(int id) {
+		Map<String, String> fields = new HashMap<>();
+		fields.put("title", "Blue T-Shirt " + id);
+		fields.put("body", BODY);
+		fields.put("price", Integer.toString(100 + id));
+		fields.put("url", "my.site/shirts/" + id);
+		fields.put("tags", "shirt,blue,clothing");
+		return fields;
+	}
+
+	static Document document(int id) {
+		return new Document(Integer.toString(id), new HashMap<>(fields(id)), 1.0);
+	}
+
+	/**
+	 * A raw RESP2 FT.SEARCH WITHSCORES reply, as Jedis receives it from the connection.
+	 */
+	static List<Object> searchReply(int docs) {
+		List<Object> reply = new ArrayList<>();
+		reply.add((long)docs * 10);
+		for (int i = 0; i < docs; i++) {
+			reply.add(("ex:" + i).getBytes(StandardCharsets.UTF_8));
+			reply.add(Double.toString(1.0 / (i + 1)).getBytes(StandardCharsets.UTF_8));
+			List<byte[]> fields = new ArrayList<>();
+			fields(i).forEach((k, v) -> {
+				fields.add(k.getBytes(StandardCharsets.UTF_8));
+				fields.add(v.getBytes(StandardCharsets.UTF_8));
+			});
+			reply.add(fields);
+		}
+		return reply;
+	}
+}
@@ -0,0 +1,56 @@
+package net.shrimpworks.mes;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.search.Document;
+
+/**
+ * Conversions between Redis documents and the API's document representation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentBenchmark {
+
+	private Document document;
+	private API.AddDocument addDocument;
+
+	@Setup
+	public void setup() {
+		document = BenchmarkData.document(1);
+		addDocument = new API.AddDocument("1", Map.of(
+			"title", "Blue T-Shirt",
+			"body", BenchmarkData.BODY,
+			"price", 100,
+			"url", "my.site/shirts/1",
+			"tags", "shirt,blue,clothing"
+		), 1.0);
+	}
+
+	@Benchmark
+	public API.AddDocument fromDocument() {
+		return API.AddDocument.fromDocument(document);
+	}
+
+	/**
+	 * Field conversion performed for every document written by addDocument and the batch writer.
+	 */
+	@Benchmark
+	public Map<String, String> toHash() {
+		return addDocument.toHash();
+	}
+}
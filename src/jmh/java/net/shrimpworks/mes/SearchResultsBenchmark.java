@@ -0,0 +1,79 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.search.SearchResult;
+
+/**
+ * Decoding, conversion and serialisation of typical search result pages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchResultsBenchmark {
+
+	@Param({ "10", "100" })
+	public int pageSize;
+
+	private List<Object> reply;
+	private SearchResult searchResult;
+	private API.SearchResults results;
+
+	@Setup
+	public void setup() {
+		reply = BenchmarkData.searchReply(pageSize);
+		searchResult = new SearchResult.SearchResultBuilder(true, true, true).build(reply);
+		results = API.SearchResults.fromSearchResult(searchResult, 0, pageSize);
+	}
+
+	/**
+	 * Jedis' decoding of the raw FT.SEARCH reply, for context against our own work.
+	 */
+	@Benchmark
+	public SearchResult decodeReply() {
+		return new SearchResult.SearchResultBuilder(true, true, true).build(reply);
+	}
+
+	@Benchmark
+	public API.SearchResults fromSearchResult() {
+		return API.SearchResults.fromSearchResult(searchResult, 0, pageSize);
+	}
+
+	/**
+	 * Serialisation to bytes, as done for all search responses.
+	 */
+	@Benchmark
+	public byte[] serialiseBytes() throws IOException {
+		return JacksonMapper.JSON.bytes(results);
+	}
+
+	/**
+	 * The previous approach, copying documents into AddDocuments and serialising to a String, as a baseline.
+	 */
+	@Benchmark
+	public String serialiseAddDocuments() throws IOException {
+		return JacksonMapper.JSON.string(Map.of(
+			"docs", searchResult.getDocuments().stream().map(API.AddDocument::fromDocument).toList(),
+			"totalResults", searchResult.getTotalResults(),
+			"offset", 0,
+			"limit", pageSize
+		));
+	}
+}
@@ -0,0 +1,309 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import redis.clients.jedis.AbstractPipeline;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+
+/**
+ * Load generator for the search and batch ingestion endpoints.
+ * <p>
+ * Runs the real API against an in-process stand-in for Redis (or a real
+ * Redis Stack instance), and sends requests to it over HTTP at a fixed
+ * arrival rate. Requests are sent on schedule regardless of how many are
+ * still outstanding, and latency is measured from when each request was
+ * scheduled to be sent rather than when it actually was, so that stalls in
+ * the service are reflected in the percentiles rather than hidden by the
+ * generator slowing down (coordinated omission). Uncorrected service times
+ * are reported alongside for comparison.
+ * <p>
+ * Options are given as {@code --name=value} arguments, see {@link Options}.
+ */
+public class LoadTest {
+
+	private static final long MAX_LATENCY = TimeUnit.MINUTES.toNanos(1);
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private static final String[] COLOURS = { "blue", "red", "green", "black", "white", "yellow", "purple", "orange" };
+	private static final String[] ITEMS = { "shirt", "hat", "jacket", "shoes", "socks", "scarf", "gloves", "trousers" };
+
+	private static final String CONFIG = """
+		index: loadtest
+		prefix: "load:"
+		redisHost: "%s"
+		redisShards: [%s]
+		redisTimeoutMillis: 5000
+		bindAddress: "127.0.0.1:%d"
+		rootPath: ""
+		corsAllowOrigins: "*"
+		submissionToken: loadtest
+		schema:
+		  fields:
+		    - { type: TEXT, name: title, weight: 5.0 }
+		    - { type: TEXT, name: body, weight: 1.0 }
+		    - { type: NUMERIC, name: price, sortable: true, weight: 1.0 }
+		    - { type: TAG, name: tags, weight: 1.0, separator: "," }
+		cache:
+		  maxEntries: %d
+		  ttlMillis: 60000
+		  precompress: true
+		search:
+		  async: %s
+		""";
+
+	/**
+	 * Load test options.
+	 *
+	 * @param rate         requests per second
+	 * @param seconds      measured run duration
+	 * @param warmup       warm-up duration in seconds, excluded from results
+	 * @param searchRatio  fraction of requests which are searches, the remainder are batch additions
+	 * @param batchSize    documents per batch addition
+	 * @param preload      documents added to the index before starting
+	 * @param latency      simulated Redis round trip latency in milliseconds
+	 * @param redis        comma-separated host:port of real Redis Stack instances to use instead of the stand-in, more
+	 *                     than one host shards the index across them
+	 * @param shards       number of stand-in Redis instances to shard the index across, when not using real instances
+	 * @param cacheEntries search cache size, 0 to disable
+	 * @param async        use async search mode
+	 */
+	public record Options(int rate, int seconds, int warmup, double searchRatio, int batchSize, int preload, int latency,
+						  String redis, int shards, int cacheEntries, boolean async) {
+
+		static Options parse(String[] args) {
+			Map<String, String> opts = new HashMap<>();
+			for (String arg : args) {
+				if (!arg.startsWith("--") || !arg.contains("=")) throw new IllegalArgumentException("Invalid option " + arg);
+				opts.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+			}
+			return new Options(
+				Integer.parseInt(opts.getOrDefault("rate", "500")),
+				Integer.parseInt(opts.getOrDefault("seconds", "30")),
+				Integer.parseInt(opts.getOrDefault("warmup", "10")),
+				Double.parseDouble(opts.getOrDefault("searchRatio", "0.9")),
+				Integer.parseInt(opts.getOrDefault("batchSize", "50")),
+				Integer.parseInt(opts.getOrDefault("preload", "10000")),
+				Integer.parseInt(opts.getOrDefault("latency", "1")),
+				opts.get("redis"),
+				Integer.parseInt(opts.getOrDefault("shards", "1")),
+				Integer.parseInt(opts.getOrDefault("cacheEntries", "1000")),
+				Boolean.parseBoolean(opts.getOrDefault("async", "false"))
+			);
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Options options = Options.parse(args);
+
+		List<FakeRedis> fakeRedis = new ArrayList<>();
+		List<String> redisHosts = new ArrayList<>();
+		if (options.redis == null) {
+			for (int i = 0; i < options.shards; i++) {
+				fakeRedis.add(new FakeRedis(Duration.ofMillis(options.latency)));
+				redisHosts.add(fakeRedis.getLast().host());
+			}
+		} else {
+			redisHosts.addAll(List.of(options.redis.split(",")));
+		}
+		String shardHosts = redisHosts.size() > 1 ? "\"" + String.join("\", \"", redisHosts) + "\"" : "";
+
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+
+		Main.Config config = JacksonMapper.YAML.object(String.format(CONFIG, redisHosts.getFirst(), shardHosts, port, options.cacheEntries, options.async),
+													   Main.Config.class);
+
+		List<JedisPooled> clients = new ArrayList<>();
+		List<AsyncRedis> asyncClients = new ArrayList<>();
+		for (String host : redisHosts) {
+			clients.add(new JedisPooled(HostAndPort.from(host)));
+			if (options.async) asyncClients.add(new AsyncRedis(HostAndPort.from(host), 2, 5000));
+		}
+		Shards shards = new Shards(clients, asyncClients);
+		API api = null;
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		try {
+			for (JedisPooled client : clients) Main.createIndex(client, config);
+			preload(shards, config.prefix(), options.preload);
+
+			api = new API(config, shards);
+
+			HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(executor).build();
+			Generator generator = new Generator(http, "http://127.0.0.1:" + port, config.submissionToken(), options);
+
+			if (options.warmup > 0) {
+				System.out.printf("Warming up for %ds%n", options.warmup);
+				generator.run(Duration.ofSeconds(options.warmup));
+			}
+
+			System.out.printf("Running at %d requests/s for %ds%n", options.rate, options.seconds);
+			Results results = generator.run(Duration.ofSeconds(options.seconds));
+			results.print(System.out, options);
+
+			long docs = 0;
+			for (JedisPooled client : clients) docs += Long.parseLong(client.ftInfo(config.index()).get("num_docs").toString());
+			System.out.printf("Index contains %d documents across %d shards%n", docs, shards.size());
+			System.out.printf("Service stats: %s%n", http.send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/stats")).build(),
+															   HttpResponse.BodyHandlers.ofString()).body());
+		} finally {
+			if (api != null) api.close();
+			executor.shutdownNow();
+			shards.close();
+			for (FakeRedis redis : fakeRedis) redis.close();
+		}
+	}
+
+	private static void preload(Shards shards, String prefix, int count) {
+		List<AbstractPipeline> pipelines = new ArrayList<>();
+		for (JedisPooled client : shards.clients()) pipelines.add(client.pipelined());
+		try {
+			for (int i = 0; i < count; i++) {
+				String key = prefix + i;
+				pipelines.get(shards.shard(key)).hset(key, document(Integer.toString(i), ThreadLocalRandom.current()).toHash());
+				if (i % 1000 == 999) pipelines.forEach(AbstractPipeline::sync);
+			}
+		} finally {
+			pipelines.forEach(AbstractPipeline::close);
+		}
+	}
+
+	private static API.AddDocument document(String id, ThreadLocalRandom random) {
+		String colour = COLOURS[random.nextInt(COLOURS.length)];
+		String item = ITEMS[random.nextInt(ITEMS.length)];
+		return new API.AddDocument(id, Map.of(
+			"title", colour + " " + item + " " + id,
+			"body", ("A " + colour + " " + item + " you can wear, in a range of sizes. ").repeat(1 + random.nextInt(8)),
+			"price", random.nextInt(1000),
+			"tags", colour + "," + item
+		), 1.0);
+	}
+
+	/**
+	 * Sends a mix of search and batch addition requests at a fixed rate.
+	 */
+	private static class Generator {
+
+		private final HttpClient http;
+		private final String baseUrl;
+		private final String token;
+		private final Options options;
+
+		private Generator(HttpClient http, String baseUrl, String token, Options options) {
+			this.http = http;
+			this.baseUrl = baseUrl;
+			this.token = token;
+			this.options = options;
+		}
+
+		private Results run(Duration duration) throws IOException {
+			final Results results = new Results();
+			final List<CompletableFuture<Void>> outstanding = new ArrayList<>();
+			final long interval = TimeUnit.SECONDS.toNanos(1) / options.rate;
+			final long start = System.nanoTime();
+			final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+			for (long i = 0; i * interval < duration.toNanos(); i++) {
+				final long intended = start + (i * interval);
+				long wait = intended - System.nanoTime();
+				if (wait > 0) LockSupport.parkNanos(wait);
+
+				boolean search = random.nextDouble() < options.searchRatio;
+				HttpRequest request = search ? search(random) : addBatch(random);
+				Route route = search ? results.search : results.addBatch;
+
+				final long sent = System.nanoTime();
+				outstanding.add(http.sendAsync(request, HttpResponse.BodyHandlers.discarding()).handle((res, error) -> {
+					long now = System.nanoTime();
+					if (error != null || res.statusCode() >= 400) route.errors.increment();
+					route.response.record(now - intended);
+					route.service.record(now - sent);
+					return null;
+				}));
+			}
+
+			CompletableFuture.allOf(outstanding.toArray(CompletableFuture[]::new)).orTimeout(1, TimeUnit.MINUTES).join();
+			results.elapsedNanos = System.nanoTime() - start;
+			return results;
+		}
+
+		private HttpRequest search(ThreadLocalRandom random) {
+			String term = random.nextBoolean() ? COLOURS[random.nextInt(COLOURS.length)] : ITEMS[random.nextInt(ITEMS.length)];
+			return HttpRequest.newBuilder(URI.create(baseUrl + "/search?q=" + term + "&offset=" + (random.nextInt(5) * 10)))
+							  .GET()
+							  .build();
+		}
+
+		private HttpRequest addBatch(ThreadLocalRandom random) throws IOException {
+			List<API.AddDocument> docs = new ArrayList<>(options.batchSize);
+			// ids span beyond the preloaded documents, so batches both update and add documents
+			for (int i = 0; i < options.batchSize; i++) {
+				docs.add(document(Integer.toString(random.nextInt(Math.max(options.preload, 1) * 2)), random));
+			}
+			return HttpRequest.newBuilder(URI.create(baseUrl + "/index/addBatch"))
+							  .header("Authorization", token)
+							  .POST(HttpRequest.BodyPublishers.ofByteArray(JacksonMapper.JSON.bytes(Map.of("docs", docs))))
+							  .build();
+		}
+	}
+
+	private static class Results {
+
+		private final Route search = new Route("search");
+		private final Route addBatch = new Route("addBatch");
+		private long elapsedNanos;
+
+		private void print(PrintStream out, Options options) {
+			out.printf("%nTarget rate %d/s, search ratio %.2f, batch size %d, Redis latency %s%n",
+					   options.rate, options.searchRatio, options.batchSize,
+					   options.redis == null ? options.latency + "ms (simulated)" : "n/a (" + options.redis + ")");
+			out.printf("%-9s %-9s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+					   "route", "latency", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+			for (Route route : List.of(search, addBatch)) {
+				route.print(out, "response", route.response, elapsedNanos);
+				route.print(out, "service", route.service, elapsedNanos);
+			}
+		}
+	}
+
+	private static class Route {
+
+		private final String name;
+		// measured from when the request was scheduled to be sent, corrected for coordinated omission
+		private final Histogram response = new Histogram(MAX_LATENCY);
+		// measured from when the request was actually sent
+		private final Histogram service = new Histogram(MAX_LATENCY);
+		private final LongAdder errors = new LongAdder();
+
+		private Route(String name) {
+			this.name = name;
+		}
+
+		private void print(PrintStream out, String type, Histogram histogram, long elapsedNanos) {
+			out.printf("%-9s %-9s %9d %7d %9.1f", name, type, histogram.count(), errors.sum(),
+					   histogram.count() / (elapsedNanos / 1_000_000_000d));
+			for (double q : QUANTILES) out.printf(" %9.2f", histogram.quantile(q) / 1_000_000d);
+			out.printf(" %9.2f%n", histogram.max() / 1_000_000d);
+		}
+	}
+}
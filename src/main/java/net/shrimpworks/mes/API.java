@@ -2,57 +2,164 @@ package net.shrimpworks.mes;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import io.undertow.Handlers;
 import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
 import io.undertow.predicate.Predicate;
 import io.undertow.server.BlockingHttpExchange;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.server.RoutingHandler;
 import io.undertow.server.handlers.ResponseCodeHandler;
 import io.undertow.server.handlers.encoding.EncodingHandler;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
+import io.undertow.util.SameThreadExecutor;
 import io.undertow.util.StatusCodes;
+import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xnio.Options;
-import redis.clients.jedis.JedisPooled;
 import redis.clients.jedis.exceptions.JedisDataException;
 import redis.clients.jedis.search.Document;
 import redis.clients.jedis.search.Query;
+import redis.clients.jedis.search.Schema;
 import redis.clients.jedis.search.SearchResult;
+import redis.clients.jedis.search.aggr.AggregationBuilder;
+import redis.clients.jedis.search.aggr.AggregationResult;
 
 public class API implements Closeable {
 
 	private static final Logger logger = LoggerFactory.getLogger(API.class);
 
-	private static final int WORKER_IO_THREADS = 2;
-	private static final int WORKER_TASK_CORE_THREADS = 5;
-
 	private static final String HTTP_STATUS = "/status";
+	private static final String HTTP_STATS = "/stats";
+	private static final String HTTP_METRICS = "/metrics";
 	private static final String HTTP_SEARCH = "/search";
+	private static final String HTTP_SEARCH_BATCH = "/search/batch";
+	private static final String HTTP_SUGGEST = "/suggest";
+	private static final String HTTP_FACETS = "/facets";
 	private static final String HTTP_ADD = "/index/add";
 	private static final String HTTP_ADD_BATCH = "/index/addBatch";
+	private static final String HTTP_BULK = "/index/bulk";
+	private static final String HTTP_REINDEX = "/index/reindex";
+
+	private static final String NDJSON = "application/x-ndjson";
+	// prefix of query parameters filtering searches by a field, such as filter.price=10..50
+	private static final String FILTER_PARAM = "filter.";
+
+	private static final int MAX_BATCH_SEARCHES = 100;
+	// longest line accepted by /index/bulk, in characters
+	static final int MAX_BULK_LINE = 1024 * 1024;
 
 	private final Main.Config config;
 
 	private final Undertow server;
-	private final JedisPooled client;
+	private final Shards shards;
+
+	private final QueryCache<SearchRequest, CachedResponse> searchCache;
+	private final SingleFlight<SearchRequest, CachedResponse> searchFlights = new SingleFlight<>();
+	private final QueryCache<Facets.Request, CachedResponse> facetCache;
+	private final SingleFlight<Facets.Request, CachedResponse> facetFlights = new SingleFlight<>();
+	private final Metrics metrics = new Metrics();
+
+	private final Fingerprints fingerprints;
+	private final IngestQueue ingestQueue;
+	private final WriteAheadLog wal;
+	private final Suggester suggester;
+	private final Facets facets;
+	private final Filters filters;
+	private final Reindexer reindexer;
+
+	private final ExecutorService virtualThreads;
 
-	public API(Main.Config config, JedisPooled client) {
+	// default presentation of search results, from the schema
+	private final List<String> returnFields;
+	private final List<String> highlightFields;
+	private final List<String> summarizeFields;
+
+	/**
+	 * Create and start the API server.
+	 *
+	 * @param config service configuration
+	 * @param shards redis shards holding the index
+	 * @throws IOException if the write-ahead log is enabled, and could not be opened
+	 */
+	public API(Main.Config config, Shards shards) throws IOException {
 		this.config = config;
-		this.client = client;
+		this.shards = shards;
+		this.searchCache = new QueryCache<>(config.cache().maxEntries(), config.cache().ttlMillis());
+		this.facetCache = new QueryCache<>(config.cache().maxEntries(), config.cache().ttlMillis());
+		this.virtualThreads = config.server().virtualThreads() ? Executors.newVirtualThreadPerTaskExecutor() : null;
+
+		final List<Main.RediSearchField> fields = config.schema().fields().stream()
+														.sorted(Comparator.comparing(Main.RediSearchField::name))
+														.toList();
+		// with all fields returned, fields which are stored but not indexed are also returned
+		this.returnFields = fields.stream().allMatch(Main.RediSearchField::returned)
+			? null
+			: fields.stream().filter(Main.RediSearchField::returned).map(Main.RediSearchField::name).toList();
+		this.highlightFields = fields.stream().filter(Main.RediSearchField::highlight).map(Main.RediSearchField::name).toList();
+		this.summarizeFields = fields.stream().filter(Main.RediSearchField::summarize).map(Main.RediSearchField::name).toList();
+		this.facets = new Facets(config.schema(), config.facets());
+		this.filters = new Filters(config.schema());
+		this.reindexer = new Reindexer(shards, config, this::invalidate);
+		if (config.suggest().enabled()) {
+			this.suggester = new Suggester(
+				shards, config.prefix(),
+				fields.stream().filter(f -> f.type() == Schema.FieldType.TEXT && f.sortable()).map(Main.RediSearchField::name).toList(),
+				config.suggest().maxResults(), config.suggest().persist() ? config.index() + ":suggest" : null,
+				config.suggest().fingerprintMaxBytes()
+			);
+			// existing documents are loaded in the background, so startup is not held up by large indexes
+			Thread.ofVirtual().name("suggest-load").start(suggester::load);
+		} else {
+			this.suggester = null;
+		}
+		this.fingerprints = config.ingest().skipUnchanged() ? new Fingerprints(config.ingest().fingerprintMaxBytes()) : null;
+		this.wal = config.wal().enabled()
+			? new WriteAheadLog(shards, config.prefix(), config.ingest(), config.wal(), fingerprints, suggester, metrics, this::invalidate)
+			: null;
+		// the write-ahead log already acknowledges documents without waiting for redis, so takes the place of the queue
+		this.ingestQueue = config.ingest().writeBehind() && wal == null
+			? new IngestQueue(shards, config.prefix(), config.ingest(), fingerprints, suggester, metrics, this::invalidate)
+			: null;
 
 		final String[] bind = config.bindAddress().split(":");
 		final InetSocketAddress bindAddress = InetSocketAddress.createUnresolved(bind[0], Integer.parseInt(bind[1]));
@@ -62,39 +169,76 @@ public class API implements Closeable {
 			return (auth.equals(config.submissionToken()) || auth.equals("bearer " + config.submissionToken()));
 		};
 
-		final HttpHandler handlers = Handlers.routing()
+		final RoutingHandler handlers = Handlers.routing()
 											 .add("GET", config.rootPath() + HTTP_STATUS, statusHandler())
-											 .add("GET", config.rootPath() + HTTP_SEARCH, searchHandler())
+											 .add("GET", config.rootPath() + HTTP_STATS, statsHandler())
+											 .add("GET", config.rootPath() + HTTP_METRICS, metricsHandler())
+											 .add("GET", config.rootPath() + HTTP_SEARCH, metrics.timed(HTTP_SEARCH, searchHandler()))
 											 .add("OPTIONS", config.rootPath() + HTTP_SEARCH,
 												  corsOptionsHandler(config.corsAllowOrigins(), "GET, OPTIONS"))
-											 .add("POST", config.rootPath() + HTTP_ADD, orUnauthorised(tokenCheck, addHandler()))
+											 .add("POST", config.rootPath() + HTTP_SEARCH_BATCH,
+												  metrics.timed(HTTP_SEARCH_BATCH, searchBatchHandler()))
+											 .add("OPTIONS", config.rootPath() + HTTP_SEARCH_BATCH,
+												  corsOptionsHandler(config.corsAllowOrigins(), "POST, OPTIONS"))
+											 .add("GET", config.rootPath() + HTTP_FACETS, metrics.timed(HTTP_FACETS, facetsHandler()))
+											 .add("OPTIONS", config.rootPath() + HTTP_FACETS,
+												  corsOptionsHandler(config.corsAllowOrigins(), "GET, OPTIONS"))
+											 .add("POST", config.rootPath() + HTTP_ADD,
+												  metrics.timed(HTTP_ADD, orUnauthorised(tokenCheck, addHandler())))
 											 .add("POST", config.rootPath() + HTTP_ADD_BATCH,
-												  orUnauthorised(tokenCheck, addBatchHandler()));
+												  metrics.timed(HTTP_ADD_BATCH, orUnauthorised(tokenCheck, addBatchHandler())))
+											 .add("POST", config.rootPath() + HTTP_BULK,
+												  metrics.timed(HTTP_BULK, orUnauthorised(tokenCheck, bulkHandler())))
+											 .add("POST", config.rootPath() + HTTP_REINDEX, orUnauthorised(tokenCheck, reindexHandler()))
+											 .add("GET", config.rootPath() + HTTP_REINDEX, orUnauthorised(tokenCheck, reindexStatusHandler()));
+		if (suggester != null) {
+			handlers.add("GET", config.rootPath() + HTTP_SUGGEST, metrics.timed(HTTP_SUGGEST, suggestHandler()))
+					.add("OPTIONS", config.rootPath() + HTTP_SUGGEST, corsOptionsHandler(config.corsAllowOrigins(), "GET, OPTIONS"));
+		}
 
 		// provides deflate and gzip encoding on handlers it wraps
 		HttpHandler encodingHandler = new EncodingHandler.Builder().build(null).wrap(handlers);
 
 		this.server = Undertow.builder()
-							  .setWorkerOption(Options.WORKER_IO_THREADS, WORKER_IO_THREADS)
-							  .setWorkerOption(Options.WORKER_TASK_CORE_THREADS, WORKER_TASK_CORE_THREADS)
-							  .setWorkerOption(Options.WORKER_TASK_MAX_THREADS, WORKER_TASK_CORE_THREADS)
+							  .setWorkerOption(Options.WORKER_IO_THREADS, config.server().ioThreads())
+							  .setWorkerOption(Options.WORKER_TASK_CORE_THREADS, config.server().workerThreads())
+							  .setWorkerOption(Options.WORKER_TASK_MAX_THREADS, config.server().workerThreads())
 							  .setWorkerOption(Options.TCP_NODELAY, true)
+							  .setServerOption(UndertowOptions.RECORD_REQUEST_START_TIME, true)
 							  .setSocketOption(Options.REUSE_ADDRESSES, true)
 							  .addHttpListener(bindAddress.getPort(), bindAddress.getHostString())
 							  .setHandler(encodingHandler)
 							  .build();
 		this.server.start();
 
-		logger.info("Server started on host {}", bindAddress);
+		logger.info("Server started on host {} with {} IO threads, and {}", bindAddress, config.server().ioThreads(),
+					virtualThreads != null ? "virtual worker threads" : config.server().workerThreads() + " worker threads");
 	}
 
 	private HttpHandler orUnauthorised(Predicate predicate, HttpHandler handler) {
 		return Handlers.predicate(predicate, handler, ResponseCodeHandler.HANDLE_403);
 	}
 
+	/**
+	 * Stop the API server, wait for any queued documents to be written, and
+	 * close the write-ahead log.
+	 */
 	@Override
 	public void close() {
 		this.server.stop();
+		if (virtualThreads != null) virtualThreads.close();
+		if (ingestQueue != null) ingestQueue.close();
+		if (wal != null) wal.close();
+		if (suggester != null) suggester.close();
+	}
+
+	/**
+	 * Dispatch blocking work for an exchange, either to a new virtual thread
+	 * if enabled, or to the server's worker thread pool.
+	 */
+	private void dispatch(HttpServerExchange exchange, Runnable task) {
+		if (virtualThreads != null) exchange.dispatch(virtualThreads, task);
+		else exchange.dispatch(task);
 	}
 
 	private HttpHandler corsOptionsHandler(String allowOrigins, String methods) {
@@ -117,7 +261,7 @@ public class API implements Closeable {
 
 			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
 
-			exchange.dispatch(() -> {
+			dispatch(exchange, () -> {
 				try {
 					exchange.getResponseSender().send(body);
 				} finally {
@@ -127,6 +271,107 @@ public class API implements Closeable {
 		};
 	}
 
+	private HttpHandler statsHandler() {
+		return (exchange) -> {
+			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+			final Map<String, Object> stats = new LinkedHashMap<>();
+			stats.put("searchCache", searchCache.stats());
+			stats.put("searchFlights", searchFlights.stats());
+			stats.put("facetCache", facetCache.stats());
+			stats.put("redisPool", PoolStats.of(shards));
+			if (shards.size() > 1) stats.put("redisShards", shards.clients().stream().map(c -> PoolStats.of(c.getPool())).toList());
+			final List<Replicas.Stats> replicas = shards.replicas().stream().flatMap(r -> r.stats().stream()).toList();
+			if (!replicas.isEmpty()) stats.put("redisReplicas", replicas);
+			if (fingerprints != null) stats.put("fingerprints", fingerprints.stats());
+			if (ingestQueue != null) stats.put("ingestQueue", ingestQueue.stats());
+			if (wal != null) stats.put("wal", wal.stats());
+			if (suggester != null) stats.put("suggest", suggester.stats());
+			final Reindexer.Status reindex = reindexer.status();
+			if (reindex.state() != Reindexer.State.IDLE) stats.put("reindex", reindex);
+			exchange.getResponseSender().send(JacksonMapper.JSON.string(stats));
+		};
+	}
+
+	private HttpHandler metricsHandler() {
+		return (exchange) -> {
+			final QueryCache.Stats cache = searchCache.stats();
+			final SingleFlight.Stats flights = searchFlights.stats();
+			final PoolStats pool = PoolStats.of(shards);
+
+			final Map<String, Number> extra = new LinkedHashMap<>();
+			extra.put("mes_search_cache_size", cache.size());
+			extra.put("mes_search_cache_hits_total", cache.hits());
+			extra.put("mes_search_cache_misses_total", cache.misses());
+			extra.put("mes_search_cache_evictions_total", cache.evictions());
+			extra.put("mes_search_in_flight", flights.inFlight());
+			extra.put("mes_search_redis_calls_total", flights.calls());
+			extra.put("mes_search_coalesced_total", flights.coalesced());
+			final QueryCache.Stats facetStats = facetCache.stats();
+			extra.put("mes_facet_cache_size", facetStats.size());
+			extra.put("mes_facet_cache_hits_total", facetStats.hits());
+			extra.put("mes_facet_cache_misses_total", facetStats.misses());
+			extra.put("mes_redis_pool_active", pool.active());
+			extra.put("mes_redis_pool_idle", pool.idle());
+			extra.put("mes_redis_pool_waiters", pool.waiters());
+			extra.put("mes_redis_pool_mean_borrow_wait_seconds", pool.meanBorrowWaitMillis() / 1000d);
+			if (fingerprints != null) {
+				final Fingerprints.Stats prints = fingerprints.stats();
+				extra.put("mes_fingerprint_fields", prints.fields());
+				extra.put("mes_fingerprint_bytes", prints.bytes());
+				extra.put("mes_ingest_skipped_documents_total", prints.skippedDocuments());
+				extra.put("mes_ingest_skipped_fields_total", prints.skippedFields());
+			}
+			if (ingestQueue != null) {
+				final IngestQueue.Stats queue = ingestQueue.stats();
+				extra.put("mes_ingest_queue_depth", queue.depth());
+				extra.put("mes_ingest_queue_capacity", queue.capacity());
+				extra.put("mes_ingest_queue_written_total", queue.written());
+				extra.put("mes_ingest_queue_failed_total", queue.failed());
+				extra.put("mes_ingest_queue_rejected_total", queue.rejected());
+			}
+			if (wal != null) {
+				final WriteAheadLog.Stats log = wal.stats();
+				extra.put("mes_wal_pending_documents", log.pending());
+				extra.put("mes_wal_pending_bytes", log.pendingBytes());
+				extra.put("mes_wal_segments", log.segments());
+				extra.put("mes_wal_appended_total", log.appended());
+				extra.put("mes_wal_replayed_total", log.replayed());
+				extra.put("mes_wal_failed_total", log.failed());
+			}
+			if (suggester != null) extra.put("mes_suggest_terms", suggester.stats().terms());
+			final Reindexer.Status reindex = reindexer.status();
+			extra.put("mes_reindex_running", reindex.state() == Reindexer.State.BUILDING ? 1 : 0);
+			if (reindex.state() != Reindexer.State.IDLE) {
+				extra.put("mes_reindex_docs", reindex.docs());
+				extra.put("mes_reindex_progress", reindex.progress());
+				extra.put("mes_reindex_docs_per_second", reindex.docsPerSecond());
+			}
+			final List<Replicas.Stats> replicas = shards.replicas().stream().flatMap(r -> r.stats().stream()).toList();
+			if (!replicas.isEmpty()) {
+				extra.put("mes_redis_replicas", replicas.size());
+				extra.put("mes_redis_replicas_healthy", replicas.stream().filter(Replicas.Stats::healthy).count());
+				extra.put("mes_redis_replica_ejections_total", replicas.stream().mapToLong(Replicas.Stats::ejections).sum());
+			}
+
+			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain; version=0.0.4");
+			exchange.getResponseSender().send(metrics.render(extra));
+		};
+	}
+
+	private HttpHandler suggestHandler() {
+		return (exchange) -> {
+			final String query = exchange.getQueryParameters().getOrDefault("q", new ArrayDeque<>(Set.of(""))).getFirst();
+			final int limit = Integer.parseInt(exchange.getQueryParameters().getOrDefault("limit", new ArrayDeque<>(Set.of("10")))
+													   .getFirst());
+
+			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+			corsHeaders(exchange, config.corsAllowOrigins(), "GET, OPTIONS");
+
+			// completions are found in memory, so are answered straight from the IO thread
+			exchange.getResponseSender().send(JacksonMapper.JSON.string(new Suggestions(query, suggester.suggest(query, limit))));
+		};
+	}
+
 	private HttpHandler searchHandler() {
 		return (exchange) -> {
 			final String query = exchange.getQueryParameters().getOrDefault("q", new ArrayDeque<>(Set.of(""))).getFirst();
@@ -134,50 +379,474 @@ public class API implements Closeable {
 														.getFirst());
 			final int limit = Integer.parseInt(exchange.getQueryParameters().getOrDefault("limit", new ArrayDeque<>(Set.of("10")))
 													   .getFirst());
+			final boolean content = !exchange.getQueryParameters().getOrDefault("content", new ArrayDeque<>(Set.of("true")))
+											 .getFirst().equalsIgnoreCase("false");
 
 			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
 			corsHeaders(exchange, config.corsAllowOrigins(), "GET, OPTIONS");
 
-			exchange.dispatch(() -> {
+			final SearchRequest request;
+			try {
+				request = searchRequest(new SearchSpec(
+					query, offset, limit, fieldsParam(exchange, "fields"), content,
+					fieldsParam(exchange, "highlight"), fieldsParam(exchange, "summarize"), filterParams(exchange)
+				));
+			} catch (IllegalArgumentException e) {
+				exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+				exchange.endExchange();
+				return;
+			}
+
+			final Executor executor = virtualThreads != null ? virtualThreads : exchange.getConnection().getWorker();
+
+			// each read from a cursor advances it, so cursor pages are neither cached nor shared
+			final Deque<String> cursor = exchange.getQueryParameters().get("cursor");
+			if (cursor != null) {
+				searchCursor(exchange, cursor.getFirst(), request, executor);
+				return;
+			}
+
+			// cached responses can be sent straight from the IO thread, with no serialisation or compression
+			final CachedResponse cached = searchCache.get(request);
+			if (cached != null) {
+				cached.send(exchange);
+				return;
+			}
+
+			// identical searches arriving while one is already in flight wait for its response, rather than each querying
+			// redis; waiting does not hold a thread
+			exchange.dispatch(SameThreadExecutor.INSTANCE, () -> {
+				searchFlights.execute(request, () -> search(request, executor)).whenComplete((response, error) -> {
+					if (error != null) {
+						logger.error("Query '{}' search failure", query, error);
+						exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+						exchange.endExchange();
+					} else {
+						response.send(exchange);
+					}
+				});
+			});
+		};
+	}
+
+	private HttpHandler facetsHandler() {
+		return (exchange) -> {
+			final String query = exchange.getQueryParameters().getOrDefault("q", new ArrayDeque<>(Set.of(""))).getFirst();
+			final int limit = Integer.parseInt(exchange.getQueryParameters()
+													   .getOrDefault("limit", new ArrayDeque<>(Set.of(Integer.toString(config.facets().maxValues()))))
+													   .getFirst());
+
+			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+			corsHeaders(exchange, config.corsAllowOrigins(), "GET, OPTIONS");
+
+			final Facets.Request request;
+			try {
+				request = facets.request(query, filters.parse(filterParams(exchange)), fieldsParam(exchange, "fields"), limit);
+			} catch (IllegalArgumentException e) {
+				exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+				exchange.endExchange();
+				return;
+			}
+
+			final CachedResponse cached = facetCache.get(request);
+			if (cached != null) {
+				cached.send(exchange);
+				return;
+			}
+
+			final Executor executor = virtualThreads != null ? virtualThreads : exchange.getConnection().getWorker();
+			exchange.dispatch(SameThreadExecutor.INSTANCE, () -> {
+				facetFlights.execute(request, () -> countFacets(request, executor)).whenComplete((response, error) -> {
+					if (error != null) {
+						logger.error("Query '{}' facet failure", query, error);
+						exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+						exchange.endExchange();
+					} else {
+						response.send(exchange);
+					}
+				});
+			});
+		};
+	}
+
+	/**
+	 * Count facets on all shards in parallel, with all of a shard's counts
+	 * found in a single round trip, and serialise and cache the merged
+	 * counts.
+	 */
+	private CompletableFuture<CachedResponse> countFacets(Facets.Request request, Executor executor) {
+		final long generation = facetCache.generation();
+
+		final CompletableFuture<Facets.Results> results;
+		if (request.fields().isEmpty()) {
+			results = CompletableFuture.completedFuture(facets.merge(request, List.of()));
+		} else {
+			// values found on only some shards may be missed from the most common on each, so look deeper when sharded
+			final List<AggregationBuilder> aggregations = facets.aggregations(request, shards.size() > 1 ? request.limit() * 3 : request.limit());
+			final List<CompletableFuture<List<AggregationResult>>> counts = new ArrayList<>(shards.size());
+			for (int i = 0; i < shards.size(); i++) counts.add(shards.aggregateAll(i, config.index(), aggregations, executor));
+			results = CompletableFuture.allOf(counts.toArray(CompletableFuture[]::new))
+									   .thenApply(v -> facets.merge(request, counts.stream().map(CompletableFuture::join).toList()));
+		}
+
+		return results.thenApply(r -> {
+			try {
+				final CachedResponse response = CachedResponse.of(JacksonMapper.JSON.bytes(r),
+																  facetCache.enabled() && config.cache().precompress());
+				facetCache.put(request, response, generation);
+				return response;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	private HttpHandler searchBatchHandler() {
+		return (exchange) -> {
+			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+			corsHeaders(exchange, config.corsAllowOrigins(), "POST, OPTIONS");
+
+			final Executor executor = virtualThreads != null ? virtualThreads : exchange.getConnection().getWorker();
+
+			// the body is small, so is read without blocking, and searches are then sent from the io thread as in searchHandler
+			exchange.getRequestReceiver().receiveFullBytes((ex, body) -> {
+				final List<SearchRequest> requests;
 				try {
-					SearchResult searchResult = client.ftSearch(config.index(),
-																new Query(query)
-																	.limit(offset, limit)
-																	.setWithScores());
-					exchange.getResponseSender().send(
-						JacksonMapper.JSON.string(SearchResults.fromSearchResult(searchResult, offset, limit))
-					);
-					logger.info("Query '{}' returned {} results", query, searchResult.getTotalResults());
-				} catch (JedisDataException e) {
-					logger.error("Query '{}' search failure", query, e);
-					exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+					final SearchSpec[] searches = JacksonMapper.JSON.object(body, SearchSpec[].class);
+					if (searches == null || searches.length > MAX_BATCH_SEARCHES) throw new IllegalArgumentException("Invalid batch size");
+					requests = Arrays.stream(searches).map(this::searchRequest).toList();
+				} catch (IOException | IllegalArgumentException | NullPointerException e) {
+					ex.setStatusCode(StatusCodes.BAD_REQUEST);
+					ex.endExchange();
+					return;
+				}
+
+				final CachedResponse[] responses = new CachedResponse[requests.size()];
+				final List<Integer> misses = new ArrayList<>();
+				for (int i = 0; i < requests.size(); i++) {
+					responses[i] = searchCache.get(requests.get(i));
+					if (responses[i] == null) misses.add(i);
+				}
+
+				if (misses.isEmpty()) {
+					sendBatch(ex, responses);
+					return;
+				}
+
+				final long generation = searchCache.generation();
+				final List<SearchRequest> uncached = misses.stream().map(requests::get).toList();
+				ex.dispatch(SameThreadExecutor.INSTANCE, () -> {
+					searchBatch(uncached, executor).whenComplete((results, error) -> {
+						if (error != null) {
+							logger.error("Batch of {} searches failed", uncached.size(), error);
+							ex.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+							ex.endExchange();
+							return;
+						}
+
+						for (int i = 0; i < misses.size(); i++) {
+							responses[misses.get(i)] = cacheResults(uncached.get(i), results.get(i), generation);
+						}
+						sendBatch(ex, responses);
+					});
+				});
+			});
+		};
+	}
+
+	/**
+	 * Run several searches, pipelined so that each shard is only sent a single
+	 * round trip.
+	 * <p>
+	 * Unlike single searches, deeper pages on sharded indexes are fetched
+	 * with their content in one phase, so that all searches still complete in
+	 * a single round trip.
+	 *
+	 * @param requests searches to run
+	 * @param executor executor used to run blocking searches
+	 * @return future completed with the results of each search, in the same order as the requests
+	 */
+	private CompletableFuture<List<SearchResults>> searchBatch(List<SearchRequest> requests, Executor executor) {
+		final long start = System.nanoTime();
+
+		final CompletableFuture<List<SearchResults>> results;
+		if (shards.size() == 1) {
+			results = shards.searchAll(0, config.index(), requests.stream()
+																 .map(r -> new Shards.Search(r.toQuery(), r.offset(), r.limit()))
+																 .toList(), executor);
+		} else {
+			final List<Shards.Search> searches = requests.stream().map(r -> {
+				final int depth = r.offset() + r.limit();
+				return new Shards.Search(r.toQuery().limit(0, depth), 0, depth);
+			}).toList();
+
+			final List<CompletableFuture<List<SearchResults>>> shardResults = new ArrayList<>(shards.size());
+			for (int i = 0; i < shards.size(); i++) shardResults.add(shards.searchAll(i, config.index(), searches, executor));
+
+			results = CompletableFuture.allOf(shardResults.toArray(CompletableFuture[]::new)).thenApply(v -> {
+				final List<SearchResults> merged = new ArrayList<>(requests.size());
+				for (int i = 0; i < requests.size(); i++) {
+					final int search = i;
+					merged.add(SearchResults.merge(shardResults.stream().map(f -> f.join().get(search)).toList(),
+												   requests.get(i).offset(), requests.get(i).limit()));
+				}
+				return merged;
+			});
+		}
+
+		return results.whenComplete((r, error) -> metrics.searchRedis.record(System.nanoTime() - start));
+	}
+
+	/**
+	 * Send the results of a batch of searches as a JSON array, made up of
+	 * each search's already serialised results.
+	 */
+	private static void sendBatch(HttpServerExchange exchange, CachedResponse[] responses) {
+		// brackets, and commas between results
+		int size = 2 + Math.max(0, responses.length - 1);
+		for (CachedResponse response : responses) size += response.body().remaining();
+
+		final ByteBuffer body = ByteBuffer.allocate(size);
+		body.put((byte)'[');
+		for (int i = 0; i < responses.length; i++) {
+			if (i > 0) body.put((byte)',');
+			body.put(responses[i].body());
+		}
+		body.put((byte)']');
+		exchange.getResponseSender().send(body.flip());
+	}
+
+	/**
+	 * Read a page of results from a search cursor.
+	 *
+	 * @param token    cursor token from a previous page, or {@code start} to start a new cursor for the request
+	 * @param request  search to start a cursor for
+	 * @param executor executor used to run blocking requests
+	 */
+	private void searchCursor(HttpServerExchange exchange, String token, SearchRequest request, Executor executor) {
+		final SearchCursor cursor;
+		try {
+			cursor = token.equals("start")
+				? SearchCursor.start(request, Math.max(1, Math.min(request.limit(), config.search().cursorCount())))
+				: SearchCursor.parse(token);
+			if (cursor.count() > config.search().cursorCount()) throw new IllegalArgumentException("Invalid cursor");
+		} catch (IllegalArgumentException e) {
+			exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+			exchange.endExchange();
+			return;
+		}
+
+		exchange.dispatch(SameThreadExecutor.INSTANCE, () -> {
+			cursor.read(shards, config.index(), config.search().cursorMaxIdleMillis(), executor).whenComplete((page, error) -> {
+				try {
+					if (error != null) {
+						final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+						if (cause instanceof IllegalArgumentException) {
+							exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+						} else if (cause instanceof JedisDataException && String.valueOf(cause.getMessage()).contains("Cursor not found")) {
+							// the cursor has expired, or was already exhausted
+							exchange.setStatusCode(StatusCodes.GONE);
+						} else {
+							logger.error("Query '{}' cursor read failure", cursor.q(), error);
+							exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+						}
+						exchange.endExchange();
+						return;
+					}
+
+					exchange.getResponseSender().send(ByteBuffer.wrap(JacksonMapper.JSON.bytes(
+						new CursorResults(page.docs(), cursor.count(), page.next() == null ? null : page.next().token())
+					)));
 				} catch (IOException e) {
-					logger.error("Query '{}' request failure", query, e);
+					logger.error("Failed to write cursor results", e);
 					exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
-				} finally {
 					exchange.endExchange();
 				}
 			});
-		};
+		});
+	}
+
+	/**
+	 * Read a comma-separated list of field names from a query parameter.
+	 *
+	 * @return the named fields, or null if the parameter was not provided
+	 */
+	private static List<String> fieldsParam(HttpServerExchange exchange, String name) {
+		final Deque<String> param = exchange.getQueryParameters().get(name);
+		if (param == null) return null;
+		return Arrays.stream(param.getFirst().split(",")).map(String::trim).filter(f -> !f.isEmpty()).distinct().toList();
+	}
+
+	/**
+	 * Read filters from query parameters named {@code filter.<field>}.
+	 *
+	 * @return filter values, keyed by field name
+	 */
+	private static Map<String, String> filterParams(HttpServerExchange exchange) {
+		final Map<String, String> filters = new HashMap<>();
+		exchange.getQueryParameters().forEach((name, values) -> {
+			if (name.startsWith(FILTER_PARAM)) filters.put(name.substring(FILTER_PARAM.length()), values.getFirst());
+		});
+		return filters;
+	}
+
+	/**
+	 * Create a search request, using the schema's defaults for any fields,
+	 * highlighting or summarising not specified by the search.
+	 *
+	 * @throws IllegalArgumentException if the search's filters are not valid
+	 */
+	private SearchRequest searchRequest(SearchSpec search) {
+		final List<String> fields = search.fields() == null ? returnFields : search.fields();
+		final boolean content = (fields == null || !fields.isEmpty()) && (search.content() == null || search.content());
+		return new SearchRequest(search.q() == null ? "" : search.q(),
+								 search.offset() == null ? 0 : search.offset(),
+								 search.limit() == null ? 10 : search.limit(),
+								 content ? fields : null, content,
+								 search.highlight() == null ? highlightFields : search.highlight(),
+								 search.summarize() == null ? summarizeFields : search.summarize(),
+								 filters.parse(search.filters()));
+	}
+
+	/**
+	 * Run a search, and serialise and cache its results.
+	 *
+	 * @param request  search to run
+	 * @param executor executor used to run blocking searches
+	 * @return future completed with the serialised results
+	 */
+	private CompletableFuture<CachedResponse> search(SearchRequest request, Executor executor) {
+		final long generation = searchCache.generation();
+		final long start = System.nanoTime();
+
+		final CompletableFuture<SearchResults> results;
+		if (shards.size() == 1) {
+			results = shards.search(0, config.index(), request.toQuery(), request.offset(), request.limit(), executor);
+		} else if (request.offset() == 0) {
+			// the first page needs at most limit results from each shard, which can be fetched in a single round trip
+			results = searchShards(request.toQuery(), request.limit(), executor)
+				.thenApply(all -> SearchResults.merge(all, request.offset(), request.limit()));
+		} else if (request.formatted()) {
+			// highlights and summaries can only be produced by the search itself, so content is fetched for all
+			// offset + limit results from each shard
+			final int depth = request.offset() + request.limit();
+			results = searchShards(request.toQuery().limit(0, depth), depth, executor)
+				.thenApply(all -> SearchResults.merge(all, request.offset(), request.limit()));
+		} else {
+			// deeper pages need offset + limit results from each shard to find the page, so fetch only ids and scores,
+			// followed by the content of the documents on the page
+			final int depth = request.offset() + request.limit();
+			final CompletableFuture<SearchResults> page = searchShards(request.toQuery().limit(0, depth).setNoContent(), depth, executor)
+				.thenApply(all -> SearchResults.merge(all, request.offset(), request.limit()));
+			results = request.content() ? page.thenCompose(p -> fetchContent(p, request.fields(), executor)) : page;
+		}
+
+		return results.whenComplete((r, error) -> metrics.searchRedis.record(System.nanoTime() - start))
+					  .thenApply(r -> cacheResults(request, r, generation));
+	}
+
+	/**
+	 * Run a query on all shards in parallel.
+	 */
+	private CompletableFuture<List<SearchResults>> searchShards(Query query, int limit, Executor executor) {
+		final List<CompletableFuture<SearchResults>> searches = new ArrayList<>(shards.size());
+		for (int i = 0; i < shards.size(); i++) {
+			searches.add(shards.search(i, config.index(), query, 0, limit, executor));
+		}
+		return CompletableFuture.allOf(searches.toArray(CompletableFuture[]::new))
+								.thenApply(v -> searches.stream().map(CompletableFuture::join).toList());
+	}
+
+	/**
+	 * Fill in the fields of a page of search results found without content,
+	 * fetching documents from each shard in parallel.
+	 */
+	private CompletableFuture<SearchResults> fetchContent(SearchResults page, List<String> fields, Executor executor) {
+		final Map<Integer, List<String>> keys = new HashMap<>();
+		page.docs().forEach(d -> keys.computeIfAbsent(shards.shard(d.getId()), s -> new ArrayList<>()).add(d.getId()));
+
+		final Map<String, Map<String, String>> content = new ConcurrentHashMap<>();
+		final CompletableFuture<?>[] fetches = keys.entrySet().stream().map(e -> shards.fetch(e.getKey(), e.getValue(), fields, executor)
+			.thenAccept(hashes -> {
+				for (int i = 0; i < hashes.size(); i++) content.put(e.getValue().get(i), hashes.get(i));
+			})).toArray(CompletableFuture[]::new);
+
+		return CompletableFuture.allOf(fetches).thenApply(v -> new SearchResults(
+			page.docs().stream()
+				.map(d -> new Document(d.getId(), new HashMap<String, Object>(content.getOrDefault(d.getId(), Map.of())), d.getScore()))
+				.toList(),
+			page.totalResults(), page.offset(), page.limit()
+		));
+	}
+
+	private CachedResponse cacheResults(SearchRequest request, SearchResults results, long generation) {
+		logger.info("Query '{}' returned {} results", request.q(), results.totalResults());
+
+		// serialised once, and shared between all requests waiting on this search
+		final long start = System.nanoTime();
+		final CachedResponse response;
+		try {
+			response = CachedResponse.of(JacksonMapper.JSON.bytes(results), searchCache.enabled() && config.cache().precompress());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		metrics.searchSerialise.record(System.nanoTime() - start);
+
+		searchCache.put(request, response, generation);
+		return response;
+	}
+
+	/**
+	 * Discard cached and in-flight search results and facet counts following
+	 * a write to the index.
+	 */
+	private void invalidate() {
+		// searches are sent to the primary before being cached again, as replicas may lag behind the write
+		shards.written();
+		searchCache.invalidate();
+		searchFlights.forget();
+		facetCache.invalidate();
+		facetFlights.forget();
 	}
 
 	private HttpHandler addBatchHandler() {
 		return (exchange) -> {
 			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
 
-			exchange.dispatch(() -> {
+			// the response is a bare count unless details of each failed document are asked for
+			final boolean detail = exchange.getQueryParameters().getOrDefault("detail", new ArrayDeque<>(Set.of("false")))
+										   .getFirst().equalsIgnoreCase("true");
+
+			dispatch(exchange, () -> {
 				logger.info("Adding document batch to the index");
 				try (BlockingHttpExchange ex = exchange.startBlocking()) {
-					AddRequest req = JacksonMapper.JSON.object(exchange.getInputStream(), AddRequest.class);
+					// documents which cannot be read are reported as failures alongside those which could not be written
+					final List<BatchWriter.Failure> failed = new ArrayList<>();
+					if (wal != null) {
+						final AtomicInteger accepted = new AtomicInteger();
+						final boolean malformed = streamBatch(exchange.getInputStream(), failed, doc -> {
+							if (append(doc, failed)) accepted.incrementAndGet();
+						});
+						AcceptedResult result = new AcceptedResult(accepted.get(), failed);
+						logger.info("Logged {} documents, {} failed", result.accepted(), result.failed().size());
 
-					Boolean[] results = req.docs.stream().map(this::addDocument).toArray(Boolean[]::new);
+						exchange.setStatusCode(malformed ? StatusCodes.BAD_REQUEST : StatusCodes.ACCEPTED);
+						exchange.getResponseSender().send(JacksonMapper.JSON.string(detail ? result : result.accepted()));
+						return;
+					}
 
-					int ok = 0;
-					for (boolean b : results) if (b) ok++;
+					// documents are flushed to redis in chunks as they're parsed, rather than reading the whole batch up-front
+					BatchWriter writer = batchWriter();
+					final boolean malformed = streamBatch(exchange.getInputStream(), failed, writer::add);
+					BatchWriter.Result written = writer.finish();
+					failed.addAll(written.failed());
+					BatchWriter.Result result = new BatchWriter.Result(written.added(), written.written(), written.skipped(), failed);
 
-					exchange.getResponseSender().send(JacksonMapper.JSON.string(ok));
-				} catch (JsonParseException e) {
-					exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+					logger.info("Added {} documents, {} unchanged, {} failed", result.added(), result.skipped(), result.failed().size());
+					for (BatchWriter.Failure failure : result.failed()) logger.warn("Document {} failed: {}", failure.id(), failure.error());
+
+					if (malformed) exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+					exchange.getResponseSender().send(JacksonMapper.JSON.string(detail ? result : result.added()));
 				} catch (IOException e) {
 					logger.error("Failed to process request", e);
 					exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
@@ -186,19 +855,159 @@ public class API implements Closeable {
 		};
 	}
 
+	/**
+	 * Read the documents of a batch as they're parsed. Documents of the wrong
+	 * shape are recorded as failures, and reading continues. Malformed JSON
+	 * ends the batch, though documents read before it are kept, as earlier
+	 * chunks may already have been written.
+	 *
+	 * @return true if the batch ended early with malformed JSON
+	 */
+	private boolean streamBatch(InputStream in, List<BatchWriter.Failure> failed, Consumer<AddDocument> consumer) throws IOException {
+		try {
+			JacksonMapper.JSON.stream(in, "docs", AddDocument.class, consumer,
+									  e -> failed.add(new BatchWriter.Failure(null, e.getOriginalMessage())));
+			return false;
+		} catch (JsonParseException e) {
+			failed.add(new BatchWriter.Failure(null, e.getOriginalMessage()));
+			return true;
+		}
+	}
+
+	/**
+	 * Append a document to the write-ahead log, recording why it could not
+	 * be appended if it fails.
+	 *
+	 * @return true if the document was appended
+	 */
+	private boolean append(AddDocument doc, List<BatchWriter.Failure> failed) {
+		if (doc == null || doc.id() == null || doc.fields() == null) {
+			failed.add(new BatchWriter.Failure(doc == null ? null : doc.id(), "Document requires an id and fields"));
+			return false;
+		}
+
+		try {
+			wal.append(doc);
+			return true;
+		} catch (IOException | IllegalArgumentException e) {
+			failed.add(new BatchWriter.Failure(doc.id(), e.getMessage()));
+			return false;
+		}
+	}
+
+	private HttpHandler bulkHandler() {
+		return (exchange) -> {
+			String contentType = exchange.getRequestHeaders().getFirst(Headers.CONTENT_TYPE);
+			if (contentType != null && !contentType.startsWith(NDJSON)) {
+				exchange.setStatusCode(StatusCodes.UNSUPPORTED_MEDIA_TYPE);
+				exchange.endExchange();
+				return;
+			}
+
+			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+
+			dispatch(exchange, () -> {
+				logger.info("Adding bulk document stream to the index");
+				try (BlockingHttpExchange ex = exchange.startBlocking();
+					 InputStreamReader input = new InputStreamReader(exchange.getInputStream(), StandardCharsets.UTF_8)) {
+					final LineReader reader = new LineReader(input, MAX_BULK_LINE);
+					final ObjectReader docReader = JacksonMapper.JSON.mapper().readerFor(AddDocument.class);
+
+					// the writer blocks on each full chunk until redis has caught up, so we stop reading the request body
+					// and let TCP flow control push back on the client. with the write-ahead log, documents are logged
+					// instead, so they reach redis in order with those logged by other requests, rather than being
+					// overwritten by older logged values still waiting to be written
+					final BatchWriter writer = wal == null ? batchWriter() : null;
+					final List<BatchWriter.Failure> unlogged = new ArrayList<>();
+					int parsed = 0;
+					int malformed = 0;
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (reader.tooLong()) {
+							malformed++;
+							continue;
+						}
+						if (line.isBlank()) continue;
+						final AddDocument doc;
+						try {
+							doc = docReader.readValue(line);
+						} catch (JsonProcessingException e) {
+							malformed++;
+							continue;
+						}
+						parsed++;
+						if (writer != null) writer.add(doc);
+						else append(doc, unlogged);
+					}
+					final BatchWriter.Result result = writer != null ? writer.finish() : new BatchWriter.Result(0, 0, 0, unlogged);
+					final int accepted = parsed - result.failed().size();
+
+					logger.info("Accepted {} documents, {} unchanged, {} failed, {} malformed", accepted, result.skipped(),
+								result.failed().size(), malformed);
+
+					if (writer == null) exchange.setStatusCode(StatusCodes.ACCEPTED);
+					exchange.getResponseSender().send(JacksonMapper.JSON.string(
+						new BulkResult(accepted, result.written(), result.skipped(), result.failed().size(), malformed, result.failed())
+					));
+				} catch (IOException e) {
+					logger.error("Failed to process request", e);
+					exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+				}
+			});
+		};
+	}
+
+	private HttpHandler reindexHandler() {
+		return (exchange) -> {
+			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+			try {
+				final Reindexer.Status status = reindexer.start();
+				exchange.setStatusCode(StatusCodes.ACCEPTED);
+				exchange.getResponseSender().send(JacksonMapper.JSON.string(status));
+			} catch (IllegalStateException e) {
+				exchange.setStatusCode(StatusCodes.CONFLICT);
+				exchange.getResponseSender().send(JacksonMapper.JSON.string(reindexer.status()));
+			}
+		};
+	}
+
+	private HttpHandler reindexStatusHandler() {
+		return (exchange) -> {
+			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+			exchange.getResponseSender().send(JacksonMapper.JSON.string(reindexer.status()));
+		};
+	}
+
 	private HttpHandler addHandler() {
 		return (exchange) -> {
 			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
 
-			exchange.dispatch(() -> {
+			dispatch(exchange, () -> {
 				logger.info("Adding document to the index");
 				try (BlockingHttpExchange ex = exchange.startBlocking()) {
 					AddDocument doc = JacksonMapper.JSON.object(exchange.getInputStream(), AddDocument.class);
 
-					exchange.getResponseSender().send(JacksonMapper.JSON.string(addDocument(doc)));
+					if (wal == null && ingestQueue == null) {
+						exchange.getResponseSender().send(JacksonMapper.JSON.string(addDocument(doc)));
+					} else if (doc == null || doc.id() == null || doc.fields() == null) {
+						exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+					} else if (wal != null) {
+						// logged locally, to be written to redis in the background
+						wal.append(doc);
+						exchange.setStatusCode(StatusCodes.ACCEPTED);
+					} else if (ingestQueue.offer(doc)) {
+						// accepted, to be written to redis in the background
+						exchange.setStatusCode(StatusCodes.ACCEPTED);
+					} else {
+						exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+						exchange.getResponseHeaders().put(Headers.RETRY_AFTER, 1);
+					}
 				} catch (JsonParseException e) {
 					logger.error("Failed to parse JSON", e);
 					exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+				} catch (IllegalArgumentException e) {
+					logger.error("Document rejected", e);
+					exchange.setStatusCode(StatusCodes.BAD_REQUEST);
 				} catch (IOException e) {
 					logger.error("Failed to process request", e);
 					exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
@@ -207,18 +1016,64 @@ public class API implements Closeable {
 		};
 	}
 
+	private BatchWriter batchWriter() {
+		return new BatchWriter(shards, config.prefix(), config.ingest(), fingerprints, suggester, metrics, this::invalidate);
+	}
+
 	private boolean addDocument(AddDocument doc) {
-		// convert from <string, object> to hset's required <string, string>...
-		HashMap<String, String> fields = new HashMap<>();
-		doc.fields.forEach((k, v) -> fields.put(k, v.toString()));
+		final String key = config.prefix() + doc.id;
+		final Map<String, String> hash = fingerprints == null ? doc.toHash() : fingerprints.changed(key, doc.toHash());
+		// an unchanged document adds nothing, and leaves cached results valid
+		if (hash.isEmpty()) return false;
 
-		return client.hset(config.prefix() + doc.id, fields) > 0;
+		final boolean added = shards.forKey(key).hset(key, hash) > 0;
+		invalidate();
+		if (fingerprints != null) fingerprints.written(key, hash);
+		if (suggester != null) suggester.written(key, hash);
+		return added;
 	}
 
-	public record AddRequest(
-		List<AddDocument> docs
+	/**
+	 * Completions of a prefix.
+	 *
+	 * @param q           prefix typed so far
+	 * @param suggestions completions, most common first
+	 */
+	public record Suggestions(String q, List<String> suggestions) {}
+
+	/**
+	 * A page of results read from a search cursor.
+	 *
+	 * @param docs   documents found
+	 * @param limit  maximum number of documents per page
+	 * @param cursor token for reading the next page, or null if there are no more results
+	 */
+	public record CursorResults(
+		@JsonSerialize(contentUsing = DocumentSerializer.class) List<Document> docs,
+		int limit,
+		String cursor
 	) {}
 
+	/**
+	 * The parameters of a search, as provided in a request. Unspecified
+	 * values take their defaults.
+	 *
+	 * @param q         query string
+	 * @param offset    offset of the first result to return
+	 * @param limit     maximum number of results to return
+	 * @param fields    fields to return, or an empty list to return only document ids and scores
+	 * @param content   false to return only document ids and scores
+	 * @param highlight fields in which to highlight matching terms
+	 * @param summarize fields to summarise as fragments around matching terms
+	 * @param filters   filter values, keyed by field name
+	 */
+	public record SearchSpec(String q, Integer offset, Integer limit, List<String> fields, Boolean content, List<String> highlight,
+							 List<String> summarize, Map<String, String> filters) {}
+
+	public record AcceptedResult(int accepted, List<BatchWriter.Failure> failed) {}
+
+	public record BulkResult(int accepted, int written, int skipped, int failed, int malformed, List<BatchWriter.Failure> failures) {}
+
 	public record AddDocument(
 		String id,
 		Map<String, Object> fields,
@@ -228,6 +1083,13 @@ public class API implements Closeable {
 			return new Document(id, fields, score);
 		}
 
+		public Map<String, String> toHash() {
+			// convert from <string, object> to hset's required <string, string>...
+			HashMap<String, String> hash = new HashMap<>();
+			fields.forEach((k, v) -> hash.put(k, v.toString()));
+			return hash;
+		}
+
 		public static AddDocument fromDocument(Document doc) {
 			Map<String, Object> fields = new HashMap<>();
 			doc.getProperties().forEach(e -> fields.put(e.getKey(), e.getValue()));
@@ -239,13 +1101,125 @@ public class API implements Closeable {
 		}
 	}
 
-	public record SearchResults(List<AddDocument> docs, long totalResults, int offset, int limit) {
+	/**
+	 * Live state of a Redis connection pool.
+	 *
+	 * @param active               connections currently borrowed
+	 * @param idle                 connections open and available
+	 * @param waiters              threads currently waiting for a connection
+	 * @param maxTotal             maximum number of connections
+	 * @param meanBorrowWaitMillis mean time recently spent waiting to borrow a connection
+	 * @param maxBorrowWaitMillis  longest time spent waiting to borrow a connection
+	 * @param borrowed             total number of connections borrowed
+	 * @param created              total number of connections opened
+	 * @param destroyed            total number of connections closed
+	 */
+	public record PoolStats(int active, int idle, int waiters, int maxTotal, long meanBorrowWaitMillis, long maxBorrowWaitMillis,
+							long borrowed, long created, long destroyed) {
+
+		public static PoolStats of(GenericObjectPool<?> pool) {
+			return new PoolStats(pool.getNumActive(), pool.getNumIdle(), pool.getNumWaiters(), pool.getMaxTotal(),
+								 pool.getMeanBorrowWaitDuration().toMillis(), pool.getMaxBorrowWaitDuration().toMillis(),
+								 pool.getBorrowedCount(), pool.getCreatedCount(), pool.getDestroyedCount());
+		}
+
+		/**
+		 * Combined statistics for the pools of all shards.
+		 */
+		public static PoolStats of(Shards shards) {
+			if (shards.size() == 1) return of(shards.client(0).getPool());
+
+			final List<PoolStats> pools = shards.clients().stream().map(c -> of(c.getPool())).toList();
+			return new PoolStats(
+				pools.stream().mapToInt(PoolStats::active).sum(),
+				pools.stream().mapToInt(PoolStats::idle).sum(),
+				pools.stream().mapToInt(PoolStats::waiters).sum(),
+				pools.stream().mapToInt(PoolStats::maxTotal).sum(),
+				(long)pools.stream().mapToLong(PoolStats::meanBorrowWaitMillis).average().orElse(0),
+				pools.stream().mapToLong(PoolStats::maxBorrowWaitMillis).max().orElse(0),
+				pools.stream().mapToLong(PoolStats::borrowed).sum(),
+				pools.stream().mapToLong(PoolStats::created).sum(),
+				pools.stream().mapToLong(PoolStats::destroyed).sum()
+			);
+		}
+	}
+
+	public record SearchResults(
+		// documents are written straight from redis results, rather than being copied into AddDocuments first
+		@JsonSerialize(contentUsing = DocumentSerializer.class) List<Document> docs,
+		long totalResults,
+		int offset,
+		int limit) {
 
 		public static SearchResults fromSearchResult(SearchResult result, int offset, int limit) {
-			return new SearchResults(
-				result.getDocuments().stream().map(AddDocument::fromDocument).collect(Collectors.toList()),
-				result.getTotalResults(),
-				offset, limit);
+			return new SearchResults(result.getDocuments(), result.getTotalResults(), offset, limit);
+		}
+
+		/**
+		 * Merge results from several shards into a single page of results,
+		 * ordered by descending score.
+		 * <p>
+		 * Each shard's documents must already be ordered by descending score,
+		 * and hold at least its first {@code offset + limit} results. Documents
+		 * with equal scores are ordered by shard.
+		 *
+		 * @param shards results from each shard
+		 * @param offset number of merged results to skip
+		 * @param limit  maximum number of merged results to return
+		 * @return a page of merged results
+		 */
+		public static SearchResults merge(List<SearchResults> shards, int offset, int limit) {
+			// a cursor is the shard number, and the index of its next document
+			final PriorityQueue<int[]> cursors = new PriorityQueue<>(
+				Math.max(1, shards.size()),
+				Comparator.<int[]>comparingDouble(c -> -shards.get(c[0]).docs().get(c[1]).getScore()).thenComparingInt(c -> c[0])
+			);
+			for (int i = 0; i < shards.size(); i++) {
+				if (!shards.get(i).docs().isEmpty()) cursors.add(new int[] { i, 0 });
+			}
+
+			final List<Document> docs = new ArrayList<>(limit);
+			for (int taken = 0; taken < offset + limit && !cursors.isEmpty(); taken++) {
+				final int[] cursor = cursors.poll();
+				final List<Document> shardDocs = shards.get(cursor[0]).docs();
+				if (taken >= offset) docs.add(shardDocs.get(cursor[1]));
+				if (++cursor[1] < shardDocs.size()) cursors.add(cursor);
+			}
+
+			return new SearchResults(docs, shards.stream().mapToLong(SearchResults::totalResults).sum(), offset, limit);
+		}
+	}
+
+	/**
+	 * Writes a search result document in the same shape as an {@link AddDocument}.
+	 */
+	static class DocumentSerializer extends JsonSerializer<Document> {
+
+		private static final Comparator<Map.Entry<String, Object>> BY_KEY = Map.Entry.comparingByKey();
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void serialize(Document doc, JsonGenerator gen, SerializerProvider provider) throws IOException {
+			gen.writeStartObject();
+
+			gen.writeObjectFieldStart("fields");
+			// maintain the mapper's ORDER_MAP_ENTRIES_BY_KEYS behaviour
+			Map.Entry<String, Object>[] fields = StreamSupport.stream(doc.getProperties().spliterator(), false)
+															  .toArray(Map.Entry[]::new);
+			Arrays.sort(fields, BY_KEY);
+			for (Map.Entry<String, Object> field : fields) {
+				if (field.getValue() instanceof String str) gen.writeStringField(field.getKey(), str);
+				else {
+					gen.writeFieldName(field.getKey());
+					provider.defaultSerializeValue(field.getValue(), gen);
+				}
+			}
+			gen.writeEndObject();
+
+			gen.writeStringField("id", doc.getId());
+			gen.writeNumberField("score", doc.getScore());
+
+			gen.writeEndObject();
 		}
 	}
 }
@@ -0,0 +1,508 @@
+package net.shrimpworks.mes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.args.Rawable;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.search.Document;
+import redis.clients.jedis.search.Query;
+import redis.clients.jedis.search.SearchProtocol;
+
+/**
+ * A minimal non-blocking Redis client, which multiplexes many concurrent
+ * commands over a small number of connections.
+ * <p>
+ * Commands are written to a connection as they are submitted, without
+ * waiting for earlier replies, and Redis replies to them in the same order.
+ * Each connection therefore keeps a queue of futures for commands awaiting
+ * replies, completing them in order as replies are read. No thread is held
+ * while a command is in flight, so the number of concurrent commands is not
+ * limited by the number of threads.
+ * <p>
+ * A command not replied to within the timeout fails, along with all other
+ * commands in flight on its connection, which is closed, and opened again
+ * for the next command. Replies to later commands could otherwise be held
+ * up behind it indefinitely.
+ * <p>
+ * Only the RESP2 protocol is supported, which is sufficient for search
+ * commands.
+ */
+public class AsyncRedis implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(AsyncRedis.class);
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private final InetSocketAddress address;
+	private final long timeoutMillis;
+	private final AsynchronousChannelGroup group;
+	private final Connection[] connections;
+	private final AtomicInteger next = new AtomicInteger();
+
+	public AsyncRedis(HostAndPort host, int connections, long timeoutMillis) throws IOException {
+		this.address = new InetSocketAddress(host.getHost(), host.getPort());
+		this.timeoutMillis = timeoutMillis;
+		this.group = AsynchronousChannelGroup.withFixedThreadPool(connections, Executors.defaultThreadFactory());
+		this.connections = new Connection[connections];
+		for (int i = 0; i < connections; i++) this.connections[i] = new Connection();
+	}
+
+	@Override
+	public void close() {
+		for (Connection c : connections) c.close(new JedisConnectionException("Client closed"));
+		group.shutdown();
+	}
+
+	/**
+	 * Run a search query.
+	 *
+	 * @param index  index to search
+	 * @param query  query to run
+	 * @param offset result offset, echoed in the results
+	 * @param limit  result limit, echoed in the results
+	 * @return future completed with the search results
+	 */
+	public CompletableFuture<API.SearchResults> search(String index, Query query, int offset, int limit) {
+		CommandArguments args = new CommandArguments(SearchProtocol.SearchCommand.SEARCH).add(index).addParams(query);
+		return send(args).thenApply(reply -> searchResults(reply, !query.getNoContent(), query.getWithScores(), offset, limit));
+	}
+
+	/**
+	 * Send an arbitrary command.
+	 *
+	 * @param args command and its arguments
+	 * @return future completed with the decoded reply
+	 */
+	public CompletableFuture<Object> send(CommandArguments args) {
+		Connection connection = connections[Math.floorMod(next.getAndIncrement(), connections.length)];
+		return connection.send(encode(args));
+	}
+
+	private static API.SearchResults searchResults(Object result, boolean hasContent, boolean hasScores, int offset, int limit) {
+		if (!(result instanceof List<?> reply) || reply.isEmpty() || !(reply.getFirst() instanceof Long total)) {
+			throw new JedisDataException("Unexpected reply to search: " + result);
+		}
+
+		final int step = 1 + (hasContent ? 1 : 0) + (hasScores ? 1 : 0);
+
+		List<Document> docs = new ArrayList<>((reply.size() - 1) / step);
+		for (int i = 1; i + step <= reply.size(); i += step) {
+			String id = string(reply.get(i));
+			double score = hasScores ? Double.parseDouble(string(reply.get(i + 1))) : 1.0;
+
+			Map<String, Object> fields = new HashMap<>();
+			if (hasContent && reply.get(i + step - 1) instanceof List<?> props) {
+				for (int p = 0; p + 1 < props.size(); p += 2) fields.put(string(props.get(p)), string(props.get(p + 1)));
+			}
+
+			docs.add(new Document(id, fields, score));
+		}
+
+		return new API.SearchResults(docs, total, offset, limit);
+	}
+
+	private static String string(Object value) {
+		return value instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : String.valueOf(value);
+	}
+
+	private static ByteBuffer encode(CommandArguments args) {
+		List<byte[]> raw = new ArrayList<>(args.size());
+		int size = 16;
+		for (Rawable arg : args) {
+			byte[] bytes = arg.getRaw();
+			raw.add(bytes);
+			size += bytes.length + 16;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.put((byte)'*').put(Integer.toString(raw.size()).getBytes(StandardCharsets.US_ASCII)).put((byte)'\r').put((byte)'\n');
+		for (byte[] bytes : raw) {
+			buffer.put((byte)'$').put(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII)).put((byte)'\r').put((byte)'\n');
+			buffer.put(bytes).put((byte)'\r').put((byte)'\n');
+		}
+		return buffer.flip();
+	}
+
+	/**
+	 * A single multiplexed connection. Access to the write queue and the
+	 * pending replies queue is guarded by the connection's monitor, so that
+	 * replies are always matched to commands in the order they were written.
+	 */
+	private class Connection {
+
+		private final Queue<CompletableFuture<Object>> pending = new ArrayDeque<>();
+		private final Queue<ByteBuffer> writes = new ArrayDeque<>();
+
+		private AsynchronousSocketChannel channel;
+		private boolean connecting = false;
+		private boolean writing = false;
+
+		private synchronized CompletableFuture<Object> send(ByteBuffer command) {
+			CompletableFuture<Object> future = new CompletableFuture<>();
+			pending.add(future);
+			writes.add(command);
+
+			if (channel == null && !connecting) connect();
+			else if (channel != null && !writing) write();
+
+			final AsynchronousSocketChannel ch = channel;
+			future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((reply, e) -> {
+				if (e instanceof TimeoutException) timedOut(ch, e);
+			});
+			return future;
+		}
+
+		private void connect() {
+			connecting = true;
+			try {
+				AsynchronousSocketChannel ch = AsynchronousSocketChannel.open(group);
+				ch.connect(address, ch, new CompletionHandler<>() {
+					@Override
+					public void completed(Void result, AsynchronousSocketChannel ch) {
+						synchronized (Connection.this) {
+							connecting = false;
+							channel = ch;
+							read(new Reader(ch));
+							if (!writes.isEmpty()) write();
+						}
+					}
+
+					@Override
+					public void failed(Throwable e, AsynchronousSocketChannel ch) {
+						synchronized (Connection.this) {
+							connecting = false;
+						}
+						close(new JedisConnectionException("Failed to connect to " + address, e));
+					}
+				});
+			} catch (IOException e) {
+				connecting = false;
+				close(new JedisConnectionException("Failed to connect to " + address, e));
+			}
+		}
+
+		private void write() {
+			writing = true;
+			final AsynchronousSocketChannel ch = channel;
+			final ByteBuffer[] buffers = writes.toArray(ByteBuffer[]::new);
+			ch.write(buffers, 0, buffers.length, 0, TimeUnit.MILLISECONDS, null, new CompletionHandler<Long, Void>() {
+				@Override
+				public void completed(Long written, Void attachment) {
+					synchronized (Connection.this) {
+						// the writes queue and writing flag now belong to a newer connection
+						if (channel != ch) return;
+						while (!writes.isEmpty() && !writes.peek().hasRemaining()) writes.poll();
+						if (!writes.isEmpty()) write();
+						else writing = false;
+					}
+				}
+
+				@Override
+				public void failed(Throwable e, Void attachment) {
+					close(ch, new JedisConnectionException("Failed to write to " + address, e));
+				}
+			});
+		}
+
+		private void read(Reader reader) {
+			reader.channel.read(reader.buffer, reader, new CompletionHandler<Integer, Reader>() {
+				@Override
+				public void completed(Integer count, Reader reader) {
+					final AsynchronousSocketChannel ch = reader.channel;
+					synchronized (Connection.this) {
+						// the connection has since been closed, and possibly reopened
+						if (channel != ch) return;
+					}
+
+					if (count < 0) {
+						close(ch, new JedisConnectionException("Connection closed by " + address));
+						return;
+					}
+
+					reader.buffer.flip();
+					while (true) {
+						Object reply;
+						try {
+							// replies are only parsed once they have been completely received
+							if (reader.scanner.scan(reader.buffer) < 0) break;
+							reply = Resp.parse(reader.buffer);
+						} catch (RuntimeException e) {
+							close(ch, new JedisConnectionException("Protocol error", e));
+							return;
+						}
+						if (!complete(ch, reply)) return;
+					}
+					// any incomplete reply is moved to the start of the buffer, where the scanner expects it
+					reader.buffer.compact();
+
+					// a full buffer with no complete reply needs room to grow
+					if (!reader.buffer.hasRemaining()) {
+						ByteBuffer larger = ByteBuffer.allocate(reader.buffer.capacity() * 2);
+						reader.buffer.flip();
+						reader.buffer = larger.put(reader.buffer);
+					}
+
+					synchronized (Connection.this) {
+						if (channel == ch) read(reader);
+					}
+				}
+
+				@Override
+				public void failed(Throwable e, Reader reader) {
+					close(reader.channel, new JedisConnectionException("Failed to read from " + address, e));
+				}
+			});
+		}
+
+		/**
+		 * @return false if the connection has since been closed, and the reply discarded
+		 */
+		private boolean complete(AsynchronousSocketChannel ch, Object reply) {
+			CompletableFuture<Object> future;
+			synchronized (this) {
+				// replies still being read from a closed connection do not belong to commands sent since
+				if (channel != ch) return false;
+				future = pending.poll();
+			}
+			if (future == null) {
+				logger.warn("Received unexpected reply from {}", address);
+				return true;
+			}
+
+			if (reply instanceof JedisDataException e) future.completeExceptionally(e);
+			else future.complete(reply);
+			return true;
+		}
+
+		private void timedOut(AsynchronousSocketChannel ch, Throwable e) {
+			close(ch, new JedisConnectionException("Timed out waiting for a reply from " + address, e));
+		}
+
+		private void close(JedisConnectionException reason) {
+			close(null, reason);
+		}
+
+		/**
+		 * Close the connection, failing all commands in flight on it.
+		 * <p>
+		 * If a channel is given, the connection is only closed if it is still
+		 * using that channel. Failures of a channel which has already been
+		 * closed, such as reads still pending on it, must not close the
+		 * channel opened since.
+		 *
+		 * @param ch      channel which failed, or null to close whichever channel is open
+		 * @param reason  failure to complete commands in flight with
+		 */
+		private void close(AsynchronousSocketChannel ch, JedisConnectionException reason) {
+			List<CompletableFuture<Object>> failed;
+			synchronized (this) {
+				if (ch != null && channel != ch) return;
+				if (channel != null) {
+					try {
+						channel.close();
+					} catch (IOException e) {
+						logger.warn("Failed to close connection to {}", address, e);
+					}
+				}
+				channel = null;
+				writing = false;
+				writes.clear();
+				failed = new ArrayList<>(pending);
+				pending.clear();
+			}
+
+			if (!failed.isEmpty()) logger.error("Connection to {} failed with {} commands in flight", address, failed.size(), reason);
+			failed.forEach(f -> f.completeExceptionally(reason));
+		}
+	}
+
+	/**
+	 * Read state for a single channel. Each channel gets its own, passed
+	 * along with each read, so that reads still completing on a closed
+	 * channel never touch the buffer of the channel opened since.
+	 * <p>
+	 * Only one read is outstanding per channel at a time, so this needs no
+	 * further guarding.
+	 */
+	private static class Reader {
+
+		private final AsynchronousSocketChannel channel;
+		private final Resp.Scanner scanner = new Resp.Scanner();
+		private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+		private Reader(AsynchronousSocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * RESP2 reply parser.
+	 * <p>
+	 * A large reply may arrive over many reads, so rather than attempting to
+	 * parse it after each read, a {@link Scanner} follows the reply as it
+	 * arrives, and it is parsed once it is known to be complete.
+	 */
+	static class Resp {
+
+		static final Object INCOMPLETE = new Object();
+
+		/**
+		 * Parse a single reply from the buffer.
+		 *
+		 * @param buf buffer to read from
+		 * @return the reply, or {@link #INCOMPLETE} if the buffer does not yet hold a complete reply, in which case the
+		 * 	buffer position is undefined
+		 */
+		static Object parse(ByteBuffer buf) {
+			if (!buf.hasRemaining()) return INCOMPLETE;
+
+			byte type = buf.get();
+			String line = line(buf);
+			if (line == null) return INCOMPLETE;
+
+			return switch (type) {
+				case '+' -> line;
+				case '-' -> new JedisDataException(line);
+				case ':' -> Long.parseLong(line);
+				case '$' -> {
+					int len = Integer.parseInt(line);
+					if (len < 0) yield null;
+					if (buf.remaining() < len + 2) yield INCOMPLETE;
+					byte[] bytes = new byte[len];
+					buf.get(bytes);
+					buf.position(buf.position() + 2);
+					yield bytes;
+				}
+				case '*' -> {
+					int len = Integer.parseInt(line);
+					if (len < 0) yield null;
+					List<Object> items = new ArrayList<>(len);
+					for (int i = 0; i < len; i++) {
+						Object item = parse(buf);
+						if (item == INCOMPLETE) yield INCOMPLETE;
+						items.add(item);
+					}
+					yield items;
+				}
+				default -> throw new JedisDataException("Unknown reply type " + (char)type);
+			};
+		}
+
+		/**
+		 * Finds where a reply ends, as it arrives. Progress is kept between
+		 * calls, so the elements of a reply are each examined once, however
+		 * many reads it arrives over, and bulk strings are skipped by their
+		 * length rather than examined.
+		 */
+		static class Scanner {
+
+			// offset from the start of the reply to the next element to examine
+			private int offset;
+			// elements remaining in each array being scanned, innermost last
+			private int[] remaining = new int[8];
+			private int depth;
+
+			/**
+			 * Continue scanning a reply.
+			 *
+			 * @param buf buffer positioned at the start of the reply, which holds at least as much of it as on
+			 *            the previous call
+			 * @return length of the reply, or -1 if it has not been completely received
+			 */
+			int scan(ByteBuffer buf) {
+				final int start = buf.position();
+				while (true) {
+					final int at = start + offset;
+					final int eol = eol(buf, at + 1);
+					if (eol < 0) return -1;
+
+					int next = eol + 2;
+					switch (buf.get(at)) {
+						case '+', '-', ':' -> {}
+						case '$' -> {
+							final int len = number(buf, at + 1, eol);
+							if (len >= 0) next += len + 2;
+							if (next > buf.limit()) return -1;
+						}
+						case '*' -> {
+							final int len = number(buf, at + 1, eol);
+							if (len > 0) {
+								if (depth == remaining.length) remaining = Arrays.copyOf(remaining, depth * 2);
+								remaining[depth++] = len;
+								offset = next - start;
+								continue;
+							}
+						}
+						default -> throw new JedisDataException("Unknown reply type " + (char)buf.get(at));
+					}
+					offset = next - start;
+
+					// the element is complete, as is any array it was the last element of
+					while (depth > 0 && --remaining[depth - 1] == 0) depth--;
+					if (depth == 0) {
+						final int length = offset;
+						offset = 0;
+						return length;
+					}
+				}
+			}
+
+			/**
+			 * @return position of the CR ending the line starting at the given position, or -1 if not yet received
+			 */
+			private static int eol(ByteBuffer buf, int from) {
+				for (int i = from; i < buf.limit() - 1; i++) {
+					if (buf.get(i) == '\r' && buf.get(i + 1) == '\n') return i;
+				}
+				return -1;
+			}
+
+			private static int number(ByteBuffer buf, int from, int to) {
+				final boolean negative = buf.get(from) == '-';
+				int n = 0;
+				for (int i = negative ? from + 1 : from; i < to; i++) {
+					final byte b = buf.get(i);
+					if (b < '0' || b > '9') throw new JedisDataException("Invalid length in reply");
+					n = n * 10 + (b - '0');
+				}
+				return negative ? -n : n;
+			}
+		}
+
+		private static String line(ByteBuffer buf) {
+			int start = buf.position();
+			for (int i = start; i < buf.limit() - 1; i++) {
+				if (buf.get(i) == '\r' && buf.get(i + 1) == '\n') {
+					String line = new String(buf.array(), buf.arrayOffset() + start, i - start, StandardCharsets.US_ASCII);
+					buf.position(i + 2);
+					return line;
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package net.shrimpworks.mes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.AbstractPipeline;
+import redis.clients.jedis.AbstractTransaction;
+import redis.clients.jedis.PipeliningBase;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * Writes documents to Redis in chunks, rather than making a round trip per
+ * document.
+ * <p>
+ * Commands are sent either as a pipeline, or wrapped in a MULTI/EXEC
+ * transaction when {@link Main.IngestConfig#transactional()} is set. Each
+ * document's HSET is written to the connection as soon as it's added, so
+ * Redis can work on a chunk while the caller is still producing it. Once a
+ * chunk reaches the configured size, the writer waits for all of its
+ * replies before accepting more documents, which bounds the number of
+ * unacknowledged writes and applies backpressure to the caller.
+ * <p>
+ * When the index is split across several shards, each document is sent to
+ * its own shard, and a chunk is made up of a pipeline or transaction per
+ * shard. Transactions are therefore only atomic within each shard.
+ * <p>
+ * When {@link Main.IngestConfig#skipUnchanged()} is set, documents whose
+ * fields all match their {@link Fingerprints} are skipped, and only the
+ * fields which have changed are written for other documents.
+ * <p>
+ * Documents which fail to write are collected, and reported along with
+ * the count of successful writes once the batch is finished. The provided
+ * {@code onWrite} callback is run after each chunk is sent, so that any
+ * state derived from the index may be invalidated.
+ * <p>
+ * Instances are not thread safe, and are intended to live for the duration
+ * of a single request.
+ */
+public class BatchWriter {
+
+	private static final Logger logger = LoggerFactory.getLogger(BatchWriter.class);
+
+	private final Shards shards;
+	private final String prefix;
+	private final Main.IngestConfig config;
+	private final Fingerprints fingerprints;
+	private final Suggester suggester;
+	private final Metrics metrics;
+	private final Runnable onWrite;
+
+	private final ShardBatch[] batches;
+	private final List<Failure> failures = new ArrayList<>();
+	private int added = 0;
+	private int written = 0;
+	private int skipped = 0;
+	private int pending = 0;
+
+	/**
+	 * @param fingerprints fingerprints of written documents, or null to write all documents in full
+	 * @param suggester    completions to update from written documents, or null
+	 */
+	public BatchWriter(Shards shards, String prefix, Main.IngestConfig config, Fingerprints fingerprints, Suggester suggester,
+					   Metrics metrics, Runnable onWrite) {
+		this.shards = shards;
+		this.prefix = prefix;
+		this.config = config;
+		this.fingerprints = fingerprints;
+		this.suggester = suggester;
+		this.metrics = metrics;
+		this.onWrite = onWrite;
+		this.batches = new ShardBatch[shards.size()];
+		for (int i = 0; i < batches.length; i++) batches[i] = new ShardBatch(i);
+	}
+
+	/**
+	 * Send a document to Redis, blocking until the current chunk has been
+	 * acknowledged if it has reached the configured chunk size.
+	 *
+	 * @param doc document to write
+	 */
+	public void add(API.AddDocument doc) {
+		if (doc == null || doc.id() == null || doc.fields() == null) {
+			failures.add(new Failure(doc == null ? null : doc.id(), "Document requires an id and fields"));
+			return;
+		}
+
+		final String key = prefix + doc.id();
+		final Map<String, String> hash = fingerprints == null ? doc.toHash() : fingerprints.changed(key, doc.toHash());
+		if (hash.isEmpty()) {
+			skipped++;
+			return;
+		}
+
+		final ShardBatch shard = batches[shards.shard(key)];
+		shard.ids.add(doc.id());
+		shard.hashes.add(hash);
+		try {
+			if (shard.batch == null) {
+				shard.batch = config.transactional() ? shards.client(shard.shard).multi() : shards.client(shard.shard).pipelined();
+			}
+			shard.responses.add(shard.batch.hset(key, hash));
+			metrics.ingestInFlight.incrementAndGet();
+		} catch (JedisException e) {
+			metrics.ingestInFlight.addAndGet(-shard.responses.size());
+			failChunk(shard, e);
+			return;
+		}
+
+		if (++pending >= config.chunkSize()) flush();
+	}
+
+	/**
+	 * Write any remaining queued documents, and return the outcome of the batch.
+	 *
+	 * @return number of documents added, written and skipped, and details of those which failed
+	 */
+	public Result finish() {
+		flush();
+		return new Result(added, written, skipped, List.copyOf(failures));
+	}
+
+	private void flush() {
+		pending = 0;
+		boolean flushed = false;
+		try {
+			for (ShardBatch shard : batches) {
+				if (shard.batch == null) continue;
+				flushed = true;
+				flush(shard);
+			}
+		} finally {
+			if (flushed) onWrite.run();
+		}
+	}
+
+	private void flush(ShardBatch shard) {
+		final int inFlight = shard.responses.size();
+		final long start = System.nanoTime();
+		try {
+			if (shard.batch instanceof AbstractTransaction tx) tx.exec();
+			else ((AbstractPipeline)shard.batch).sync();
+			close(shard);
+		} catch (JedisException e) {
+			failChunk(shard, e);
+			return;
+		} finally {
+			metrics.ingestRedis.record(System.nanoTime() - start);
+			metrics.ingestInFlight.addAndGet(-inFlight);
+		}
+
+		for (int i = 0; i < shard.responses.size(); i++) {
+			try {
+				if (shard.responses.get(i).get() > 0) added++;
+				written++;
+				if (fingerprints != null) fingerprints.written(prefix + shard.ids.get(i), shard.hashes.get(i));
+				if (suggester != null) suggester.written(prefix + shard.ids.get(i), shard.hashes.get(i));
+			} catch (JedisException e) {
+				failures.add(new Failure(shard.ids.get(i), e.getMessage()));
+			}
+		}
+		shard.ids.clear();
+		shard.hashes.clear();
+		shard.responses.clear();
+	}
+
+	private void failChunk(ShardBatch shard, JedisException e) {
+		// the chunk as a whole failed, likely a connection issue, so none of its documents can be considered written
+		logger.error("Failed to write chunk of {} documents to shard {}", shard.ids.size(), shard.shard, e);
+		shard.ids.forEach(id -> failures.add(new Failure(id, e.getMessage())));
+		shard.ids.clear();
+		shard.hashes.clear();
+		shard.responses.clear();
+		try {
+			close(shard);
+		} catch (JedisException ignored) {
+			// the connection is released regardless
+		}
+	}
+
+	private void close(ShardBatch shard) {
+		PipeliningBase closing = shard.batch;
+		shard.batch = null;
+		if (closing instanceof AbstractTransaction tx) tx.close();
+		else if (closing instanceof AbstractPipeline pipeline) pipeline.close();
+	}
+
+	/**
+	 * The part of the current chunk destined for a single shard.
+	 */
+	private class ShardBatch {
+
+		private final int shard;
+		private final List<String> ids;
+		private final List<Map<String, String>> hashes;
+		private final List<Response<Long>> responses;
+		private PipeliningBase batch;
+
+		private ShardBatch(int shard) {
+			this.shard = shard;
+			this.ids = new ArrayList<>(config.chunkSize());
+			this.hashes = new ArrayList<>(config.chunkSize());
+			this.responses = new ArrayList<>(config.chunkSize());
+		}
+	}
+
+	/**
+	 * @param added   documents which were new, or gained new fields
+	 * @param written documents written to Redis
+	 * @param skipped documents not written, as they had not changed
+	 * @param failed  documents which failed to write
+	 */
+	public record Result(int added, int written, int skipped, List<Failure> failed) {}
+
+	public record Failure(String id, String error) {}
+}
@@ -0,0 +1,99 @@
+package net.shrimpworks.mes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.encoding.AllowedContentEncodings;
+import io.undertow.util.Headers;
+
+/**
+ * A fully serialised response body, optionally held in gzip and deflate
+ * encoded forms as well, which may be sent repeatedly without further
+ * serialisation or compression work.
+ */
+public class CachedResponse {
+
+	private static final String GZIP = "gzip";
+	private static final String DEFLATE = "deflate";
+
+	private final ByteBuffer identity;
+	private final ByteBuffer gzip;
+	private final ByteBuffer deflate;
+
+	private CachedResponse(byte[] identity, byte[] gzip, byte[] deflate) {
+		this.identity = ByteBuffer.wrap(identity).asReadOnlyBuffer();
+		this.gzip = gzip == null ? null : ByteBuffer.wrap(gzip).asReadOnlyBuffer();
+		this.deflate = deflate == null ? null : ByteBuffer.wrap(deflate).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Create a new response from a serialised body.
+	 *
+	 * @param body        response body
+	 * @param precompress also store gzip and deflate encoded versions of the body
+	 * @return a new response
+	 */
+	public static CachedResponse of(byte[] body, boolean precompress) {
+		if (!precompress) return new CachedResponse(body, null, null);
+
+		try {
+			return new CachedResponse(body, compress(body, GZIP), compress(body, DEFLATE));
+		} catch (IOException e) {
+			// we're writing to memory, so this should not be possible
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return the plain, unencoded body, as a new view which may be read independently of other readers
+	 */
+	public ByteBuffer body() {
+		return identity.duplicate();
+	}
+
+	/**
+	 * Send this response to the client.
+	 * <p>
+	 * If a pre-encoded body matching the encoding negotiated by the
+	 * {@link io.undertow.server.handlers.encoding.EncodingHandler} is held,
+	 * it is sent as-is and the encoding handler will not compress it again.
+	 * Otherwise the plain body is sent, and left to the encoding handler.
+	 *
+	 * @param exchange exchange to respond to
+	 */
+	public void send(HttpServerExchange exchange) {
+		ByteBuffer body = null;
+
+		AllowedContentEncodings encodings = exchange.getAttachment(AllowedContentEncodings.ATTACHMENT_KEY);
+		if (encodings != null && !encodings.isIdentity()) {
+			String encoding = encodings.getCurrentContentEncoding();
+			body = switch (encoding) {
+				case GZIP -> gzip;
+				case DEFLATE -> deflate;
+				default -> null;
+			};
+			if (body != null) {
+				exchange.getResponseHeaders()
+						.put(Headers.CONTENT_ENCODING, encoding)
+						.put(Headers.VARY, Headers.ACCEPT_ENCODING_STRING);
+			}
+		}
+
+		// each send gets its own view of the buffer, so concurrent sends don't interfere with each other's position
+		exchange.getResponseSender().send((body == null ? identity : body).duplicate());
+	}
+
+	private static byte[] compress(byte[] body, String encoding) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2);
+		try (OutputStream os = encoding.equals(GZIP) ? new GZIPOutputStream(out) : new DeflaterOutputStream(out)) {
+			os.write(body);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,225 @@
+package net.shrimpworks.mes;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import redis.clients.jedis.search.Schema;
+import redis.clients.jedis.search.aggr.AggregationBuilder;
+import redis.clients.jedis.search.aggr.AggregationResult;
+import redis.clients.jedis.search.aggr.Reducers;
+import redis.clients.jedis.search.aggr.Row;
+import redis.clients.jedis.search.aggr.SortedField;
+
+/**
+ * Counts of the documents matching a search by the values of TAG fields,
+ * and by ranges of NUMERIC fields, such as for populating category
+ * filters alongside search results.
+ * <p>
+ * Each facet is counted by an FT.AGGREGATE grouping matching documents by
+ * the field's value, or for NUMERIC fields, by which of the configured
+ * ranges the value falls in. All requested facets are counted together in a
+ * single round trip to each shard, and the counts from each shard are
+ * summed.
+ * <p>
+ * Only the most common values of a TAG field are returned. On a sharded
+ * index, each shard returns more than the requested number of values, but
+ * counts of less common values may still be understated when they are not
+ * among the most common on every shard.
+ */
+public class Facets {
+
+	// alias used for the range each numeric value falls in
+	private static final String BUCKET = "__bucket";
+	private static final String COUNT = "__count";
+
+	private final Map<String, Facet> facets;
+
+	/**
+	 * @param schema index schema, from which TAG fields, and NUMERIC fields with configured ranges, are counted
+	 * @param config facet options
+	 */
+	public Facets(Main.RediSearchSchema schema, Main.FacetConfig config) {
+		this.facets = new LinkedHashMap<>();
+		schema.fields().stream().sorted(Comparator.comparing(Main.RediSearchField::name)).forEach(f -> {
+			if (f.type() == Schema.FieldType.TAG) {
+				facets.put(f.name(), new TagFacet(f.name(), f.separator() == null ? "," : f.separator()));
+			} else if (f.type() == Schema.FieldType.NUMERIC && config.ranges().containsKey(f.name())) {
+				facets.put(f.name(), new RangeFacet(f.name(), config.ranges().get(f.name()).stream().sorted().distinct().toList()));
+			}
+		});
+	}
+
+	/**
+	 * @return names of the fields which may be counted
+	 */
+	public Set<String> fields() {
+		return facets.keySet();
+	}
+
+	/**
+	 * @param q       query string
+	 * @param filters filters applied to the query
+	 * @param fields  fields to count, or null for all fields which may be counted
+	 * @param limit   maximum number of values to return for each TAG field
+	 * @return a request for the counts
+	 * @throws IllegalArgumentException if a field may not be counted, or the limit is not positive
+	 */
+	public Request request(String q, List<Filters.Filter> filters, List<String> fields, int limit) {
+		if (limit <= 0) throw new IllegalArgumentException("Facet limit must be positive");
+		if (fields == null) return new Request(q, filters, List.copyOf(facets.keySet()), limit);
+
+		for (String field : fields) {
+			if (!facets.containsKey(field)) throw new IllegalArgumentException("Field " + field + " cannot be counted");
+		}
+		return new Request(q, filters, fields.stream().distinct().toList(), limit);
+	}
+
+	/**
+	 * @param request counts requested
+	 * @param depth   number of values of each TAG field to find
+	 * @return aggregations counting each requested field, in the same order as the request's fields
+	 */
+	public List<AggregationBuilder> aggregations(Request request, int depth) {
+		final Filters.Compiled query = Filters.compile(request.q(), request.filters());
+		return request.fields().stream().map(f -> {
+			final AggregationBuilder aggregation = new AggregationBuilder(query.query());
+			if (!query.params().isEmpty()) aggregation.params(new HashMap<>(query.params())).dialect(2);
+			return facets.get(f).aggregation(aggregation, depth);
+		}).toList();
+	}
+
+	/**
+	 * Sum the counts found by each shard.
+	 *
+	 * @param request counts requested
+	 * @param shards  results of each shard's aggregations, in the same order as the request's fields
+	 * @return counts for each requested field
+	 */
+	public Results merge(Request request, List<List<AggregationResult>> shards) {
+		final Map<String, List<Count>> counts = new LinkedHashMap<>();
+		for (int i = 0; i < request.fields().size(); i++) {
+			final Facet facet = facets.get(request.fields().get(i));
+			final Map<String, Long> totals = new HashMap<>();
+			for (List<AggregationResult> shard : shards) {
+				for (Row row : shard.get(i).getRows()) {
+					final String value = row.getString(facet.alias());
+					if (value != null && !value.isEmpty()) totals.merge(value, row.getLong(COUNT), Long::sum);
+				}
+			}
+			counts.put(facet.name(), facet.counts(totals, request.limit()));
+		}
+		return new Results(request.q(), counts);
+	}
+
+	private sealed interface Facet permits TagFacet, RangeFacet {
+
+		String name();
+
+		String alias();
+
+		/**
+		 * Add the steps counting this facet to an aggregation of the matching documents.
+		 */
+		AggregationBuilder aggregation(AggregationBuilder matches, int depth);
+
+		List<Count> counts(Map<String, Long> totals, int limit);
+	}
+
+	private record TagFacet(String name, String separator) implements Facet {
+
+		@Override
+		public String alias() {
+			return name;
+		}
+
+		@Override
+		public AggregationBuilder aggregation(AggregationBuilder matches, int depth) {
+			// a document may have several tags, each of which is counted
+			return matches
+				.load("@" + name)
+				.apply("split(@" + name + ", \"" + separator + "\")", name)
+				.groupBy("@" + name, Reducers.count().as(COUNT))
+				.sortBy(depth, SortedField.desc("@" + COUNT));
+		}
+
+		@Override
+		public List<Count> counts(Map<String, Long> totals, int limit) {
+			return totals.entrySet().stream()
+						 .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+						 .limit(limit)
+						 .map(e -> new Count(e.getKey(), null, null, e.getValue()))
+						 .toList();
+		}
+	}
+
+	/**
+	 * @param bounds boundaries between ranges, in ascending order
+	 */
+	private record RangeFacet(String name, List<Double> bounds) implements Facet {
+
+		@Override
+		public String alias() {
+			return BUCKET;
+		}
+
+		@Override
+		public AggregationBuilder aggregation(AggregationBuilder matches, int depth) {
+			// the range a value falls in is the number of boundaries at or below it
+			final String bucket = bounds.stream()
+										.map(b -> "(@" + name + ">=" + BigDecimal.valueOf(b).toPlainString() + ")")
+										.collect(Collectors.joining("+"));
+			return matches
+				.load("@" + name)
+				.filter("exists(@" + name + ")")
+				.apply(bounds.isEmpty() ? "0" : bucket, BUCKET)
+				.groupBy("@" + BUCKET, Reducers.count().as(COUNT));
+		}
+
+		@Override
+		public List<Count> counts(Map<String, Long> totals, int limit) {
+			final List<Count> counts = new ArrayList<>();
+			for (int i = 0; i <= bounds.size(); i++) {
+				final Long count = totals.get(Integer.toString(i));
+				if (count == null) continue;
+				counts.add(new Count(null, i == 0 ? null : bounds.get(i - 1), i == bounds.size() ? null : bounds.get(i), count));
+			}
+			return counts;
+		}
+	}
+
+	/**
+	 * Facet counts to find, also used as a cache key for the counts.
+	 *
+	 * @param q       query string
+	 * @param filters filters applied to the query
+	 * @param fields  fields to count
+	 * @param limit   maximum number of values to return for each TAG field
+	 */
+	public record Request(String q, List<Filters.Filter> filters, List<String> fields, int limit) {}
+
+	/**
+	 * @param q      query string
+	 * @param facets counts for each requested field
+	 */
+	public record Results(String q, Map<String, List<Count>> facets) {}
+
+	/**
+	 * The number of matching documents with a TAG value, or with a NUMERIC
+	 * value within a range.
+	 *
+	 * @param value the TAG value
+	 * @param from  lowest value of the range, inclusive, or null if the range has no lower bound
+	 * @param to    highest value of the range, exclusive, or null if the range has no upper bound
+	 * @param count number of matching documents
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public record Count(String value, Double from, Double to, long count) {}
+}
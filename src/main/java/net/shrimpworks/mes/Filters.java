@@ -0,0 +1,197 @@
+package net.shrimpworks.mes;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import redis.clients.jedis.search.Schema;
+
+/**
+ * Structured filters on NUMERIC, TAG and GEO fields, applied by Redis as
+ * part of a search, rather than requiring clients to write RediSearch
+ * query syntax, or to filter results themselves.
+ * <p>
+ * Filters are validated against the field types of the schema, and added
+ * to the query string as clauses referring to query parameters, with their
+ * values passed separately with PARAMS, using DIALECT 2. Values therefore
+ * never need escaping, and cannot alter the query, while the query string
+ * stays the same for any values of the same filters.
+ * <p>
+ * Filter values are written as:
+ * <ul>
+ *   <li>NUMERIC: an inclusive range {@code min..max}, with either bound
+ *   optionally left open, such as {@code 10..} or {@code ..50}, or a
+ *   single value</li>
+ *   <li>TAG: one or more comma-separated values, any of which may match</li>
+ *   <li>GEO: {@code longitude,latitude,radius}, where the radius has a unit
+ *   of {@code m}, {@code km}, {@code mi} or {@code ft}, such as
+ *   {@code 18.42,-33.92,5km}</li>
+ * </ul>
+ */
+public class Filters {
+
+	private static final Set<Schema.FieldType> FILTERABLE = Set.of(Schema.FieldType.NUMERIC, Schema.FieldType.TAG, Schema.FieldType.GEO);
+	private static final Pattern RADIUS = Pattern.compile("\\s*([0-9]*\\.?[0-9]+)\\s*(m|km|mi|ft)\\s*");
+
+	private final Map<String, Schema.FieldType> types;
+
+	/**
+	 * @param schema index schema, whose NUMERIC, TAG and GEO fields may be filtered
+	 */
+	public Filters(Main.RediSearchSchema schema) {
+		this.types = new HashMap<>();
+		schema.fields().stream().filter(f -> FILTERABLE.contains(f.type())).forEach(f -> types.put(f.name(), f.type()));
+	}
+
+	/**
+	 * @param filters filter values, keyed by field name
+	 * @return the filters, ordered by field name
+	 * @throws IllegalArgumentException if a field may not be filtered, or a value is not valid for the field's type
+	 */
+	public List<Filter> parse(Map<String, String> filters) {
+		if (filters == null || filters.isEmpty()) return List.of();
+
+		final List<Filter> parsed = new ArrayList<>();
+		filters.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(e -> {
+			final Schema.FieldType type = types.get(e.getKey());
+			if (type == null) throw new IllegalArgumentException("Field " + e.getKey() + " cannot be filtered");
+			parsed.add(switch (type) {
+				case NUMERIC -> range(e.getKey(), e.getValue());
+				case TAG -> tags(e.getKey(), e.getValue());
+				default -> radius(e.getKey(), e.getValue());
+			});
+		});
+		return parsed;
+	}
+
+	/**
+	 * Combine a query string with filters.
+	 *
+	 * @param q       query string, which may be empty or {@code *} to filter all documents
+	 * @param filters filters to apply
+	 * @return the combined query string, and the values of the parameters it refers to, or the query string
+	 * 	unchanged if there are no filters
+	 */
+	public static Compiled compile(String q, List<Filter> filters) {
+		if (filters.isEmpty()) return new Compiled(q, Map.of());
+
+		final StringBuilder query = new StringBuilder();
+		// the query is grouped, so that it is unaffected by the operator precedence of the newer dialect
+		if (!q.isBlank() && !q.trim().equals("*")) query.append('(').append(q).append(')');
+
+		final Map<String, String> params = new LinkedHashMap<>();
+		for (Filter filter : filters) {
+			if (!query.isEmpty()) query.append(' ');
+			query.append('@').append(filter.field()).append(':');
+			switch (filter) {
+				case Range r -> query.append('[')
+									 .append(r.min() == null ? "-inf" : param(params, number(r.min())))
+									 .append(' ')
+									 .append(r.max() == null ? "+inf" : param(params, number(r.max())))
+									 .append(']');
+				case Tags t -> query.append('{')
+									.append(String.join(" | ", t.values().stream().map(v -> param(params, v)).toList()))
+									.append('}');
+				case Radius g -> query.append('[')
+									  .append(param(params, number(g.lon()))).append(' ')
+									  .append(param(params, number(g.lat()))).append(' ')
+									  .append(param(params, number(g.radius()))).append(' ')
+									  .append(g.unit())
+									  .append(']');
+			}
+		}
+
+		return new Compiled(query.isEmpty() ? "*" : query.toString(), params);
+	}
+
+	private static Range range(String field, String value) {
+		final String[] bounds = value.trim().split("\\.\\.", -1);
+		if (bounds.length > 2) throw new IllegalArgumentException("Invalid range for field " + field);
+
+		final Double min = bounds[0].isBlank() ? null : number(field, bounds[0]);
+		final Double max = bounds.length == 1 ? min : bounds[1].isBlank() ? null : number(field, bounds[1]);
+		if (min == null && max == null) throw new IllegalArgumentException("Invalid range for field " + field);
+		if (min != null && max != null && min > max) throw new IllegalArgumentException("Invalid range for field " + field);
+		return new Range(field, min, max);
+	}
+
+	private static Tags tags(String field, String value) {
+		final List<String> values = Arrays.stream(value.split(",")).map(String::trim).filter(v -> !v.isEmpty()).distinct().toList();
+		if (values.isEmpty()) throw new IllegalArgumentException("No values for field " + field);
+		return new Tags(field, values);
+	}
+
+	private static Radius radius(String field, String value) {
+		final String[] parts = value.split(",");
+		if (parts.length != 3) throw new IllegalArgumentException("Invalid location for field " + field);
+
+		final double lon = number(field, parts[0]);
+		final double lat = number(field, parts[1]);
+		final Matcher radius = RADIUS.matcher(parts[2]);
+		if (Math.abs(lon) > 180 || Math.abs(lat) > 90 || !radius.matches()) {
+			throw new IllegalArgumentException("Invalid location for field " + field);
+		}
+		return new Radius(field, lon, lat, Double.parseDouble(radius.group(1)), radius.group(2));
+	}
+
+	private static double number(String field, String value) {
+		try {
+			final double number = Double.parseDouble(value.trim());
+			if (!Double.isFinite(number)) throw new NumberFormatException();
+			return number;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number for field " + field, e);
+		}
+	}
+
+	private static String number(double value) {
+		return BigDecimal.valueOf(value).toPlainString();
+	}
+
+	/**
+	 * Add a parameter value, and return a reference to it for the query.
+	 */
+	private static String param(Map<String, String> params, String value) {
+		final String name = "p" + params.size();
+		params.put(name, value);
+		return "$" + name;
+	}
+
+	public sealed interface Filter permits Range, Tags, Radius {
+
+		String field();
+	}
+
+	/**
+	 * Documents with a NUMERIC value within an inclusive range.
+	 *
+	 * @param min lowest value, or null if the range has no lower bound
+	 * @param max highest value, or null if the range has no upper bound
+	 */
+	public record Range(String field, Double min, Double max) implements Filter {}
+
+	/**
+	 * Documents with any of a set of TAG values.
+	 */
+	public record Tags(String field, List<String> values) implements Filter {}
+
+	/**
+	 * Documents with a GEO location within a radius of a point.
+	 *
+	 * @param unit unit of the radius, one of {@code m}, {@code km}, {@code mi} or {@code ft}
+	 */
+	public record Radius(String field, double lon, double lat, double radius, String unit) implements Filter {}
+
+	/**
+	 * @param query  query string, referring to parameters by name
+	 * @param params parameter values, keyed by name
+	 */
+	public record Compiled(String query, Map<String, String> params) {}
+}
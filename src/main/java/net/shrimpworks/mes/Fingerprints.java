@@ -0,0 +1,198 @@
+package net.shrimpworks.mes;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fingerprints of the field values last written for each document, used to
+ * skip writing documents and fields which have not changed, sparing Redis
+ * from re-indexing them.
+ * <p>
+ * Each field of each document is held as a pair of 64-bit {@link MurmurHash}
+ * hashes, one of the document key and field name, and one of the value, in
+ * an open-addressed table outside the Java heap. Millions of fields
+ * therefore cost 16 bytes each, with nothing for the garbage collector to
+ * trace. The table doubles in size as it fills, up to a configured limit,
+ * beyond which new fields are no longer tracked and are always written.
+ * While growing, the old and new tables are both held, so up to one and a
+ * half times the limit may be used. If the table cannot be allocated at
+ * all, fingerprinting stops, and all documents are written in full.
+ * <p>
+ * The {@link Suggester} also keeps a table of its own, of the completed
+ * values of each document, using {@link #get} and {@link #put}.
+ * <p>
+ * Fingerprints are recorded only once Redis has acknowledged a write, and
+ * are not stored, so all documents are written again after a restart. They
+ * assume the service is the only writer of the index; a document changed
+ * or removed by anything else may not be written again while its
+ * fingerprints are unchanged.
+ */
+public class Fingerprints {
+
+	private static final Logger logger = LoggerFactory.getLogger(Fingerprints.class);
+
+	private static final int INITIAL_SLOTS = 1 << 16;
+	// 16 bytes per slot, with the largest table a single buffer can hold being 1GB
+	private static final int MAX_SLOTS = 1 << 26;
+
+	private final int maxSlots;
+
+	// null once fingerprinting has stopped
+	private LongBuffer table;
+	private int slots;
+	private int size;
+
+	private final LongAdder skippedDocuments = new LongAdder();
+	private final LongAdder skippedFields = new LongAdder();
+
+	/**
+	 * @param maxBytes largest size the fingerprint table may grow to
+	 */
+	public Fingerprints(long maxBytes) {
+		this.maxSlots = (int)Math.max(1, Math.min(MAX_SLOTS, Long.highestOneBit(maxBytes / (2 * Long.BYTES))));
+		this.slots = Math.min(INITIAL_SLOTS, maxSlots);
+		this.table = allocate(slots);
+	}
+
+	/**
+	 * Find the fields of a document which differ from those last written.
+	 *
+	 * @param key  document key
+	 * @param hash document fields
+	 * @return the fields which have changed, or an empty map if the document is unchanged
+	 */
+	public Map<String, String> changed(String key, Map<String, String> hash) {
+		final Map<String, String> changed = new HashMap<>();
+		synchronized (this) {
+			if (table == null) return hash;
+			hash.forEach((field, value) -> {
+				final int slot = slot(fieldHash(key, field));
+				if (table.get(slot * 2) == 0 || table.get(slot * 2 + 1) != valueHash(value)) changed.put(field, value);
+			});
+		}
+
+		if (changed.isEmpty()) skippedDocuments.increment();
+		skippedFields.add(hash.size() - changed.size());
+		return changed.size() == hash.size() ? hash : changed;
+	}
+
+	/**
+	 * Record the fields of a document once written.
+	 *
+	 * @param key    document key
+	 * @param fields fields written
+	 */
+	public synchronized void written(String key, Map<String, String> fields) {
+		fields.forEach((field, value) -> put(fieldHash(key, field), valueHash(value)));
+	}
+
+	/**
+	 * @param key   document key
+	 * @param field field name
+	 * @return hash last recorded for a field, or 0 if none is held
+	 */
+	synchronized long get(String key, String field) {
+		if (table == null) return 0;
+		final int slot = slot(fieldHash(key, field));
+		return table.get(slot * 2) == 0 ? 0 : table.get(slot * 2 + 1);
+	}
+
+	/**
+	 * Record a hash for a field, in place of the hash of its value.
+	 *
+	 * @param key   document key
+	 * @param field field name
+	 * @param hash  hash to record
+	 */
+	synchronized void put(String key, String field, long hash) {
+		put(fieldHash(key, field), hash);
+	}
+
+	private void put(long fieldHash, long valueHash) {
+		if (table == null) return;
+		int slot = slot(fieldHash);
+		if (table.get(slot * 2) == 0) {
+			if (size + 1 > slots / 4 * 3) {
+				if (!grow()) return;
+				slot = slot(fieldHash);
+			}
+			size++;
+		}
+		table.put(slot * 2, fieldHash);
+		table.put(slot * 2 + 1, valueHash);
+	}
+
+	public synchronized Stats stats() {
+		return new Stats(size, table == null ? 0 : (long)slots * 2 * Long.BYTES, skippedDocuments.sum(), skippedFields.sum());
+	}
+
+	/**
+	 * Find the slot holding a field, or the empty slot where it would be
+	 * held.
+	 */
+	private int slot(long fieldHash) {
+		final int mask = slots - 1;
+		int slot = (int)(fieldHash ^ (fieldHash >>> 32)) & mask;
+		while (true) {
+			final long held = table.get(slot * 2);
+			if (held == fieldHash || held == 0) return slot;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private boolean grow() {
+		if (slots >= maxSlots) return false;
+
+		final LongBuffer old = table;
+		final int oldSlots = slots;
+		slots *= 2;
+		table = allocate(slots);
+		if (table == null) return false;
+		for (int i = 0; i < oldSlots; i++) {
+			final long fieldHash = old.get(i * 2);
+			if (fieldHash == 0) continue;
+			final int slot = slot(fieldHash);
+			table.put(slot * 2, fieldHash);
+			table.put(slot * 2 + 1, old.get(i * 2 + 1));
+		}
+		return true;
+	}
+
+	/**
+	 * @return the new table, or null if there is not enough memory for it, in which case fingerprinting stops
+	 */
+	private LongBuffer allocate(int slots) {
+		try {
+			return ByteBuffer.allocateDirect(slots * 2 * Long.BYTES).asLongBuffer();
+		} catch (OutOfMemoryError e) {
+			logger.error("Failed to allocate {} byte fingerprint table, fingerprints will no longer be kept",
+						 (long)slots * 2 * Long.BYTES, e);
+			size = 0;
+			return null;
+		}
+	}
+
+	private static long fieldHash(String key, String field) {
+		// zero marks an empty slot
+		final long hash = MurmurHash.hash64(key + '\0' + field);
+		return hash == 0 ? 1 : hash;
+	}
+
+	private static long valueHash(String value) {
+		return MurmurHash.hash64(value);
+	}
+
+	/**
+	 * @param fields           number of document fields with fingerprints
+	 * @param bytes            size of the fingerprint table
+	 * @param skippedDocuments documents not written, as none of their fields had changed
+	 * @param skippedFields    fields not written, as they had not changed
+	 */
+	public record Stats(int fields, long bytes, long skippedDocuments, long skippedFields) {}
+}
@@ -0,0 +1,171 @@
+package net.shrimpworks.mes;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of non-negative values, using log-linear buckets
+ * in the style of HdrHistogram.
+ * <p>
+ * Values below {@value #SUB_BUCKETS} are counted exactly. Larger values are
+ * counted in buckets which split each power of two range into
+ * {@value #SUB_BUCKETS} linear steps, so any value is reported within about
+ * 1.6% of its actual value, regardless of magnitude.
+ * <p>
+ * Quantiles may be limited to recent values, by counting values in several
+ * windows of time, each cleared and reused once it is older than the rest.
+ * Quantiles then reflect only the windows still in use, so a period of slow
+ * responses is no longer hidden by, or reported long after, everything
+ * recorded since startup. A few values recorded just as a window is reused
+ * may be lost. The count and sum of values always cover all values recorded.
+ * <p>
+ * Recording a value does not allocate, and does not block concurrent
+ * recorders or readers, so it is suitable for use on request hot paths.
+ */
+public class Histogram {
+
+	private static final int SUB_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final long maxValue;
+	private final long windowNanos;
+	private final long origin;
+
+	private final AtomicLongArray[] counts;
+	private final LongAccumulator[] maxes;
+	// the window of time each set of counts holds, as a number of windows since the histogram was created
+	private final AtomicLongArray epochs;
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * Create a new histogram of all values recorded.
+	 *
+	 * @param maxValue largest value which can be distinguished, larger values are counted as this value
+	 */
+	public Histogram(long maxValue) {
+		this(maxValue, 0, 1);
+	}
+
+	/**
+	 * Create a new histogram, whose quantiles cover only recent values.
+	 *
+	 * @param maxValue    largest value which can be distinguished, larger values are counted as this value
+	 * @param windowNanos length of each window, or 0 to count all values in a single window
+	 * @param windows     number of windows, quantiles covering between {@code windows - 1} and {@code windows} of them
+	 */
+	public Histogram(long maxValue, long windowNanos, int windows) {
+		this.maxValue = maxValue;
+		this.windowNanos = windowNanos;
+		this.origin = System.nanoTime();
+		this.counts = new AtomicLongArray[windows];
+		this.maxes = new LongAccumulator[windows];
+		this.epochs = new AtomicLongArray(windows);
+		for (int i = 0; i < windows; i++) {
+			counts[i] = new AtomicLongArray(index(maxValue) + 1);
+			maxes[i] = new LongAccumulator(Math::max, 0);
+			epochs.set(i, windowNanos == 0 && i == 0 ? 0 : Long.MIN_VALUE);
+		}
+	}
+
+	/**
+	 * Record a value. Negative values are counted as 0.
+	 *
+	 * @param value value to record
+	 */
+	public void record(long value) {
+		long v = Math.min(Math.max(value, 0), maxValue);
+		int window = window(epoch());
+		counts[window].incrementAndGet(index(v));
+		maxes[window].accumulate(v);
+		count.increment();
+		sum.add(v);
+	}
+
+	public long count() {
+		return count.sum();
+	}
+
+	public long sum() {
+		return sum.sum();
+	}
+
+	/**
+	 * @return the largest value within the current windows
+	 */
+	public long max() {
+		long epoch = epoch();
+		long max = 0;
+		for (int w = 0; w < counts.length; w++) {
+			if (current(w, epoch)) max = Math.max(max, maxes[w].get());
+		}
+		return max;
+	}
+
+	/**
+	 * Find the value below which the given fraction of values within the
+	 * current windows fall.
+	 *
+	 * @param quantile quantile between 0 and 1, eg. 0.99
+	 * @return the highest value equivalent to the value at the given quantile, or 0 if nothing has been recorded
+	 */
+	public long quantile(double quantile) {
+		long epoch = epoch();
+		AtomicLongArray[] current = new AtomicLongArray[counts.length];
+		int windows = 0;
+		long total = 0;
+		for (int w = 0; w < counts.length; w++) {
+			if (!current(w, epoch)) continue;
+			current[windows++] = counts[w];
+			for (int i = 0; i < counts[w].length(); i++) total += counts[w].get(i);
+		}
+		if (total == 0) return 0;
+
+		long max = max();
+		long target = Math.max(1, (long)Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < counts[0].length(); i++) {
+			for (int w = 0; w < windows; w++) seen += current[w].get(i);
+			if (seen >= target) return Math.min(upperBound(i), max);
+		}
+		return max;
+	}
+
+	private long epoch() {
+		return windowNanos == 0 ? 0 : (System.nanoTime() - origin) / windowNanos;
+	}
+
+	/**
+	 * Find the window counting values for a point in time, clearing it of
+	 * older values if it was last used for an earlier window of time.
+	 */
+	private int window(long epoch) {
+		int w = (int)(epoch % counts.length);
+		long previous = epochs.get(w);
+		if (previous != epoch && epochs.compareAndSet(w, previous, epoch)) {
+			for (int i = 0; i < counts[w].length(); i++) counts[w].set(i, 0);
+			maxes[w].reset();
+		}
+		return w;
+	}
+
+	private boolean current(int window, long epoch) {
+		return epochs.get(window) > epoch - counts.length;
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) return (int)value;
+		int magnitude = (63 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+		int sub = (int)(value >>> magnitude) - SUB_BUCKETS;
+		return SUB_BUCKETS + (magnitude * SUB_BUCKETS) + sub;
+	}
+
+	static long upperBound(int index) {
+		if (index < SUB_BUCKETS) return index;
+		int magnitude = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		return (((long)(SUB_BUCKETS + sub) + 1) << magnitude) - 1;
+	}
+}
@@ -0,0 +1,153 @@
+package net.shrimpworks.mes;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded queue of documents, written to Redis in the background.
+ * <p>
+ * Documents are accepted without waiting for Redis, and a single flusher
+ * thread writes them in pipelined micro-batches via a {@link BatchWriter}.
+ * A micro-batch is written once it reaches
+ * {@link Main.IngestConfig#chunkSize()} documents, or once its first
+ * document has waited {@link Main.IngestConfig#flushIntervalMillis()},
+ * whichever comes first.
+ * <p>
+ * When the queue is full, further documents are refused rather than
+ * blocking the caller. Closing the queue stops it accepting documents and
+ * waits for those already queued to be written.
+ * <p>
+ * Since callers have already been acknowledged, documents which fail to
+ * write can only be logged and counted.
+ */
+public class IngestQueue implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(IngestQueue.class);
+
+	private final Shards shards;
+	private final String prefix;
+	private final Main.IngestConfig config;
+	private final Fingerprints fingerprints;
+	private final Suggester suggester;
+	private final Metrics metrics;
+	private final Runnable onWrite;
+
+	private final BlockingQueue<Queued> queue;
+	private final Thread flusher;
+	private volatile boolean running = true;
+
+	private final LongAdder written = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	public IngestQueue(Shards shards, String prefix, Main.IngestConfig config, Fingerprints fingerprints, Suggester suggester,
+					   Metrics metrics, Runnable onWrite) {
+		this.shards = shards;
+		this.prefix = prefix;
+		this.config = config;
+		this.fingerprints = fingerprints;
+		this.suggester = suggester;
+		this.metrics = metrics;
+		this.onWrite = onWrite;
+		this.queue = new ArrayBlockingQueue<>(config.queueCapacity());
+		this.flusher = Thread.ofPlatform().name("ingest-queue").daemon().start(this::run);
+	}
+
+	/**
+	 * Queue a document to be written.
+	 *
+	 * @param doc document to write
+	 * @return false if the queue is full or closed, and the document was not accepted
+	 */
+	public boolean offer(API.AddDocument doc) {
+		if (running && queue.offer(new Queued(doc, System.nanoTime()))) return true;
+		rejected.increment();
+		return false;
+	}
+
+	/**
+	 * Stop accepting documents, and wait for all queued documents to be
+	 * written.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		logger.info("Draining {} queued documents", queue.size());
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			logger.warn("Interrupted while draining ingest queue, {} documents not written", queue.size());
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public Stats stats() {
+		return new Stats(queue.size(), config.queueCapacity(), written.sum(), failed.sum(), rejected.sum());
+	}
+
+	private void run() {
+		final long flushNanos = TimeUnit.MILLISECONDS.toNanos(config.flushIntervalMillis());
+		final List<Queued> batch = new ArrayList<>(config.chunkSize());
+
+		while (running || !queue.isEmpty()) {
+			try {
+				Queued first = queue.poll(config.flushIntervalMillis(), TimeUnit.MILLISECONDS);
+				if (first == null) continue;
+
+				// collect more documents until the batch is full, or the first document has waited long enough
+				batch.add(first);
+				final long deadline = first.queued + flushNanos;
+				while (batch.size() < config.chunkSize()) {
+					if (queue.drainTo(batch, config.chunkSize() - batch.size()) > 0) continue;
+					Queued next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (next == null) break;
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				// keep going until closed and drained
+			}
+
+			if (!batch.isEmpty()) write(batch);
+			batch.clear();
+		}
+	}
+
+	private void write(List<Queued> batch) {
+		final long start = System.nanoTime();
+		final BatchWriter writer = new BatchWriter(shards, prefix, config, fingerprints, suggester, metrics, onWrite);
+		try {
+			batch.forEach(q -> writer.add(q.doc));
+			BatchWriter.Result result = writer.finish();
+
+			written.add(batch.size() - result.failed().size());
+			failed.add(result.failed().size());
+			result.failed().forEach(f -> logger.warn("Failed to write queued document {}: {}", f.id(), f.error()));
+		} catch (RuntimeException e) {
+			failed.add(batch.size());
+			logger.error("Failed to write {} queued documents", batch.size(), e);
+		}
+
+		final long end = System.nanoTime();
+		metrics.ingestQueueFlush.record(end - start);
+		batch.forEach(q -> metrics.ingestQueueLatency.record(end - q.queued));
+	}
+
+	private record Queued(API.AddDocument doc, long queued) {}
+
+	/**
+	 * @param depth    documents currently queued
+	 * @param capacity maximum number of queued documents
+	 * @param written  documents written, including updates to existing documents
+	 * @param failed   documents which could not be written
+	 * @param rejected documents refused because the queue was full
+	 */
+	public record Stats(int depth, int capacity, long written, long failed, long rejected) {}
+}
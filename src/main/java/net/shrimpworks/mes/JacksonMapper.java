@@ -12,15 +12,20 @@ import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.function.Consumer;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.MapperFeature;
@@ -215,6 +220,79 @@ public interface JacksonMapper {
 		return mapper().readValue(stream, objectClass);
 	}
 
+	/**
+	 * Read the elements of an array held in a property of a JSON object from the
+	 * provided InputStream, passing each to the consumer as soon as it has been
+	 * read, so the array as a whole is never held in memory.
+	 * <p>
+	 * If the stream contains a bare array rather than an object, its elements
+	 * are read directly.
+	 *
+	 * @param stream       input stream to read from
+	 * @param arrayField   name of the object property containing the array
+	 * @param elementClass class to deserialise array elements to
+	 * @param consumer     receives each element as it is read
+	 * @param <T>          target element type
+	 * @throws IOException stream read or json exception
+	 */
+	default <T> void stream(InputStream stream, String arrayField, Class<T> elementClass, Consumer<T> consumer) throws IOException {
+		stream(stream, arrayField, elementClass, consumer, null);
+	}
+
+	/**
+	 * Read the elements of an array as with {@link #stream(InputStream, String, Class, Consumer)},
+	 * passing elements which are well-formed JSON but cannot be deserialised,
+	 * such as those with a property of the wrong type, to a separate consumer
+	 * and continuing with the next element.
+	 *
+	 * @param stream       input stream to read from
+	 * @param arrayField   name of the object property containing the array
+	 * @param elementClass class to deserialise array elements to
+	 * @param consumer     receives each element as it is read
+	 * @param invalid      receives the reason each invalid element could not be deserialised, or null to throw it
+	 * @param <T>          target element type
+	 * @throws IOException stream read or json exception
+	 */
+	default <T> void stream(InputStream stream, String arrayField, Class<T> elementClass, Consumer<T> consumer,
+							Consumer<JsonMappingException> invalid) throws IOException {
+		try (JsonParser parser = mapper().createParser(stream)) {
+			JsonToken token = parser.nextToken();
+			if (token == JsonToken.START_ARRAY) {
+				readElements(parser, elementClass, consumer, invalid);
+				return;
+			}
+			if (token != JsonToken.START_OBJECT) throw new JsonParseException(parser, "Expected an object or array");
+
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.currentName();
+				token = parser.nextToken();
+				if (field.equals(arrayField) && token == JsonToken.START_ARRAY) readElements(parser, elementClass, consumer, invalid);
+				else parser.skipChildren();
+			}
+		}
+	}
+
+	private <T> void readElements(JsonParser parser, Class<T> elementClass, Consumer<T> consumer,
+								  Consumer<JsonMappingException> invalid) throws IOException {
+		final JsonStreamContext array = parser.getParsingContext();
+		while (parser.nextToken() != JsonToken.END_ARRAY) {
+			if (parser.currentToken() == null) throw new JsonParseException(parser, "Unexpected end of array");
+			final T element;
+			try {
+				element = mapper().readValue(parser, elementClass);
+			} catch (JsonMappingException e) {
+				if (invalid == null) throw e;
+				// the rest of the element is skipped, however far into it reading stopped
+				while (parser.getParsingContext() != array) {
+					if (parser.nextToken() == null) throw new JsonParseException(parser, "Unexpected end of array");
+				}
+				invalid.accept(e);
+				continue;
+			}
+			consumer.accept(element);
+		}
+	}
+
 	/**
 	 * Serialise an Object instance to a byte array.
 	 *
@@ -0,0 +1,86 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads lines of text of up to a maximum length.
+ * <p>
+ * Unlike {@link java.io.BufferedReader#readLine()}, a line without a line
+ * break cannot grow without bound, so a client cannot exhaust memory by
+ * sending one. Characters beyond the maximum are discarded up to the next
+ * line break, and the line is reported as {@link #tooLong()}.
+ * <p>
+ * Lines end with {@code \n}, optionally preceded by {@code \r}.
+ */
+public class LineReader {
+
+	private final Reader reader;
+	private final int maxLength;
+
+	private final char[] buffer = new char[8192];
+	private final StringBuilder line = new StringBuilder();
+	private int pos = 0;
+	private int limit = 0;
+	private boolean tooLong = false;
+
+	/**
+	 * @param reader    source of text, which need not be buffered
+	 * @param maxLength maximum number of characters in a line, excluding the line break
+	 */
+	public LineReader(Reader reader, int maxLength) {
+		this.reader = reader;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Read the next line.
+	 *
+	 * @return the line without its line break, truncated to the maximum length if it was {@link #tooLong()}, or null at the
+	 * 	end of the stream
+	 * @throws IOException failed to read from the underlying reader
+	 */
+	public String readLine() throws IOException {
+		line.setLength(0);
+		tooLong = false;
+		while (true) {
+			if (pos == limit) {
+				pos = 0;
+				limit = Math.max(reader.read(buffer, 0, buffer.length), 0);
+				if (limit == 0) return line.isEmpty() && !tooLong ? null : finish();
+			}
+
+			final int start = pos;
+			while (pos < limit && buffer[pos] != '\n') pos++;
+			append(start, pos);
+
+			if (pos < limit) {
+				pos++;
+				return finish();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the last line read was longer than the maximum length
+	 */
+	public boolean tooLong() {
+		return tooLong;
+	}
+
+	private void append(int start, int end) {
+		// allow for a trailing \r, removed once the line ends
+		final int length = Math.min(end - start, maxLength + 1 - line.length());
+		if (length < end - start) tooLong = true;
+		line.append(buffer, start, length);
+	}
+
+	private String finish() {
+		if (!line.isEmpty() && line.charAt(line.length() - 1) == '\r') line.setLength(line.length() - 1);
+		if (line.length() > maxLength) {
+			line.setLength(maxLength);
+			tooLong = true;
+		}
+		return line.toString();
+	}
+}
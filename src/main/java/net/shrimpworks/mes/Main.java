@@ -5,8 +5,11 @@ import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -15,6 +18,7 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import redis.clients.jedis.ConnectionPoolConfig;
 import redis.clients.jedis.DefaultJedisClientConfig;
 import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.JedisPooled;
@@ -44,56 +48,104 @@ public class Main {
 		}
 
 		Config config = JacksonMapper.YAML.object(configPath, Config.class);
-		JedisPooled client = new JedisPooled(
-			HostAndPort.from(config.redisHost),
-			DefaultJedisClientConfig.builder().timeoutMillis(config.redisTimeoutMillis).build()
-		);
-		try {
-			client.ftCreate(
-				config.index,
-				IndexOptions.defaultOptions().setDefinition(new IndexDefinition().setPrefixes(config.prefix)),
-				config.schema.toSchema()
-			);
-			logger.info("Created index {}", config.index);
-		} catch (JedisDataException je) {
-			if (je.getMessage().contains("already exists")) {
-				logger.info("Index {} already exists, updating", config.index);
-				// if the index already exists, we can make an attempt at adding fields (there's no api for deleting fields)
-				List<List<Object>> fields = (List<List<Object>>)client.ftInfo(config.index).get("attributes");
-				Set<String> fieldNames = fields.stream()
-											   .map(f -> (String)f.get(1))
-											   .collect(Collectors.toSet());
-				Schema.Field[] newFields = config.schema.fields.stream()
-															   .filter(f -> !fieldNames.contains(f.name))
-															   .map(RediSearchField::toField)
-															   .toArray(Schema.Field[]::new);
-				if (newFields.length > 0) {
-					logger.info("Adding new fields to index: {}", Arrays.stream(newFields).map(f -> f.toString()).collect(Collectors.joining()));
-					client.ftAlter(config.index, newFields);
-				}
-			} else {
-				throw je;
-			}
+		List<Replicas> nodes = new ArrayList<>();
+		for (String host : config.redisHosts()) {
+			Replicas.Node primary = node(host, config);
+			createIndex(primary.client(), config);
+
+			List<Replicas.Node> replicas = new ArrayList<>();
+			for (String replica : config.replicas.hosts().getOrDefault(host, List.of())) replicas.add(node(replica, config));
+			nodes.add(new Replicas(primary, replicas, config.replicas.failureThreshold(), config.replicas.ejectMillis(),
+								   config.replicas.primaryMillis()));
 		}
+		Shards shards = new Shards(nodes);
 
 		// web service startup
-		API api = new API(config, client);
+		API api = new API(config, shards);
 
-		// close running services
+		// close running services, the api first, so that queued documents are written before redis connections close
 		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-			client.close();
 			api.close();
+			shards.close();
 		}));
 	}
 
+	private static Replicas.Node node(String host, Config config) throws IOException {
+		JedisPooled client = new JedisPooled(
+			HostAndPort.from(host),
+			DefaultJedisClientConfig.builder().timeoutMillis(config.redisTimeoutMillis).build(),
+			config.pool.toPoolConfig()
+		);
+		AsyncRedis async = config.search.async()
+			? new AsyncRedis(HostAndPort.from(host), config.search.asyncConnections(), config.redisTimeoutMillis)
+			: null;
+		return new Replicas.Node(host, client, async);
+	}
+
+	/**
+	 * Create the configured search index, or if it already exists, add any
+	 * fields which are missing from it.
+	 * <p>
+	 * Following a reindex, the configured index name is an alias of the
+	 * latest version of the index, which is the one updated.
+	 */
+	public static void createIndex(JedisPooled client, Config config) {
+		final Map<String, Object> info;
+		try {
+			info = client.ftInfo(config.index);
+		} catch (JedisDataException je) {
+			newIndex(client, config.index, config);
+			logger.info("Created index {}", config.index);
+			return;
+		}
+
+		final String name = (String)info.get("index_name");
+		logger.info("Index {} already exists, updating", name);
+		// if the index already exists, we can make an attempt at adding fields (there's no api for deleting fields)
+		List<List<Object>> fields = (List<List<Object>>)info.get("attributes");
+		Map<String, String> fieldTypes = fields.stream()
+												.collect(Collectors.toMap(f -> (String)f.get(1), f -> String.valueOf(f.get(5))));
+		Schema.Field[] newFields = config.schema.fields.stream()
+													   .filter(f -> !fieldTypes.containsKey(f.name))
+													   .map(RediSearchField::toField)
+													   .toArray(Schema.Field[]::new);
+		if (newFields.length > 0) {
+			logger.info("Adding new fields to index: {}", Arrays.stream(newFields).map(f -> f.toString()).collect(Collectors.joining()));
+			client.ftAlter(name, newFields);
+		}
+		config.schema.fields.stream()
+							.filter(f -> fieldTypes.containsKey(f.name) && !fieldTypes.get(f.name).equalsIgnoreCase(f.type.name()))
+							.forEach(f -> logger.warn("Field {} has changed type, and the index must be rebuilt with a reindex", f.name));
+	}
+
+	/**
+	 * Create a search index with the configured prefix and schema.
+	 */
+	public static void newIndex(JedisPooled client, String name, Config config) {
+		client.ftCreate(
+			name,
+			IndexOptions.defaultOptions().setDefinition(new IndexDefinition().setPrefixes(config.prefix)),
+			config.schema.toSchema()
+		);
+	}
+
 	public static void sampleConfig(PrintStream out) throws IOException {
-		Config config = new Config("example", "ex:", "localhost:6379", 5000, "0.0.0.0:8080", "", "*", UUID.randomUUID().toString(),
+		Config config = new Config("example", "ex:", "localhost:6379", List.of(), 5000, "0.0.0.0:8080", "", "*", UUID.randomUUID().toString(),
 								   new RediSearchSchema(Set.of(
-									   new RediSearchField(Schema.FieldType.TEXT, "title", true, false, 5.0, false, null),
-									   new RediSearchField(Schema.FieldType.TEXT, "body", false, false, 1.0, false, null),
-									   new RediSearchField(Schema.FieldType.NUMERIC, "price", true, true, 1.0, false, null),
-									   new RediSearchField(Schema.FieldType.TAG, "tags", false, false, 2.5, false, ",")
-								   )));
+									   new RediSearchField(Schema.FieldType.TEXT, "title", true, false, 5.0, false, null, true, false, false),
+									   new RediSearchField(Schema.FieldType.TEXT, "body", false, false, 1.0, false, null, true, false, false),
+									   new RediSearchField(Schema.FieldType.NUMERIC, "price", true, true, 1.0, false, null, true, false, false),
+									   new RediSearchField(Schema.FieldType.TAG, "tags", false, false, 2.5, false, ",", true, false, false)
+								   )),
+								   new IngestConfig(500, false, false, 10_000, 50, false, 0),
+								   new CacheConfig(0, 60_000, true),
+								   new ServerConfig(2, 5, false),
+								   new PoolConfig(8, 8, 0, 0, false, 30_000),
+								   new SearchConfig(false, 2, 300_000, 1000),
+								   new WalConfig(false, "wal", 64 * 1024 * 1024, 1000),
+								   new ReplicaConfig(Map.of(), 3, 5000, 1000),
+								   new SuggestConfig(false, 10, false, 0),
+								   new FacetConfig(Map.of("price", List.of(10.0, 50.0, 100.0)), 10));
 		out.println(JacksonMapper.YAML.string(config));
 	}
 
@@ -101,12 +153,256 @@ public class Main {
 		String index,
 		String prefix,
 		String redisHost,
+		List<String> redisShards,
 		int redisTimeoutMillis,
 		String bindAddress,
 		String rootPath,
 		String corsAllowOrigins,
 		String submissionToken,
-		RediSearchSchema schema
+		RediSearchSchema schema,
+		IngestConfig ingest,
+		CacheConfig cache,
+		ServerConfig server,
+		PoolConfig pool,
+		SearchConfig search,
+		WalConfig wal,
+		ReplicaConfig replicas,
+		SuggestConfig suggest,
+		FacetConfig facets
+	) {
+
+		public Config {
+			if (redisShards == null) redisShards = List.of();
+			// sections absent from older config files fall back to defaults
+			if (ingest == null) ingest = new IngestConfig(0, false, false, 0, 0, false, 0);
+			if (cache == null) cache = new CacheConfig(0, 60_000, true);
+			if (server == null) server = new ServerConfig(0, 0, false);
+			if (pool == null) pool = new PoolConfig(0, 0, 0, 0, false, 0);
+			if (search == null) search = new SearchConfig(false, 0, 0, 0);
+			if (wal == null) wal = new WalConfig(false, null, 0, 0);
+			if (replicas == null) replicas = new ReplicaConfig(null, 0, 0, 0);
+			if (suggest == null) suggest = new SuggestConfig(false, 0, false, 0);
+			if (facets == null) facets = new FacetConfig(null, 0);
+		}
+
+		/**
+		 * The Redis hosts holding the index, either the configured shards, or
+		 * the single Redis host.
+		 */
+		public List<String> redisHosts() {
+			return redisShards.isEmpty() ? List.of(redisHost) : redisShards;
+		}
+	}
+
+	/**
+	 * Document ingestion options.
+	 *
+	 * @param chunkSize           number of documents written to Redis per pipeline or transaction
+	 * @param transactional       wrap each chunk in MULTI/EXEC rather than a plain pipeline
+	 * @param writeBehind         acknowledge single documents once queued, and write them to Redis in the background
+	 * @param queueCapacity       maximum number of documents queued in write-behind mode
+	 * @param flushIntervalMillis maximum time a queued document waits for its chunk to fill before being written
+	 * @param skipUnchanged       keep fingerprints of written documents, and only write documents and fields which have
+	 *                            changed since
+	 * @param fingerprintMaxBytes largest size the fingerprint table may grow to, defaulting to a quarter of the maximum
+	 *                            heap size, as it is allocated from the same direct memory limit
+	 */
+	public record IngestConfig(
+		int chunkSize,
+		boolean transactional,
+		boolean writeBehind,
+		int queueCapacity,
+		int flushIntervalMillis,
+		boolean skipUnchanged,
+		long fingerprintMaxBytes
+	) {
+
+		public IngestConfig {
+			if (chunkSize <= 0) chunkSize = 500;
+			if (queueCapacity <= 0) queueCapacity = 10_000;
+			if (flushIntervalMillis <= 0) flushIntervalMillis = 50;
+			if (fingerprintMaxBytes <= 0) fingerprintMaxBytes = Runtime.getRuntime().maxMemory() / 4;
+		}
+	}
+
+	/**
+	 * Write-ahead log options.
+	 *
+	 * @param enabled      write added documents to a local log first, and replay them to Redis in the background
+	 * @param path         directory holding log files
+	 * @param segmentBytes size of each log segment file, which also limits the size of a single document
+	 * @param retryMillis  interval between replay attempts while Redis is unavailable, and between forcing log
+	 *                     writes to disk
+	 */
+	public record WalConfig(
+		boolean enabled,
+		String path,
+		int segmentBytes,
+		int retryMillis
+	) {
+
+		public WalConfig {
+			if (path == null || path.isBlank()) path = "wal";
+			if (segmentBytes <= 0) segmentBytes = 64 * 1024 * 1024;
+			if (retryMillis <= 0) retryMillis = 1000;
+		}
+	}
+
+	/**
+	 * Read replica options.
+	 *
+	 * @param hosts            read replica hosts, keyed by the Redis host or shard they replicate
+	 * @param failureThreshold consecutive failed reads after which a replica is no longer sent reads
+	 * @param ejectMillis      time before a failed replica is sent reads again
+	 * @param primaryMillis    time after a write during which reads are sent to the primary, while replicas catch up
+	 */
+	public record ReplicaConfig(
+		Map<String, List<String>> hosts,
+		int failureThreshold,
+		int ejectMillis,
+		int primaryMillis
+	) {
+
+		public ReplicaConfig {
+			if (hosts == null) hosts = Map.of();
+			if (failureThreshold <= 0) failureThreshold = 3;
+			if (ejectMillis <= 0) ejectMillis = 5000;
+			if (primaryMillis <= 0) primaryMillis = 1000;
+		}
+	}
+
+	/**
+	 * Facet count options.
+	 *
+	 * @param ranges    boundaries between the ranges counted for NUMERIC fields, keyed by field name
+	 * @param maxValues default maximum number of values returned for each TAG field
+	 */
+	public record FacetConfig(
+		Map<String, List<Double>> ranges,
+		int maxValues
+	) {
+
+		public FacetConfig {
+			if (ranges == null) ranges = Map.of();
+			if (maxValues <= 0) maxValues = 10;
+		}
+	}
+
+	/**
+	 * Search-as-you-type completion options.
+	 *
+	 * @param enabled             complete the values of sortable TEXT fields from an in-process prefix index
+	 * @param maxResults          maximum number of completions returned for a prefix
+	 * @param persist             also add values to a Redis suggestion dictionary, for use with FT.SUGGET
+	 * @param fingerprintMaxBytes largest size the table of each document's value hashes may grow to, defaulting to an
+	 *                            eighth of the maximum heap size
+	 */
+	public record SuggestConfig(
+		boolean enabled,
+		int maxResults,
+		boolean persist,
+		long fingerprintMaxBytes
+	) {
+
+		public SuggestConfig {
+			if (maxResults <= 0) maxResults = 10;
+			if (fingerprintMaxBytes <= 0) fingerprintMaxBytes = Runtime.getRuntime().maxMemory() / 8;
+		}
+	}
+
+	/**
+	 * Search execution options.
+	 *
+	 * @param async               send searches over non-blocking multiplexed connections, rather than dispatching each to
+	 *                            a worker thread holding a pooled connection
+	 * @param asyncConnections    number of multiplexed connections, and threads servicing them, used in async mode
+	 * @param cursorMaxIdleMillis time a search cursor may be left unread before it expires
+	 * @param cursorCount         maximum number of results per page read from a search cursor
+	 */
+	public record SearchConfig(
+		boolean async,
+		int asyncConnections,
+		int cursorMaxIdleMillis,
+		int cursorCount
+	) {
+
+		public SearchConfig {
+			if (asyncConnections <= 0) asyncConnections = 2;
+			if (cursorMaxIdleMillis <= 0) cursorMaxIdleMillis = 300_000;
+			if (cursorCount <= 0) cursorCount = 1000;
+		}
+	}
+
+	/**
+	 * Redis connection pool options.
+	 *
+	 * @param maxTotal               maximum number of connections
+	 * @param maxIdle                maximum number of idle connections kept open
+	 * @param minIdle                minimum number of idle connections kept open
+	 * @param maxWaitMillis          time to wait for a connection when all are in use before failing, 0 waits
+	 *                               indefinitely
+	 * @param testOnBorrow           validate connections with a PING before use
+	 * @param evictionIntervalMillis interval between checks for idle connections to close
+	 */
+	public record PoolConfig(
+		int maxTotal,
+		int maxIdle,
+		int minIdle,
+		int maxWaitMillis,
+		boolean testOnBorrow,
+		int evictionIntervalMillis
+	) {
+
+		public PoolConfig {
+			if (maxTotal <= 0) maxTotal = 8;
+			if (maxIdle <= 0) maxIdle = maxTotal;
+			if (evictionIntervalMillis <= 0) evictionIntervalMillis = 30_000;
+		}
+
+		public ConnectionPoolConfig toPoolConfig() {
+			ConnectionPoolConfig poolConfig = new ConnectionPoolConfig();
+			poolConfig.setMaxTotal(maxTotal);
+			poolConfig.setMaxIdle(maxIdle);
+			poolConfig.setMinIdle(minIdle);
+			poolConfig.setMaxWait(maxWaitMillis > 0 ? Duration.ofMillis(maxWaitMillis) : Duration.ofMillis(-1));
+			poolConfig.setTestOnBorrow(testOnBorrow);
+			poolConfig.setTimeBetweenEvictionRuns(Duration.ofMillis(evictionIntervalMillis));
+			return poolConfig;
+		}
+	}
+
+	/**
+	 * HTTP server threading options.
+	 *
+	 * @param ioThreads      number of non-blocking IO threads accepting and parsing requests
+	 * @param workerThreads  number of worker threads handling blocking work such as Redis calls
+	 * @param virtualThreads run blocking work on virtual threads rather than the worker pool, so
+	 *                       concurrency is limited by the Redis connection pool instead
+	 */
+	public record ServerConfig(
+		int ioThreads,
+		int workerThreads,
+		boolean virtualThreads
+	) {
+
+		public ServerConfig {
+			if (ioThreads <= 0) ioThreads = 2;
+			if (workerThreads <= 0) workerThreads = 5;
+		}
+	}
+
+	/**
+	 * In-process search result caching options. Cached results are discarded
+	 * whenever documents are written to the index.
+	 *
+	 * @param maxEntries  maximum number of distinct queries cached, 0 disables the cache
+	 * @param ttlMillis   time after which cached results expire, 0 for no expiry
+	 * @param precompress store gzip and deflate encoded copies of cached responses
+	 */
+	public record CacheConfig(
+		int maxEntries,
+		int ttlMillis,
+		boolean precompress
 	) {}
 
 	public record RediSearchSchema(
@@ -120,6 +416,17 @@ public class Main {
 		}
 	}
 
+	/**
+	 * An indexed document field.
+	 * <p>
+	 * The {@code returned}, {@code highlight} and {@code summarize} options
+	 * set how the field is presented in search results by default, and may
+	 * be overridden per search.
+	 *
+	 * @param returned  include the field in search results, defaults to true
+	 * @param highlight wrap matching terms in the field with highlight tags
+	 * @param summarize replace the field with fragments of text around matching terms
+	 */
 	public record RediSearchField(
 		Schema.FieldType type,
 		String name,
@@ -129,9 +436,16 @@ public class Main {
 		double weight,
 		boolean noStem,
 		@JsonInclude(value = JsonInclude.Include.NON_EMPTY, content = JsonInclude.Include.NON_NULL)
-		String separator
+		String separator,
+		Boolean returned,
+		boolean highlight,
+		boolean summarize
 	) {
 
+		public RediSearchField {
+			if (returned == null) returned = true;
+		}
+
 		public Schema.Field toField() {
 			return switch (type) {
 				case TEXT -> new Schema.TextField(name, weight, sortable, noStem, noIndex);
@@ -0,0 +1,159 @@
+package net.shrimpworks.mes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * Service metrics, which may be rendered in the Prometheus text exposition
+ * format.
+ * <p>
+ * All recording methods are allocation-free, so that collecting metrics
+ * does not itself disturb request latency.
+ * <p>
+ * Timings are exported as summaries, whose quantiles cover roughly the last
+ * minute, while their sums and counts cover all timings since startup.
+ */
+public class Metrics {
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	private static final long MAX_NANOS = TimeUnit.MINUTES.toNanos(10);
+	// quantiles cover the last 40 to 60 seconds
+	private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(20);
+	private static final int WINDOWS = 3;
+
+	private final Map<String, Route> routes = new LinkedHashMap<>();
+
+	/**
+	 * Time spent waiting on Redis for search queries.
+	 */
+	public final Histogram searchRedis = histogram();
+	/**
+	 * Time spent serialising search results.
+	 */
+	public final Histogram searchSerialise = histogram();
+	/**
+	 * Time spent waiting on Redis to acknowledge a chunk of document writes.
+	 */
+	public final Histogram ingestRedis = histogram();
+	/**
+	 * Time taken to write each micro-batch from the write-behind ingest queue.
+	 */
+	public final Histogram ingestQueueFlush = histogram();
+	/**
+	 * Time from documents being accepted into the write-behind ingest queue,
+	 * until they have been written.
+	 */
+	public final Histogram ingestQueueLatency = histogram();
+	/**
+	 * Number of documents sent to Redis but not yet acknowledged.
+	 */
+	public final AtomicLong ingestInFlight = new AtomicLong();
+
+	private static Histogram histogram() {
+		return new Histogram(MAX_NANOS, WINDOW_NANOS, WINDOWS);
+	}
+
+	/**
+	 * Wrap a handler, so that requests to it are counted and timed.
+	 * <p>
+	 * This relies on the server having been configured to record request
+	 * start times.
+	 *
+	 * @param route   route name used as a metric label
+	 * @param handler handler to wrap
+	 * @return the wrapped handler
+	 */
+	public HttpHandler timed(String route, HttpHandler handler) {
+		final Route metrics = routes.computeIfAbsent(route, Route::new);
+		return exchange -> {
+			exchange.addExchangeCompleteListener(metrics);
+			handler.handleRequest(exchange);
+		};
+	}
+
+	/**
+	 * Render all metrics in the Prometheus text format.
+	 *
+	 * @param extra additional untyped values to include, keyed by metric name
+	 * @return metrics text
+	 */
+	public String render(Map<String, Number> extra) {
+		StringBuilder sb = new StringBuilder(4096);
+
+		sb.append("# TYPE mes_requests_total counter\n");
+		routes.values().forEach(r -> sample(sb, "mes_requests_total", "route=\"" + r.name + "\"", r.requests.sum()));
+		sb.append("# TYPE mes_request_errors_total counter\n");
+		routes.values().forEach(r -> sample(sb, "mes_request_errors_total", "route=\"" + r.name + "\"", r.errors.sum()));
+		sb.append("# TYPE mes_request_duration_seconds summary\n");
+		routes.values().forEach(r -> summary(sb, "mes_request_duration_seconds", "route=\"" + r.name + "\"", r.latency));
+
+		sb.append("# TYPE mes_search_redis_seconds summary\n");
+		summary(sb, "mes_search_redis_seconds", null, searchRedis);
+		sb.append("# TYPE mes_search_serialise_seconds summary\n");
+		summary(sb, "mes_search_serialise_seconds", null, searchSerialise);
+		sb.append("# TYPE mes_ingest_redis_seconds summary\n");
+		summary(sb, "mes_ingest_redis_seconds", null, ingestRedis);
+		sb.append("# TYPE mes_ingest_queue_flush_seconds summary\n");
+		summary(sb, "mes_ingest_queue_flush_seconds", null, ingestQueueFlush);
+		sb.append("# TYPE mes_ingest_queue_latency_seconds summary\n");
+		summary(sb, "mes_ingest_queue_latency_seconds", null, ingestQueueLatency);
+		sb.append("# TYPE mes_ingest_in_flight_documents gauge\n");
+		sample(sb, "mes_ingest_in_flight_documents", null, ingestInFlight.get());
+
+		extra.forEach((name, value) -> {
+			sb.append("# TYPE ").append(name).append(" untyped\n");
+			sample(sb, name, null, value);
+		});
+
+		return sb.toString();
+	}
+
+	private static void summary(StringBuilder sb, String name, String labels, Histogram histogram) {
+		String prefix = labels == null ? "" : labels + ",";
+		for (double q : QUANTILES) {
+			sample(sb, name, prefix + "quantile=\"" + q + "\"", seconds(histogram.quantile(q)));
+		}
+		sample(sb, name + "_sum", labels, seconds(histogram.sum()));
+		sample(sb, name + "_count", labels, histogram.count());
+	}
+
+	private static void sample(StringBuilder sb, String name, String labels, Number value) {
+		sb.append(name);
+		if (labels != null) sb.append('{').append(labels).append('}');
+		sb.append(' ').append(value).append('\n');
+	}
+
+	private static double seconds(long nanos) {
+		return nanos / 1_000_000_000d;
+	}
+
+	private static class Route implements ExchangeCompletionListener {
+
+		private final String name;
+		private final LongAdder requests = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final Histogram latency = histogram();
+
+		private Route(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+			try {
+				requests.increment();
+				if (exchange.getStatusCode() >= 500) errors.increment();
+				if (exchange.getRequestStartTime() > 0) latency.record(System.nanoTime() - exchange.getRequestStartTime());
+			} finally {
+				nextListener.proceed();
+			}
+		}
+	}
+}
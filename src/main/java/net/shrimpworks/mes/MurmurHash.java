@@ -0,0 +1,67 @@
+package net.shrimpworks.mes;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 64-bit MurmurHash2 (MurmurHash64A) of strings, used to route documents
+ * to shards and to fingerprint document fields.
+ * <p>
+ * Shard routing depends on the hash of each document key never changing,
+ * so this implementation is owned by the project rather than borrowed from
+ * a dependency. It produces the same values as the Jedis hash documents
+ * were previously routed with, so existing documents stay on their shards.
+ */
+public class MurmurHash {
+
+	private static final long M = 0xc6a4a7935bd1e995L;
+	private static final int R = 47;
+	private static final int SEED = 0x1234ABCD;
+
+	private MurmurHash() {}
+
+	/**
+	 * @param value string to hash, as UTF-8
+	 * @return 64-bit hash of the string
+	 */
+	public static long hash64(String value) {
+		return hash64(value.getBytes(StandardCharsets.UTF_8), SEED);
+	}
+
+	/**
+	 * @param data bytes to hash
+	 * @param seed hash seed
+	 * @return 64-bit hash of the bytes
+	 */
+	public static long hash64(byte[] data, int seed) {
+		final int length = data.length;
+		long h = seed ^ (length * M);
+
+		final int blocks = length / Long.BYTES;
+		for (int i = 0; i < blocks; i++) {
+			long k = littleEndian(data, i * Long.BYTES, Long.BYTES);
+			k *= M;
+			k ^= k >>> R;
+			k *= M;
+
+			h ^= k;
+			h *= M;
+		}
+
+		final int remaining = length % Long.BYTES;
+		if (remaining > 0) {
+			h ^= littleEndian(data, blocks * Long.BYTES, remaining);
+			h *= M;
+		}
+
+		h ^= h >>> R;
+		h *= M;
+		h ^= h >>> R;
+		return h;
+	}
+
+	private static long littleEndian(byte[] data, int offset, int length) {
+		long value = 0;
+		for (int i = length - 1; i >= 0; i--) value = (value << 8) | (data[offset + i] & 0xffL);
+		return value;
+	}
+}
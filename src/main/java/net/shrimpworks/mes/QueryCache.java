@@ -0,0 +1,136 @@
+package net.shrimpworks.mes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-bounded, least-recently-used cache of query results, with entries
+ * expiring after a fixed time-to-live.
+ * <p>
+ * The cache may be invalidated as a whole when the underlying index is
+ * written to. To avoid a result computed before a write being cached after
+ * it, callers should capture the {@link #generation()} before running the
+ * query, and pass it along when storing the result; results from an older
+ * generation are discarded.
+ *
+ * @param <K> query key type
+ * @param <V> cached result type
+ */
+public class QueryCache<K, V> {
+
+	private final int maxEntries;
+	private final long ttlNanos;
+
+	private final LinkedHashMap<K, Entry<V>> entries;
+	private long generation = 0;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	/**
+	 * Create a new cache.
+	 *
+	 * @param maxEntries maximum number of entries held, a value of 0 disables caching
+	 * @param ttlMillis  time after which entries expire, a value of 0 or less means no expiry
+	 */
+	public QueryCache(int maxEntries, long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.ttlNanos = ttlMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(ttlMillis) : 0;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				if (size() <= QueryCache.this.maxEntries) return false;
+				evictions.increment();
+				return true;
+			}
+		};
+	}
+
+	public boolean enabled() {
+		return maxEntries > 0;
+	}
+
+	/**
+	 * Retrieve a cached result.
+	 *
+	 * @param key query key
+	 * @return the cached result, or null if not present or expired
+	 */
+	public V get(K key) {
+		if (!enabled()) return null;
+
+		synchronized (entries) {
+			Entry<V> entry = entries.get(key);
+			if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.created > ttlNanos) {
+				entries.remove(key);
+				expirations.increment();
+				entry = null;
+			}
+
+			if (entry == null) {
+				misses.increment();
+				return null;
+			}
+
+			hits.increment();
+			return entry.value;
+		}
+	}
+
+	/**
+	 * The current generation of the cache, which changes each time it is
+	 * invalidated.
+	 *
+	 * @return current generation
+	 */
+	public long generation() {
+		synchronized (entries) {
+			return generation;
+		}
+	}
+
+	/**
+	 * Store a result, if the cache has not been invalidated since the result
+	 * was queried.
+	 *
+	 * @param key        query key
+	 * @param value      result to store
+	 * @param generation generation captured before the result was queried
+	 */
+	public void put(K key, V value, long generation) {
+		if (!enabled()) return;
+
+		synchronized (entries) {
+			if (generation != this.generation) return;
+			entries.put(key, new Entry<>(value, System.nanoTime()));
+		}
+	}
+
+	/**
+	 * Discard all cached results.
+	 */
+	public void invalidate() {
+		if (!enabled()) return;
+
+		synchronized (entries) {
+			generation++;
+			entries.clear();
+		}
+		invalidations.increment();
+	}
+
+	public Stats stats() {
+		synchronized (entries) {
+			return new Stats(entries.size(), hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), invalidations.sum());
+		}
+	}
+
+	private record Entry<V>(V value, long created) {}
+
+	public record Stats(int size, long hits, long misses, long evictions, long expirations, long invalidations) {}
+}
@@ -0,0 +1,231 @@
+package net.shrimpworks.mes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.AbstractTransaction;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * Rebuilds the search index with the configured schema while searches
+ * continue to be served, for schema changes which cannot be made to an
+ * existing index, such as changing the type or options of a field.
+ * <p>
+ * A new index, versioned by a {@code -vN} suffix on the configured index
+ * name, is created over the same key prefix as the live index. Redis
+ * indexes the existing documents in the background, and documents written
+ * meanwhile are indexed by both. Once every shard's new index is complete,
+ * the configured index name is pointed at it as an alias with
+ * FT.ALIASUPDATE, which searches immediately follow, and the previous
+ * index is dropped, leaving the documents in place.
+ * <p>
+ * The first reindex of an index created before aliases were used replaces
+ * that index with an alias of the same name. On each shard, the alias is
+ * switched and the previous index dropped together in a MULTI/EXEC
+ * transaction, so no search sees the name without an index behind it.
+ * Should switching the alias fail after the previous index was dropped, an
+ * index is created again under the configured name, so that it continues
+ * to resolve. Shards are switched one after another, so for an instant some
+ * shards may be searched with the new schema and some with the old.
+ */
+public class Reindexer {
+
+	private static final Logger logger = LoggerFactory.getLogger(Reindexer.class);
+
+	private static final String VERSION = "-v";
+	private static final int POLL_MILLIS = 1000;
+
+	private final Shards shards;
+	private final Main.Config config;
+	private final Runnable onSwap;
+
+	private volatile Status status = new Status(State.IDLE, null, 0, 0, 0, 0, 0, null);
+
+	/**
+	 * @param shards redis shards holding the index
+	 * @param config service configuration, whose schema the index is rebuilt with
+	 * @param onSwap called once searches are made against the new index
+	 */
+	public Reindexer(Shards shards, Main.Config config, Runnable onSwap) {
+		this.shards = shards;
+		this.config = config;
+		this.onSwap = onSwap;
+	}
+
+	/**
+	 * Start rebuilding the index in the background.
+	 *
+	 * @return the status of the new reindex
+	 * @throws IllegalStateException if a reindex is already running
+	 */
+	public synchronized Status start() {
+		if (status.state() == State.BUILDING) throw new IllegalStateException("A reindex is already running");
+
+		status = new Status(State.BUILDING, null, 0, 0, 0, 0, 0, null);
+		Thread.ofVirtual().name("reindex").start(this::run);
+		return status;
+	}
+
+	public Status status() {
+		return status;
+	}
+
+	private void run() {
+		final long started = System.currentTimeMillis();
+		String target = null;
+		// shards already searching the new index, which must be kept
+		int swapped = 0;
+		try {
+			// the live index of each shard, which may be an older version on some, should a previous reindex have failed part way
+			final List<String> live = new ArrayList<>();
+			int version = 0;
+			for (int i = 0; i < shards.size(); i++) {
+				live.add((String)shards.client(i).ftInfo(config.index()).get("index_name"));
+				version = Math.max(version, version(live.getLast()));
+			}
+			target = config.index() + VERSION + (version + 1);
+
+			logger.info("Reindexing {} into {}", config.index(), target);
+			for (int i = 0; i < shards.size(); i++) {
+				final JedisPooled client = shards.client(i);
+				drop(client, target);
+				Main.newIndex(client, target, config);
+			}
+
+			while (!progress(target, started)) Thread.sleep(POLL_MILLIS);
+
+			for (; swapped < shards.size(); swapped++) swap(shards.client(swapped), live.get(swapped), target);
+			onSwap.run();
+
+			status = status.finish(State.DONE, null, started);
+			logger.info("Reindexed {} documents into {} in {}ms", status.docs(), target, status.elapsedMillis());
+		} catch (Exception e) {
+			logger.error("Failed to reindex {}", config.index(), e);
+			if (target != null) {
+				for (int i = swapped; i < shards.size(); i++) drop(shards.client(i), target);
+			}
+			if (swapped > 0) onSwap.run();
+			status = status.finish(State.FAILED, e.getMessage(), started);
+		}
+	}
+
+	/**
+	 * Update the reindex status from the new index on each shard.
+	 *
+	 * @return true once every shard has finished indexing
+	 */
+	private boolean progress(String target, long started) {
+		long docs = 0;
+		long liveDocs = 0;
+		double indexed = 0;
+		boolean done = true;
+		for (int i = 0; i < shards.size(); i++) {
+			final JedisPooled client = shards.client(i);
+			final Map<String, Object> info = client.ftInfo(target);
+			docs += number(info.get("num_docs"));
+			liveDocs += number(client.ftInfo(config.index()).get("num_docs"));
+			final double percent = Double.parseDouble(String.valueOf(info.get("percent_indexed")));
+			indexed += percent;
+			done &= percent >= 1 && number(info.get("indexing")) == 0;
+		}
+
+		final long elapsed = System.currentTimeMillis() - started;
+		status = new Status(State.BUILDING, target, docs, liveDocs, indexed / shards.size(),
+							elapsed > 0 ? docs * 1000d / elapsed : 0, elapsed, null);
+		return done;
+	}
+
+	/**
+	 * Point the index name at the new index, and drop the previous one, in a
+	 * single transaction.
+	 */
+	private void swap(JedisPooled client, String live, String target) {
+		final Response<String> alias;
+		final Response<String> drop;
+		try (AbstractTransaction tx = client.multi()) {
+			if (live.equals(config.index())) {
+				// the name is held by the original index, which must be dropped before the alias may take its place
+				drop = tx.ftDropIndex(live);
+				alias = tx.ftAliasAdd(config.index(), target);
+			} else {
+				alias = tx.ftAliasUpdate(config.index(), target);
+				drop = tx.ftDropIndex(live);
+			}
+			tx.exec();
+		}
+
+		final String aliasError = error(alias);
+		if (aliasError == null) {
+			final String dropError = error(drop);
+			// the alias already points at the new index, so the previous index is only left behind
+			if (dropError != null) logger.warn("Failed to drop previous index {}: {}", live, dropError);
+			return;
+		}
+
+		// the live index may have been dropped regardless, so ensure the name still resolves to an index
+		if (error(drop) == null) {
+			logger.error("Failed to switch {} to {}, creating {} again", config.index(), target, config.index());
+			Main.newIndex(client, config.index(), config);
+		}
+		throw new JedisDataException("Failed to switch " + config.index() + " to " + target + ": " + aliasError);
+	}
+
+	/**
+	 * @return the error replied to a command in a transaction, or null if it succeeded
+	 */
+	private static String error(Response<String> response) {
+		try {
+			response.get();
+			return null;
+		} catch (JedisDataException e) {
+			return e.getMessage();
+		}
+	}
+
+	private static void drop(JedisPooled client, String index) {
+		try {
+			client.ftDropIndex(index);
+		} catch (JedisDataException e) {
+			// no such index
+		}
+	}
+
+	private int version(String index) {
+		if (!index.startsWith(config.index() + VERSION)) return 0;
+		return Integer.parseInt(index.substring(config.index().length() + VERSION.length()));
+	}
+
+	private static long number(Object value) {
+		return Long.parseLong(String.valueOf(value));
+	}
+
+	public enum State {
+		IDLE,
+		BUILDING,
+		DONE,
+		FAILED
+	}
+
+	/**
+	 * @param state         whether a reindex is running, or how the last one ended
+	 * @param index         name of the index being built
+	 * @param docs          documents indexed so far by the new index
+	 * @param liveDocs      documents in the index currently searched
+	 * @param progress      fraction of existing documents indexed, from 0 to 1
+	 * @param docsPerSecond documents indexed per second since the reindex started
+	 * @param elapsedMillis time since the reindex started, or taken in total once ended
+	 * @param error         reason the reindex failed
+	 */
+	public record Status(State state, String index, long docs, long liveDocs, double progress, double docsPerSecond,
+						 long elapsedMillis, String error) {
+
+		private Status finish(State state, String error, long started) {
+			return new Status(state, index, docs, liveDocs, progress, docsPerSecond, System.currentTimeMillis() - started, error);
+		}
+	}
+}
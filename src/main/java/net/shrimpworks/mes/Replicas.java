@@ -0,0 +1,388 @@
+package net.shrimpworks.mes;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.AbstractPipeline;
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.search.Query;
+import redis.clients.jedis.search.SearchResult;
+import redis.clients.jedis.search.aggr.AggregationBuilder;
+import redis.clients.jedis.search.aggr.AggregationResult;
+
+/**
+ * A Redis primary node, and any read replicas of it, with reads balanced
+ * across the replicas.
+ * <p>
+ * Each read is sent to the healthy replica with the fewest reads in flight,
+ * preferring the replica with the lowest recent latency when several are
+ * equally busy. A replica which fails several reads in a row is ejected, and
+ * not sent any more reads until its ejection period has passed, after which
+ * it is tried again. Reads which fail on a replica are retried once on the
+ * primary, and the primary also serves reads when no replica is healthy.
+ * <p>
+ * Replicas are updated asynchronously, so reads may briefly not reflect the
+ * most recent writes to the primary. After this service writes to the
+ * primary, reads are therefore sent to the primary for a short time, so
+ * that they see the write, and results missing it are not cached.
+ */
+public class Replicas implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(Replicas.class);
+
+	// weight given to each new latency sample in the moving average
+	private static final double LATENCY_ALPHA = 0.2;
+
+	private final Node primary;
+	private final List<Node> replicas;
+	private final int failureThreshold;
+	private final long ejectNanos;
+	private final long primaryNanos;
+
+	// time until which reads are sent to the primary, following a write
+	private final AtomicLong primaryUntil = new AtomicLong(System.nanoTime());
+
+	/**
+	 * @param primary primary node, which receives all writes
+	 */
+	public Replicas(Node primary) {
+		this(primary, List.of(), 1, 0, 0);
+	}
+
+	/**
+	 * @param primary          primary node, which receives all writes
+	 * @param replicas         replica nodes, which serve reads
+	 * @param failureThreshold consecutive failed reads after which a replica is ejected
+	 * @param ejectMillis      time an ejected replica is not sent reads
+	 * @param primaryMillis    time after a write during which reads are sent to the primary
+	 */
+	public Replicas(Node primary, List<Node> replicas, int failureThreshold, int ejectMillis, int primaryMillis) {
+		this.primary = primary;
+		this.replicas = List.copyOf(replicas);
+		this.failureThreshold = failureThreshold;
+		this.ejectNanos = TimeUnit.MILLISECONDS.toNanos(ejectMillis);
+		this.primaryNanos = TimeUnit.MILLISECONDS.toNanos(primaryMillis);
+	}
+
+	public Node primary() {
+		return primary;
+	}
+
+	public List<Node> replicas() {
+		return replicas;
+	}
+
+	/**
+	 * Perform a read on the most suitable node.
+	 *
+	 * @param read the read to perform against a node
+	 * @param <T>  type of the read's result
+	 * @return future completed with the read's result
+	 */
+	public <T> CompletableFuture<T> read(Function<Node, CompletableFuture<T>> read) {
+		if (replicas.isEmpty()) return read.apply(primary);
+
+		final long now = System.nanoTime();
+		// replicas may not have received a recent write yet
+		if (now - primaryUntil.get() < 0) return tracked(primary, read);
+
+		final Node node = select(now);
+		if (node == primary) return tracked(primary, read);
+
+		return tracked(node, read).exceptionallyCompose(e -> {
+			// errors from the query itself would fail on the primary too
+			if (cause(e) instanceof JedisDataException) return CompletableFuture.failedFuture(e);
+			return tracked(primary, read);
+		});
+	}
+
+	/**
+	 * Note a write to the primary, sending reads to it until replicas are
+	 * likely to have caught up.
+	 */
+	public void written() {
+		if (!replicas.isEmpty()) primaryUntil.set(System.nanoTime() + primaryNanos);
+	}
+
+	public List<Stats> stats() {
+		final long now = System.nanoTime();
+		return replicas.stream().map(n -> n.stats(now, failureThreshold)).toList();
+	}
+
+	@Override
+	public void close() {
+		primary.close();
+		replicas.forEach(Node::close);
+	}
+
+	private Node select(long now) {
+		Node best = null;
+		for (Node node : replicas) {
+			if (!node.healthy(now, failureThreshold)) continue;
+			if (best == null
+				|| node.outstanding.get() < best.outstanding.get()
+				|| (node.outstanding.get() == best.outstanding.get() && node.latencyNanos.get() < best.latencyNanos.get())) {
+				best = node;
+			}
+		}
+		return best == null ? primary : best;
+	}
+
+	private <T> CompletableFuture<T> tracked(Node node, Function<Node, CompletableFuture<T>> read) {
+		final long start = System.nanoTime();
+		node.outstanding.incrementAndGet();
+		node.reads.increment();
+
+		CompletableFuture<T> future;
+		try {
+			future = read.apply(node);
+		} catch (RuntimeException e) {
+			future = CompletableFuture.failedFuture(e);
+		}
+
+		return future.whenComplete((result, error) -> {
+			node.outstanding.decrementAndGet();
+			if (error == null || cause(error) instanceof JedisDataException) node.succeeded(System.nanoTime() - start);
+			else if (node != primary) node.failed(System.nanoTime(), error, failureThreshold, ejectNanos);
+		});
+	}
+
+	private static Throwable cause(Throwable e) {
+		return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+	}
+
+	/**
+	 * Statistics for a replica.
+	 *
+	 * @param host          replica host
+	 * @param healthy       whether the replica is currently being sent reads
+	 * @param outstanding   reads currently in flight
+	 * @param latencyMillis moving average of read latency
+	 * @param reads         total reads sent
+	 * @param failures      total reads failed
+	 * @param ejections     number of times the replica has been ejected
+	 */
+	public record Stats(String host, boolean healthy, int outstanding, double latencyMillis, long reads, long failures,
+						long ejections) {}
+
+	/**
+	 * A single Redis node, and the clients used to talk to it.
+	 */
+	public static class Node implements Closeable {
+
+		private final String host;
+		private final JedisPooled client;
+		private final AsyncRedis async;
+
+		private final AtomicInteger outstanding = new AtomicInteger();
+		private final AtomicLong latencyNanos = new AtomicLong();
+		private final AtomicInteger failures = new AtomicInteger();
+		private final AtomicLong ejectedUntil = new AtomicLong(System.nanoTime());
+		private final LongAdder reads = new LongAdder();
+		private final LongAdder failed = new LongAdder();
+		private final LongAdder ejections = new LongAdder();
+
+		/**
+		 * @param host   node host, used for logging and statistics
+		 * @param client client used for blocking operations
+		 * @param async  if not null, a non-blocking client used for searches
+		 */
+		public Node(String host, JedisPooled client, AsyncRedis async) {
+			this.host = host;
+			this.client = client;
+			this.async = async;
+		}
+
+		public String host() {
+			return host;
+		}
+
+		public JedisPooled client() {
+			return client;
+		}
+
+		public AsyncRedis async() {
+			return async;
+		}
+
+		/**
+		 * Run a search on this node.
+		 *
+		 * @param index    index to search
+		 * @param query    query to run
+		 * @param offset   result offset, echoed in the results
+		 * @param limit    result limit, echoed in the results
+		 * @param executor executor used for blocking searches
+		 * @return future completed with the search results
+		 */
+		public CompletableFuture<API.SearchResults> search(String index, Query query, int offset, int limit, Executor executor) {
+			if (async != null) return async.search(index, query, offset, limit);
+			return CompletableFuture.supplyAsync(
+				() -> API.SearchResults.fromSearchResult(client.ftSearch(index, query), offset, limit), executor
+			);
+		}
+
+		/**
+		 * Run several searches on this node, pipelined so that they all
+		 * complete in a single round trip.
+		 *
+		 * @param index    index to search
+		 * @param searches searches to run
+		 * @param executor executor used for blocking searches
+		 * @return future completed with the results of each search, in the same order as the searches
+		 */
+		public CompletableFuture<List<API.SearchResults>> searchAll(String index, List<Shards.Search> searches, Executor executor) {
+			if (async != null) {
+				final List<CompletableFuture<API.SearchResults>> results = new ArrayList<>(searches.size());
+				for (Shards.Search search : searches) results.add(async.search(index, search.query(), search.offset(), search.limit()));
+				return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+										.thenApply(v -> results.stream().map(CompletableFuture::join).toList());
+			}
+
+			return CompletableFuture.supplyAsync(() -> {
+				try (AbstractPipeline pipeline = client.pipelined()) {
+					final List<Response<SearchResult>> replies = searches.stream().map(s -> pipeline.ftSearch(index, s.query())).toList();
+					pipeline.sync();
+					final List<API.SearchResults> results = new ArrayList<>(searches.size());
+					for (int i = 0; i < searches.size(); i++) {
+						results.add(API.SearchResults.fromSearchResult(replies.get(i).get(), searches.get(i).offset(), searches.get(i).limit()));
+					}
+					return results;
+				}
+			}, executor);
+		}
+
+		/**
+		 * Fetch the fields of several documents held by this node.
+		 *
+		 * @param keys     document keys
+		 * @param fields   fields to fetch, or null for all fields
+		 * @param executor executor used for blocking requests
+		 * @return future completed with the fields of each document, in the same order as the keys
+		 */
+		public CompletableFuture<List<Map<String, String>>> fetch(List<String> keys, List<String> fields, Executor executor) {
+			if (async != null) {
+				final List<CompletableFuture<Map<String, String>>> replies = new ArrayList<>(keys.size());
+				for (String key : keys) {
+					if (fields == null) {
+						replies.add(async.send(new CommandArguments(Protocol.Command.HGETALL).key(key))
+										 .thenApply(reply -> hash((List<?>)reply)));
+					} else {
+						final CommandArguments args = new CommandArguments(Protocol.Command.HMGET).key(key);
+						fields.forEach(args::add);
+						replies.add(async.send(args).thenApply(reply -> hash(fields, strings((List<?>)reply))));
+					}
+				}
+				return CompletableFuture.allOf(replies.toArray(CompletableFuture[]::new))
+										.thenApply(v -> replies.stream().map(CompletableFuture::join).toList());
+			}
+
+			return CompletableFuture.supplyAsync(() -> {
+				try (AbstractPipeline pipeline = client.pipelined()) {
+					if (fields == null) {
+						final List<Response<Map<String, String>>> replies = keys.stream().map(pipeline::hgetAll).toList();
+						pipeline.sync();
+						return replies.stream().map(Response::get).toList();
+					}
+
+					final String[] names = fields.toArray(String[]::new);
+					final List<Response<List<String>>> replies = keys.stream().map(k -> pipeline.hmget(k, names)).toList();
+					pipeline.sync();
+					return replies.stream().map(r -> hash(fields, r.get())).toList();
+				}
+			}, executor);
+		}
+
+		/**
+		 * Run several aggregations on this node, pipelined so that they all
+		 * complete in a single round trip.
+		 *
+		 * @param index        index to aggregate
+		 * @param aggregations aggregations to run
+		 * @param executor     executor used for blocking requests
+		 * @return future completed with the result of each aggregation, in the same order as the aggregations
+		 */
+		public CompletableFuture<List<AggregationResult>> aggregateAll(String index, List<AggregationBuilder> aggregations,
+																	   Executor executor) {
+			return CompletableFuture.supplyAsync(() -> {
+				try (AbstractPipeline pipeline = client.pipelined()) {
+					final List<Response<AggregationResult>> replies = aggregations.stream().map(a -> pipeline.ftAggregate(index, a)).toList();
+					pipeline.sync();
+					return replies.stream().map(Response::get).toList();
+				}
+			}, executor);
+		}
+
+		@Override
+		public void close() {
+			client.close();
+			if (async != null) async.close();
+		}
+
+		private boolean healthy(long now, int failureThreshold) {
+			return failures.get() < failureThreshold || now - ejectedUntil.get() >= 0;
+		}
+
+		private void succeeded(long nanos) {
+			failures.set(0);
+			latencyNanos.getAndUpdate(l -> l == 0 ? nanos : (long)(l + LATENCY_ALPHA * (nanos - l)));
+		}
+
+		private void failed(long now, Throwable error, int failureThreshold, long ejectNanos) {
+			failed.increment();
+			// a replica which fails again after being let back in is ejected again immediately
+			if (failures.incrementAndGet() >= failureThreshold && healthy(now, failureThreshold)) {
+				ejectedUntil.set(now + ejectNanos);
+				ejections.increment();
+				logger.warn("Ejecting replica {} for {}ms after {} consecutive failures", host,
+							TimeUnit.NANOSECONDS.toMillis(ejectNanos), failures.get(), cause(error));
+			}
+		}
+
+		private Stats stats(long now, int failureThreshold) {
+			return new Stats(host, healthy(now, failureThreshold), outstanding.get(), latencyNanos.get() / 1_000_000d, reads.sum(), failed.sum(),
+							 ejections.sum());
+		}
+	}
+
+	private static Map<String, String> hash(List<?> reply) {
+		final Map<String, String> hash = new HashMap<>(reply.size() / 2);
+		for (int i = 0; i + 1 < reply.size(); i += 2) {
+			hash.put(new String((byte[])reply.get(i), StandardCharsets.UTF_8), new String((byte[])reply.get(i + 1), StandardCharsets.UTF_8));
+		}
+		return hash;
+	}
+
+	private static Map<String, String> hash(List<String> fields, List<String> values) {
+		final Map<String, String> hash = new HashMap<>(fields.size());
+		for (int i = 0; i < fields.size(); i++) {
+			// fields missing from the document are omitted, as they would be from search results
+			if (values.get(i) != null) hash.put(fields.get(i), values.get(i));
+		}
+		return hash;
+	}
+
+	private static List<String> strings(List<?> reply) {
+		final List<String> strings = new ArrayList<>(reply.size());
+		for (Object o : reply) strings.add(o == null ? null : new String((byte[])o, StandardCharsets.UTF_8));
+		return strings;
+	}
+}
@@ -0,0 +1,136 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.search.Document;
+import redis.clients.jedis.search.aggr.AggregationBuilder;
+import redis.clients.jedis.search.aggr.AggregationResult;
+
+/**
+ * A position within a search being read page by page with a Redis cursor,
+ * passed to clients as an opaque token.
+ * <p>
+ * Unlike offset pagination, which has Redis find and skip over all results
+ * before the requested page, each page read from a cursor costs the same
+ * regardless of how far through the results it is. Results are not ordered
+ * by relevance, so cursors are intended for reading complete result sets,
+ * such as for exports or crawlers.
+ * <p>
+ * Cursors only find document keys, and the content of each page is then
+ * fetched separately. On a sharded index, each shard's results are read in
+ * turn. Cursors are held by each shard's primary node, and expire after
+ * being left unread for a while.
+ *
+ * @param q       query string
+ * @param params  values of the query parameters referred to by filters in the query string, or null if there are none
+ * @param fields  fields to return for each result, or null for all fields
+ * @param content whether to return any fields at all, rather than only ids
+ * @param count   number of results per page
+ * @param shard   shard currently being read
+ * @param id      Redis cursor on the current shard, or 0 if it has not been started
+ */
+public record SearchCursor(String q, Map<String, String> params, List<String> fields, boolean content, int count, int shard, long id) {
+
+	/**
+	 * Start reading a search with a cursor.
+	 *
+	 * @param request search to read
+	 * @param count   number of results per page
+	 * @return a cursor at the start of the search's results
+	 */
+	public static SearchCursor start(SearchRequest request, int count) {
+		if (request.filters().isEmpty()) return new SearchCursor(request.q(), null, request.fields(), request.content(), count, 0, 0);
+
+		final Filters.Compiled compiled = Filters.compile(request.q(), request.filters());
+		return new SearchCursor(compiled.query(), compiled.params(), request.fields(), request.content(), count, 0, 0);
+	}
+
+	/**
+	 * @param token a token previously produced by {@link #token()}
+	 * @return the cursor represented by the token
+	 * @throws IllegalArgumentException if the token is not valid
+	 */
+	public static SearchCursor parse(String token) {
+		try {
+			SearchCursor cursor = JacksonMapper.JSON.object(Base64.getUrlDecoder().decode(token), SearchCursor.class);
+			if (cursor.q == null || cursor.count <= 0 || cursor.shard < 0) throw new IllegalArgumentException("Invalid cursor");
+			return cursor;
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Invalid cursor", e);
+		}
+	}
+
+	/**
+	 * @return an opaque token representing this cursor
+	 */
+	public String token() {
+		try {
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(JacksonMapper.JSON.bytes(this));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Read the next page of results.
+	 *
+	 * @param shards        redis shards holding the index
+	 * @param index         index to search
+	 * @param maxIdleMillis time a newly started Redis cursor may be left unread before it expires
+	 * @param executor      executor used for blocking requests
+	 * @return future completed with the page of results, or failed with {@link IllegalArgumentException} if this
+	 * 	cursor does not belong to this index
+	 */
+	public CompletableFuture<Page> read(Shards shards, String index, long maxIdleMillis, Executor executor) {
+		if (shard >= shards.size()) return CompletableFuture.failedFuture(new IllegalArgumentException("Invalid cursor"));
+
+		return CompletableFuture.supplyAsync(() -> {
+			final JedisPooled client = shards.client(shard);
+			if (id != 0) return client.ftCursorRead(index, id, count);
+
+			final AggregationBuilder aggregation = new AggregationBuilder(q);
+			if (params != null) aggregation.params(new HashMap<>(params)).dialect(2);
+			return client.ftAggregate(index, aggregation.load("@__key").cursor(count, maxIdleMillis));
+		}, executor).thenCompose(result -> page(result, shards, index, maxIdleMillis, executor));
+	}
+
+	private CompletableFuture<Page> page(AggregationResult result, Shards shards, String index, long maxIdleMillis, Executor executor) {
+		final List<String> keys = result.getRows().stream().map(r -> r.getString("__key")).toList();
+
+		final SearchCursor next;
+		if (result.getCursorId() != 0) next = new SearchCursor(q, params, fields, content, count, shard, result.getCursorId());
+		else if (shard + 1 < shards.size()) next = new SearchCursor(q, params, fields, content, count, shard + 1, 0);
+		else next = null;
+
+		// rather than returning an empty page when a shard has no more results, move on to the next shard
+		if (keys.isEmpty() && next != null && next.shard != shard) return next.read(shards, index, maxIdleMillis, executor);
+
+		if (keys.isEmpty() || !content) return CompletableFuture.completedFuture(new Page(documents(keys, List.of()), next));
+		return shards.fetch(shard, keys, fields, executor).thenApply(hashes -> new Page(documents(keys, hashes), next));
+	}
+
+	private static List<Document> documents(List<String> keys, List<Map<String, String>> hashes) {
+		final List<Document> docs = new ArrayList<>(keys.size());
+		for (int i = 0; i < keys.size(); i++) {
+			docs.add(new Document(keys.get(i), hashes.isEmpty() ? new HashMap<>() : new HashMap<>(hashes.get(i)), 1.0));
+		}
+		return docs;
+	}
+
+	/**
+	 * A page of results read from a cursor.
+	 *
+	 * @param docs documents found
+	 * @param next cursor for the following page, or null if there are no more results
+	 */
+	public record Page(List<Document> docs, SearchCursor next) {}
+}
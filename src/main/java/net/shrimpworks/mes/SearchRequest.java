@@ -0,0 +1,50 @@
+package net.shrimpworks.mes;
+
+import java.util.List;
+
+import redis.clients.jedis.search.Query;
+
+/**
+ * The parameters of a search, used both to build the Redis query and as
+ * a cache key for its results.
+ *
+ * @param q         query string
+ * @param offset    offset of the first result to return
+ * @param limit     maximum number of results to return
+ * @param fields    fields to return for each result, or null for all fields
+ * @param content   whether to return any fields at all, rather than only ids and scores
+ * @param highlight fields in which to highlight matching terms
+ * @param summarize fields to summarise as fragments around matching terms
+ * @param filters   filters applied to the query
+ */
+public record SearchRequest(String q, int offset, int limit, List<String> fields, boolean content, List<String> highlight,
+							List<String> summarize, List<Filters.Filter> filters) {
+
+	public SearchRequest(String q, int offset, int limit) {
+		this(q, offset, limit, null, true, List.of(), List.of(), List.of());
+	}
+
+	/**
+	 * @return true if the content of results is transformed by Redis, rather than returned as stored
+	 */
+	public boolean formatted() {
+		return content && (!highlight.isEmpty() || !summarize.isEmpty());
+	}
+
+	public Query toQuery() {
+		Query query;
+		if (filters.isEmpty()) {
+			query = new Query(q);
+		} else {
+			final Filters.Compiled compiled = Filters.compile(q, filters);
+			query = new Query(compiled.query()).dialect(2);
+			compiled.params().forEach(query::addParam);
+		}
+		query.limit(offset, limit).setWithScores();
+		if (!content) return query.setNoContent();
+		if (fields != null) query.returnFields(fields.toArray(String[]::new));
+		if (!highlight.isEmpty()) query.highlightFields(highlight.toArray(String[]::new));
+		if (!summarize.isEmpty()) query.summarizeFields(summarize.toArray(String[]::new));
+		return query;
+	}
+}
@@ -0,0 +1,189 @@
+package net.shrimpworks.mes;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.search.Query;
+import redis.clients.jedis.search.aggr.AggregationBuilder;
+import redis.clients.jedis.search.aggr.AggregationResult;
+
+/**
+ * The Redis nodes holding the index, with documents partitioned between
+ * them by a hash of their keys.
+ * <p>
+ * Each shard holds its own copy of the search index, covering only its own
+ * documents. A single shard is the usual case, in which case all documents
+ * are routed to it.
+ * <p>
+ * Shards are addressed by position, so the list of shards must not change
+ * without re-indexing all documents.
+ * <p>
+ * Writes always go to each shard's primary node, while searches and other
+ * reads may be balanced across its read replicas, see {@link Replicas}.
+ */
+public class Shards implements Closeable {
+
+	private final List<Replicas> shards;
+	private final List<JedisPooled> clients;
+	private final boolean async;
+
+	/**
+	 * @param clients      clients for each shard, used for all blocking operations
+	 * @param asyncClients if not empty, a non-blocking client for each shard, used for searches
+	 */
+	public Shards(List<JedisPooled> clients, List<AsyncRedis> asyncClients) {
+		this(nodes(clients, asyncClients));
+	}
+
+	/**
+	 * @param shards the primary and replica nodes of each shard
+	 */
+	public Shards(List<Replicas> shards) {
+		if (shards.isEmpty()) throw new IllegalArgumentException("At least one shard is required");
+		this.shards = List.copyOf(shards);
+		this.clients = shards.stream().map(s -> s.primary().client()).toList();
+		this.async = shards.stream().allMatch(s -> s.primary().async() != null);
+	}
+
+	public int size() {
+		return shards.size();
+	}
+
+	public boolean async() {
+		return async;
+	}
+
+	/**
+	 * @return clients for the primary node of each shard
+	 */
+	public List<JedisPooled> clients() {
+		return clients;
+	}
+
+	/**
+	 * @param shard shard number
+	 * @return client for the shard's primary node
+	 */
+	public JedisPooled client(int shard) {
+		return clients.get(shard);
+	}
+
+	/**
+	 * @return the primary and replica nodes of each shard
+	 */
+	public List<Replicas> replicas() {
+		return shards;
+	}
+
+	/**
+	 * Note a write to the index, so that reads see it rather than being
+	 * served by replicas which may not have received it yet.
+	 */
+	public void written() {
+		shards.forEach(Replicas::written);
+	}
+
+	/**
+	 * Find the shard which holds a document.
+	 *
+	 * @param key document key, including the index prefix
+	 * @return shard number
+	 */
+	public int shard(String key) {
+		if (clients.size() == 1) return 0;
+		return (int)Math.floorMod(MurmurHash.hash64(key), (long)clients.size());
+	}
+
+	/**
+	 * @param key document key, including the index prefix
+	 * @return client for the primary node of the shard which holds the document
+	 */
+	public JedisPooled forKey(String key) {
+		return clients.get(shard(key));
+	}
+
+	/**
+	 * Run a search on a single shard.
+	 *
+	 * @param shard    shard to search
+	 * @param index    index to search
+	 * @param query    query to run
+	 * @param offset   result offset, echoed in the results
+	 * @param limit    result limit, echoed in the results
+	 * @param executor executor used for blocking searches
+	 * @return future completed with the shard's results
+	 */
+	public CompletableFuture<API.SearchResults> search(int shard, String index, Query query, int offset, int limit, Executor executor) {
+		return shards.get(shard).read(node -> node.search(index, query, offset, limit, executor));
+	}
+
+	/**
+	 * Run several searches on a single shard in a single round trip.
+	 *
+	 * @param shard    shard to search
+	 * @param index    index to search
+	 * @param searches searches to run
+	 * @param executor executor used for blocking searches
+	 * @return future completed with the shard's results for each search, in the same order as the searches
+	 */
+	public CompletableFuture<List<API.SearchResults>> searchAll(int shard, String index, List<Search> searches, Executor executor) {
+		return shards.get(shard).read(node -> node.searchAll(index, searches, executor));
+	}
+
+	/**
+	 * Fetch the fields of several documents held by a single shard.
+	 *
+	 * @param shard    shard holding the documents
+	 * @param keys     document keys
+	 * @param fields   fields to fetch, or null for all fields
+	 * @param executor executor used for blocking requests
+	 * @return future completed with the fields of each document, in the same order as the keys
+	 */
+	public CompletableFuture<List<Map<String, String>>> fetch(int shard, List<String> keys, List<String> fields, Executor executor) {
+		return shards.get(shard).read(node -> node.fetch(keys, fields, executor));
+	}
+
+	/**
+	 * Run several aggregations on a single shard in a single round trip.
+	 *
+	 * @param shard        shard to aggregate
+	 * @param index        index to aggregate
+	 * @param aggregations aggregations to run
+	 * @param executor     executor used for blocking requests
+	 * @return future completed with the shard's result for each aggregation, in the same order as the aggregations
+	 */
+	public CompletableFuture<List<AggregationResult>> aggregateAll(int shard, String index, List<AggregationBuilder> aggregations,
+																   Executor executor) {
+		return shards.get(shard).read(node -> node.aggregateAll(index, aggregations, executor));
+	}
+
+	@Override
+	public void close() {
+		shards.forEach(Replicas::close);
+	}
+
+	/**
+	 * A search to run as part of a batch.
+	 *
+	 * @param query  query to run
+	 * @param offset result offset, echoed in the results
+	 * @param limit  result limit, echoed in the results
+	 */
+	public record Search(Query query, int offset, int limit) {}
+
+	private static List<Replicas> nodes(List<JedisPooled> clients, List<AsyncRedis> asyncClients) {
+		if (!asyncClients.isEmpty() && asyncClients.size() != clients.size()) {
+			throw new IllegalArgumentException("An async client is required for each shard");
+		}
+		final List<Replicas> shards = new ArrayList<>(clients.size());
+		for (int i = 0; i < clients.size(); i++) {
+			shards.add(new Replicas(new Replicas.Node("shard-" + i, clients.get(i), asyncClients.isEmpty() ? null : asyncClients.get(i))));
+		}
+		return shards;
+	}
+}
@@ -0,0 +1,70 @@
+package net.shrimpworks.mes;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key, so that only the first
+ * caller (the leader) performs the call, and callers arriving while it is
+ * in flight share its result.
+ * <p>
+ * A call is forgotten as soon as it completes, so results are never reused
+ * after that point; retaining results is left to a {@link QueryCache}.
+ *
+ * @param <K> call key type
+ * @param <V> call result type
+ */
+public class SingleFlight<K, V> {
+
+	private final ConcurrentHashMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+
+	/**
+	 * Perform a call, or join an identical call already in flight.
+	 *
+	 * @param key  call key
+	 * @param call performs the call, only invoked if no call with the same key is in flight
+	 * @return future completed with the result of the call
+	 */
+	public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+		final CompletableFuture<V> flight = new CompletableFuture<>();
+		final CompletableFuture<V> existing = flights.putIfAbsent(key, flight);
+		if (existing != null) {
+			coalesced.increment();
+			return existing;
+		}
+
+		calls.increment();
+		try {
+			call.get().whenComplete((result, error) -> {
+				// removed before completing, so anyone arriving after completion starts a new call
+				flights.remove(key, flight);
+				if (error != null) flight.completeExceptionally(error);
+				else flight.complete(result);
+			});
+		} catch (RuntimeException e) {
+			flights.remove(key, flight);
+			flight.completeExceptionally(e);
+		}
+		return flight;
+	}
+
+	/**
+	 * Forget all calls currently in flight, so that subsequent callers
+	 * start new calls rather than joining them. Callers already waiting
+	 * still receive their results.
+	 */
+	public void forget() {
+		flights.clear();
+	}
+
+	public Stats stats() {
+		return new Stats(flights.size(), calls.sum(), coalesced.sum());
+	}
+
+	public record Stats(int inFlight, long calls, long coalesced) {}
+}
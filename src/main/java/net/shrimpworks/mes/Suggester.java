@@ -0,0 +1,613 @@
+package net.shrimpworks.mes;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.AbstractPipeline;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+
+/**
+ * An in-process prefix index of field values, serving search-as-you-type
+ * completions without a round trip to Redis.
+ * <p>
+ * Values are held in a compressed trie, where each node also holds the
+ * highest weighted completions beneath it, so finding completions costs
+ * only a walk along the prefix, regardless of how many values share it.
+ * Each document containing a value adds one to its weight. Matching
+ * ignores case and repeated whitespace, while completions are returned as
+ * they were first seen.
+ * <p>
+ * Values are taken from documents once they have been written to Redis.
+ * Written documents are queued, and applied to the index in batches by a
+ * background thread, so ingestion is not held up by changes to the trie,
+ * and a value held by many documents in a batch is updated once.
+ * <p>
+ * A {@link Fingerprints} table holds a hash of each document's completed
+ * values, rather than the values themselves, so that a document written
+ * again with the same values is not counted twice, and a changed value
+ * takes one from the weight of the value it replaces, which is removed
+ * once no document holds it. Values are found from their hashes by way of
+ * a map of the values held, which the trie holds anyway. Once the table
+ * reaches its limit, documents not yet in it are counted each time they
+ * are written, and their previous values are kept.
+ * <p>
+ * The trie is never modified in place. Each batch of changes copies the
+ * nodes along their paths and replaces the root, so completions are read
+ * from a consistent snapshot without locking.
+ * <p>
+ * The index is not stored by the service, and is rebuilt from the documents
+ * in Redis on startup. Changes may optionally also be written to a Redis
+ * suggestion dictionary with FT.SUGADD and FT.SUGDEL, in the background,
+ * for use by other clients with FT.SUGGET.
+ */
+public class Suggester implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(Suggester.class);
+
+	// longer values are unlikely to be useful completions
+	private static final int MAX_LENGTH = 200;
+	private static final int LOAD_BATCH = 1000;
+	private static final int UPDATE_BATCH = 1000;
+	private static final int QUEUE_CAPACITY = 10_000;
+	private static final int FLUSH_MILLIS = 1000;
+
+	private static final Node EMPTY = new Node("", new Node[0], new Suggestion[0], null);
+
+	private final Shards shards;
+	private final String prefix;
+	private final List<String> fields;
+	private final int maxResults;
+	private final String persistKey;
+
+	// written and loaded documents not yet applied to the index
+	private final BlockingQueue<Update> updates = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+	// changes in weight not yet written to the redis suggestion dictionary
+	private final Map<String, Double> pending = new ConcurrentHashMap<>();
+	// hashes of the completed field values of each document
+	private final Fingerprints documents;
+	// the values held, by hash, guarded by this
+	private final Map<Long, String> values = new HashMap<>();
+	// held to queue documents, or exclusively to stop, so nothing is queued once remaining documents are applied
+	private final ReadWriteLock closing = new ReentrantReadWriteLock();
+	private final Thread updater;
+	private volatile boolean running = true;
+
+	private volatile Node root = EMPTY;
+	private volatile int terms;
+	private volatile boolean loading;
+
+	/**
+	 * @param shards     redis shards holding the documents
+	 * @param prefix     key prefix of documents
+	 * @param fields     fields whose values are completed
+	 * @param maxResults maximum number of completions returned for a prefix
+	 * @param persistKey key of a redis suggestion dictionary to also add values to, or null to keep them in-process only
+	 * @param maxBytes   largest size the table of document value hashes may grow to
+	 */
+	public Suggester(Shards shards, String prefix, List<String> fields, int maxResults, String persistKey, long maxBytes) {
+		this.shards = shards;
+		this.prefix = prefix;
+		this.fields = fields;
+		this.maxResults = maxResults;
+		this.persistKey = persistKey;
+		this.documents = new Fingerprints(maxBytes);
+		this.updater = Thread.ofPlatform().name("suggest-update").daemon().start(this::run);
+	}
+
+	/**
+	 * Queue completions to be updated from a document written to Redis.
+	 * Each changed value of a completed field replaces the document's
+	 * previous value, while fields which were not written, or are
+	 * unchanged, are left as they are.
+	 * <p>
+	 * Only blocks if the queue of documents waiting to be applied is full.
+	 *
+	 * @param key  key of the document
+	 * @param hash fields written to the document
+	 */
+	public void written(String key, Map<String, String> hash) {
+		String[] written = null;
+		for (int i = 0; i < fields.size(); i++) {
+			final String value = hash.get(fields.get(i));
+			if (value == null) continue;
+			if (written == null) written = new String[fields.size()];
+			written[i] = value;
+		}
+		if (written != null) queue(new Update(key, written, false, null));
+	}
+
+	/**
+	 * Add to the weight of a value, adding the value if it is not yet known.
+	 *
+	 * @param text   value to add
+	 * @param weight amount to add to the value's weight
+	 * @return false if the value is empty or too long to be completed, and was not added
+	 */
+	public synchronized boolean add(String text, double weight) {
+		final String key = normalise(text).stripTrailing();
+		if (key.isEmpty() || key.length() > MAX_LENGTH) return false;
+
+		root = add(root, key, text.strip(), weight);
+		return true;
+	}
+
+	/**
+	 * Find completions of a prefix.
+	 *
+	 * @param text  prefix typed so far
+	 * @param limit maximum number of completions
+	 * @return completions, highest weighted first
+	 */
+	public List<String> suggest(String text, int limit) {
+		final Node node = find(root, normalise(text), false);
+		if (node == null) return List.of();
+
+		final int count = Math.min(Math.min(limit, maxResults), node.top.length);
+		final List<String> found = new ArrayList<>(Math.max(0, count));
+		for (int i = 0; i < count; i++) found.add(node.top[i].text);
+		return found;
+	}
+
+	/**
+	 * Add the values of all documents already in Redis, scanning each shard
+	 * in turn. Completions are served while loading, but are incomplete
+	 * until it is done.
+	 */
+	public void load() {
+		if (fields.isEmpty()) return;
+
+		loading = true;
+		final long start = System.currentTimeMillis();
+		final String[] names = fields.toArray(String[]::new);
+		final ScanParams params = new ScanParams().match(prefix + "*").count(LOAD_BATCH);
+		int docs = 0;
+		try {
+			for (JedisPooled client : shards.clients()) {
+				String cursor = ScanParams.SCAN_POINTER_START;
+				do {
+					if (!running) return;
+					final ScanResult<String> page = client.scan(cursor, params, "hash");
+					try (AbstractPipeline pipeline = client.pipelined()) {
+						final List<Response<List<String>>> replies = page.getResult().stream().map(k -> pipeline.hmget(k, names)).toList();
+						pipeline.sync();
+						for (int i = 0; i < replies.size(); i++) loaded(page.getResult().get(i), replies.get(i).get());
+					}
+					docs += page.getResult().size();
+					cursor = page.getCursor();
+				} while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+			}
+			sync();
+			logger.info("Loaded {} suggestions from {} documents in {}ms", terms, docs, System.currentTimeMillis() - start);
+		} catch (JedisException e) {
+			logger.error("Failed to load suggestions, after {} documents", docs, e);
+		} finally {
+			loading = false;
+		}
+	}
+
+	private void loaded(String key, List<String> values) {
+		if (values.stream().allMatch(Objects::isNull)) return;
+		queue(new Update(key, values.toArray(String[]::new), true, null));
+	}
+
+	/**
+	 * Wait for all documents queued so far to be applied to the index.
+	 */
+	void sync() {
+		final CompletableFuture<Void> applied = new CompletableFuture<>();
+		if (queue(new Update(null, null, false, applied))) applied.join();
+	}
+
+	/**
+	 * @return false if closed, and the update was not queued
+	 */
+	private boolean queue(Update update) {
+		closing.readLock().lock();
+		try {
+			if (!running) return false;
+			updates.put(update);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while queueing suggestions from {}", update.key);
+			return false;
+		} finally {
+			closing.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Stop loading, apply any queued documents, and write any outstanding
+	 * changes to the Redis suggestion dictionary.
+	 */
+	@Override
+	public void close() {
+		closing.writeLock().lock();
+		try {
+			running = false;
+		} finally {
+			closing.writeLock().unlock();
+		}
+
+		updater.interrupt();
+		try {
+			updater.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		final List<Update> remaining = new ArrayList<>();
+		updates.drainTo(remaining);
+		apply(remaining);
+		if (persistKey != null) flush();
+	}
+
+	public Stats stats() {
+		return new Stats(terms, loading, pending.size(), updates.size(), documents.stats().bytes());
+	}
+
+	private void run() {
+		final List<Update> batch = new ArrayList<>(UPDATE_BATCH);
+		long lastFlush = System.nanoTime();
+		while (running) {
+			try {
+				final Update first = updates.poll(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					updates.drainTo(batch, UPDATE_BATCH - 1);
+					apply(batch);
+					batch.clear();
+				}
+			} catch (InterruptedException e) {
+				// closing, remaining documents are applied and the final flush follows
+				return;
+			}
+
+			if (persistKey != null && System.nanoTime() - lastFlush >= TimeUnit.MILLISECONDS.toNanos(FLUSH_MILLIS)) {
+				flush();
+				lastFlush = System.nanoTime();
+			}
+		}
+	}
+
+	/**
+	 * Apply a batch of documents to the index. The changes in weight of all
+	 * the values in the batch are gathered first, so each changed value is
+	 * updated in the trie once, and the new root is published once.
+	 */
+	private synchronized void apply(List<Update> batch) {
+		final Map<String, Double> weights = new HashMap<>();
+		final Map<String, String> texts = new HashMap<>();
+		final List<CompletableFuture<Void>> applied = new ArrayList<>();
+		for (Update update : batch) {
+			if (update.applied != null) {
+				applied.add(update.applied);
+				continue;
+			}
+			// written since loading started, so already known with its current values
+			if (update.loaded && known(update.key)) continue;
+
+			for (int i = 0; i < fields.size(); i++) {
+				final String value = update.values[i];
+				if (value == null) continue;
+
+				final String key = normalise(value).stripTrailing();
+				final long hash = hash(key);
+				final long previous = documents.get(update.key, fields.get(i));
+				if (previous == hash) continue;
+
+				if (previous != 0 && values.containsKey(previous)) weights.merge(values.get(previous), -1d, Double::sum);
+				if (!key.isEmpty() && key.length() <= MAX_LENGTH) {
+					weights.merge(key, 1d, Double::sum);
+					texts.putIfAbsent(key, value.strip());
+					values.put(hash, key);
+				}
+				documents.put(update.key, fields.get(i), hash);
+			}
+		}
+
+		Node next = root;
+		for (Map.Entry<String, Double> change : weights.entrySet()) {
+			final String key = change.getKey();
+			final double weight = change.getValue();
+			final Node existing = find(next, key, true);
+			final String text = existing != null && existing.term != null ? existing.term.text : texts.get(key);
+
+			if (weight > 0) next = add(next, key, text, weight);
+			else if (weight < 0) next = discount(next, key, -weight);
+
+			final Node held = find(next, key, true);
+			if (held == null || held.term == null) values.remove(hash(key));
+			if (persistKey != null && weight != 0 && text != null) pending.merge(text, weight, Double::sum);
+		}
+		root = next;
+
+		applied.forEach(f -> f.complete(null));
+	}
+
+	/**
+	 * @return whether values are held for any completed field of a document
+	 */
+	private boolean known(String key) {
+		for (String field : fields) {
+			if (documents.get(key, field) != 0) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Add to the weight of a value, adding the value if it is not yet known.
+	 *
+	 * @return the new root
+	 */
+	private Node add(Node root, String key, String text, double weight) {
+		final Node existing = find(root, key, true);
+		final boolean added = existing == null || existing.term == null;
+		final Suggestion term = added
+			? new Suggestion(text, key, weight)
+			: new Suggestion(existing.term.text, key, existing.term.weight + weight);
+		if (added) terms++;
+		return insert(root, key, 0, term);
+	}
+
+	/**
+	 * Take from the weight of a value, removing the value once nothing is
+	 * left of its weight.
+	 *
+	 * @return the new root
+	 */
+	private Node discount(Node root, String key, double weight) {
+		final Node existing = find(root, key, true);
+		if (existing == null || existing.term == null) return root;
+
+		final double remaining = existing.term.weight - weight;
+		final Suggestion term = remaining > 0 ? new Suggestion(existing.term.text, key, remaining) : null;
+		if (term == null) terms--;
+		return Objects.requireNonNullElse(replace(root, key, 0, term), EMPTY);
+	}
+
+	private void flush() {
+		if (pending.isEmpty()) return;
+
+		final Map<String, Double> batch = new HashMap<>();
+		for (String text : pending.keySet()) {
+			final Double weight = pending.remove(text);
+			if (weight != null) batch.put(text, weight);
+		}
+
+		try (AbstractPipeline pipeline = shards.forKey(persistKey).pipelined()) {
+			batch.forEach((text, weight) -> {
+				final Node node = find(root, normalise(text).stripTrailing(), true);
+				// no document holds the value any longer
+				if (node == null || node.term == null) pipeline.ftSugDel(persistKey, text);
+				else if (weight != 0) pipeline.ftSugAddIncr(persistKey, text, weight);
+			});
+			pipeline.sync();
+		} catch (JedisException e) {
+			// keep the increments to try again on the next flush
+			batch.forEach((text, weight) -> pending.merge(text, weight, Double::sum));
+			logger.warn("Failed to write {} suggestions to {}", batch.size(), persistKey, e);
+		}
+	}
+
+	private static long hash(String key) {
+		// zero marks a field without a value
+		final long hash = MurmurHash.hash64(key);
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * Lower-case text and collapse runs of whitespace to a single space,
+	 * dropping leading whitespace. Trailing whitespace is kept, so that a
+	 * prefix ending in a space only completes following words.
+	 */
+	static String normalise(String text) {
+		final String lower = text.toLowerCase(Locale.ROOT);
+		final StringBuilder sb = new StringBuilder(lower.length());
+		boolean space = false;
+		for (int i = 0; i < lower.length(); i++) {
+			final char c = lower.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = !sb.isEmpty();
+			} else {
+				if (space) sb.append(' ');
+				sb.append(c);
+				space = false;
+			}
+		}
+		if (space) sb.append(' ');
+		return sb.toString();
+	}
+
+	/**
+	 * Find the node holding completions of a prefix, or if exact, the node
+	 * of the value itself.
+	 */
+	private static Node find(Node node, String key, boolean exact) {
+		int pos = 0;
+		while (pos < key.length()) {
+			final int i = child(node.children, key.charAt(pos));
+			if (i < 0) return null;
+
+			final Node child = node.children[i];
+			final int common = common(child.label, key, pos);
+			// the prefix ends within this node's label, so everything beneath it completes the prefix
+			if (pos + common == key.length()) return !exact || common == child.label.length() ? child : null;
+			if (common < child.label.length()) return null;
+
+			node = child;
+			pos += common;
+		}
+		return node;
+	}
+
+	/**
+	 * Copy the path to a value, updating its term and the completions held
+	 * by each node along the way.
+	 */
+	private Node insert(Node node, String key, int pos, Suggestion term) {
+		final Suggestion[] top = ranked(node.top, term);
+		if (pos == key.length()) return new Node(node.label, node.children, top, term);
+
+		final int i = child(node.children, key.charAt(pos));
+		if (i < 0) {
+			final Node leaf = new Node(key.substring(pos), EMPTY.children, new Suggestion[] { term }, term);
+			final Node[] children = new Node[node.children.length + 1];
+			final int at = -(i + 1);
+			System.arraycopy(node.children, 0, children, 0, at);
+			children[at] = leaf;
+			System.arraycopy(node.children, at, children, at + 1, node.children.length - at);
+			return new Node(node.label, children, top, node.term);
+		}
+
+		final Node child = node.children[i];
+		final int common = common(child.label, key, pos);
+		final Node next;
+		if (common == child.label.length()) {
+			next = insert(child, key, pos + common, term);
+		} else {
+			// the value diverges part way through the child's label, so split it where they differ
+			final Node lower = new Node(child.label.substring(common), child.children, child.top, child.term);
+			final Node split = new Node(child.label.substring(0, common), new Node[] { lower }, child.top, null);
+			next = insert(split, key, pos + common, term);
+		}
+		final Node[] children = node.children.clone();
+		children[i] = next;
+		return new Node(node.label, children, top, node.term);
+	}
+
+	/**
+	 * Copy the path to a value whose weight has been reduced, or which has
+	 * been removed if the term is null. The completions of each node along
+	 * the way are gathered again, as values beneath it which were not among
+	 * them may now outrank the value.
+	 *
+	 * @return the copied node, or null if it no longer holds any value
+	 */
+	private Node replace(Node node, String key, int pos, Suggestion term) {
+		if (pos == key.length()) return gather(node.label, node.children, term);
+
+		final int i = child(node.children, key.charAt(pos));
+		final Node child = node.children[i];
+		final Node next = replace(child, key, pos + child.label.length(), term);
+		final Node[] children;
+		if (next == null) {
+			children = new Node[node.children.length - 1];
+			System.arraycopy(node.children, 0, children, 0, i);
+			System.arraycopy(node.children, i + 1, children, i, children.length - i);
+		} else {
+			children = node.children.clone();
+			children[i] = next;
+		}
+		return gather(node.label, children, node.term);
+	}
+
+	/**
+	 * Create a node whose completions are the highest weighted of its own
+	 * value and those of its children.
+	 *
+	 * @return the node, or null if it has neither a value nor children
+	 */
+	private Node gather(String label, Node[] children, Suggestion term) {
+		if (term == null && children.length == 0) return null;
+
+		final List<Suggestion> top = new ArrayList<>();
+		if (term != null) top.add(term);
+		for (Node child : children) top.addAll(Arrays.asList(child.top));
+		top.sort(Comparator.comparingDouble(Suggestion::weight).reversed());
+		return new Node(label, children, top.subList(0, Math.min(maxResults, top.size())).toArray(Suggestion[]::new), term);
+	}
+
+	/**
+	 * Place a term whose weight has increased among a node's completions.
+	 * As its weight only increased, the term is never displaced by one
+	 * outside the completions.
+	 */
+	private Suggestion[] ranked(Suggestion[] top, Suggestion term) {
+		final List<Suggestion> ranked = new ArrayList<>(top.length + 1);
+		boolean placed = false;
+		for (Suggestion s : top) {
+			if (s.key.equals(term.key)) continue;
+			if (!placed && term.weight > s.weight) {
+				ranked.add(term);
+				placed = true;
+			}
+			ranked.add(s);
+		}
+		if (!placed) {
+			if (ranked.size() >= maxResults) return top;
+			ranked.add(term);
+		}
+		return ranked.subList(0, Math.min(maxResults, ranked.size())).toArray(Suggestion[]::new);
+	}
+
+	private static int child(Node[] children, char c) {
+		int low = 0;
+		int high = children.length - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final char first = children[mid].label.charAt(0);
+			if (first < c) low = mid + 1;
+			else if (first > c) high = mid - 1;
+			else return mid;
+		}
+		return -(low + 1);
+	}
+
+	private static int common(String label, String key, int pos) {
+		final int max = Math.min(label.length(), key.length() - pos);
+		int i = 0;
+		while (i < max && label.charAt(i) == key.charAt(pos + i)) i++;
+		return i;
+	}
+
+	/**
+	 * @param label    characters leading to this node from its parent
+	 * @param children child nodes, ordered by the first character of their labels
+	 * @param top      highest weighted values at or beneath this node
+	 * @param term     the value ending at this node, if any
+	 */
+	private record Node(String label, Node[] children, Suggestion[] top, Suggestion term) {}
+
+	private record Suggestion(String text, String key, double weight) {}
+
+	/**
+	 * A document to apply to the index, or if {@code applied} is set, a
+	 * marker completed once all documents queued before it are applied.
+	 *
+	 * @param key     key of the document
+	 * @param values  values of each completed field, null for those not written
+	 * @param loaded  loaded from Redis, rather than written, so ignored if the document is already known
+	 * @param applied completed once applied
+	 */
+	private record Update(String key, String[] values, boolean loaded, CompletableFuture<Void> applied) {}
+
+	/**
+	 * @param terms   number of distinct values held
+	 * @param loading whether existing documents are still being loaded
+	 * @param pending values with additions not yet written to the Redis suggestion dictionary
+	 * @param queued  written documents not yet applied
+	 * @param bytes   size of the table of document value hashes
+	 */
+	public record Stats(int terms, boolean loading, int pending, int queued, long bytes) {}
+}
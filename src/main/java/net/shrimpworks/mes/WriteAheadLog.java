@@ -0,0 +1,443 @@
+package net.shrimpworks.mes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.AbstractPipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * An append-only log of documents on local disk, which are written to
+ * Redis in the background.
+ * <p>
+ * Documents are appended to fixed-size, memory-mapped segment files, so an
+ * append is a copy into memory and completes without waiting on Redis or
+ * the disk. Once an append returns, the document survives the process
+ * exiting or crashing; the operating system writes it to disk, and the
+ * active segment is also forced to disk periodically.
+ * <p>
+ * A single replayer thread reads the log in order and writes documents to
+ * Redis in pipelined chunks. After each chunk is acknowledged, its position
+ * is checkpointed, and segments which have been fully replayed are deleted.
+ * If Redis is unavailable, the replayer retries the same chunk until it
+ * succeeds, so documents accumulate in the log rather than being lost. When
+ * the log is opened, replay resumes from the last checkpoint, so documents
+ * may be written more than once, which is harmless for HSET.
+ * <p>
+ * Each record is stored as its length, a CRC32C checksum, and the document
+ * as JSON. A length of {@code -1} marks the rest of a segment as unused,
+ * where the next record did not fit. A record with an invalid checksum, such
+ * as one partially written when the host lost power, ends its segment.
+ * <p>
+ * Positions in the log depend on the segment size, so the checkpoint also
+ * records the size the log was written with, and an existing log keeps
+ * that size until it has been completely replayed. A changed segment size
+ * takes effect once the log is opened with no documents left to replay.
+ */
+public class WriteAheadLog implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".wal";
+	private static final String CHECKPOINT = "checkpoint";
+
+	private static final int HEADER_BYTES = 8;
+	private static final int SKIP = -1;
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final Shards shards;
+	private final String prefix;
+	private final int chunkSize;
+	private final Main.WalConfig config;
+	private final Fingerprints fingerprints;
+	private final Suggester suggester;
+	private final Metrics metrics;
+	private final Runnable onWrite;
+
+	private final Path directory;
+	// size of segments in the existing log, which may differ from that configured, set once when opened
+	private long segmentBytes;
+	private final Map<Long, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+
+	// position the next record will be appended at, guarded by this
+	private long head;
+	// position up to which records have been completely appended, and may be replayed
+	private volatile long written;
+	// position up to which records have been written to redis
+	private volatile long checkpoint;
+
+	private final AtomicLong pending = new AtomicLong();
+	private final LongAdder appended = new LongAdder();
+	private final LongAdder replayed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+
+	private final Thread replayer;
+	private volatile boolean running = true;
+
+	/**
+	 * Open the log, creating it if it does not exist, and start replaying
+	 * any documents not yet written to Redis.
+	 */
+	public WriteAheadLog(Shards shards, String prefix, Main.IngestConfig ingest, Main.WalConfig config, Fingerprints fingerprints,
+						 Suggester suggester, Metrics metrics, Runnable onWrite) throws IOException {
+		this.shards = shards;
+		this.prefix = prefix;
+		this.chunkSize = ingest.chunkSize();
+		this.config = config;
+		this.fingerprints = fingerprints;
+		this.suggester = suggester;
+		this.metrics = metrics;
+		this.onWrite = onWrite;
+		this.directory = Files.createDirectories(Path.of(config.path()));
+
+		recover();
+		logger.info("Opened write-ahead log in {}, with {} documents to replay", directory, pending.get());
+
+		this.replayer = Thread.ofPlatform().name("wal-replayer").daemon().start(this::replay);
+	}
+
+	/**
+	 * Append a document to the log.
+	 *
+	 * @param doc document to append
+	 * @throws IllegalArgumentException if the document is too large for a log segment
+	 * @throws IOException              if the log is closed, or a new segment could not be created
+	 */
+	public void append(API.AddDocument doc) throws IOException {
+		final byte[] record = JacksonMapper.JSON.bytes(doc);
+		if (HEADER_BYTES + record.length > segmentBytes) {
+			throw new IllegalArgumentException("Document is larger than the write-ahead log segment size");
+		}
+
+		final CRC32C crc = new CRC32C();
+		crc.update(record);
+
+		synchronized (this) {
+			if (!running) throw new IOException("Write-ahead log is closed");
+
+			long offset = head % segmentBytes;
+			if (offset + HEADER_BYTES + record.length > segmentBytes) {
+				// does not fit in the current segment, so mark the remainder unused and start the next one
+				if (offset + 4 <= segmentBytes) segment(head).putInt((int)offset, SKIP);
+				head += segmentBytes - offset;
+				offset = 0;
+			}
+
+			// the body is written before the header, so a reader never sees a length with no record behind it
+			final MappedByteBuffer segment = segment(head);
+			segment.put((int)offset + HEADER_BYTES, record);
+			segment.putInt((int)offset + 4, (int)crc.getValue());
+			segment.putInt((int)offset, record.length);
+
+			head += HEADER_BYTES + record.length;
+			written = head;
+		}
+
+		pending.incrementAndGet();
+		appended.increment();
+		LockSupport.unpark(replayer);
+	}
+
+	/**
+	 * Stop accepting documents and stop replaying. Any documents not yet
+	 * written to Redis remain in the log, and are replayed when it is next
+	 * opened.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			running = false;
+		}
+		LockSupport.unpark(replayer);
+		try {
+			replayer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		segments.values().forEach(MappedByteBuffer::force);
+		logger.info("Closed write-ahead log with {} documents still to replay", pending.get());
+	}
+
+	public Stats stats() {
+		return new Stats(pending.get(), written - checkpoint, segments.size(), appended.sum(), replayed.sum(), failed.sum());
+	}
+
+	private void replay() {
+		final List<API.AddDocument> docs = new ArrayList<>(chunkSize);
+		long lastForce = System.nanoTime();
+		boolean failing = false;
+
+		while (running) {
+			// read the next chunk of documents, which are only consumed once written and checkpointed
+			final Chunk chunk = read(checkpoint, docs);
+
+			if (chunk.end == checkpoint) {
+				LockSupport.parkNanos(IDLE_NANOS);
+			} else {
+				try {
+					if (!docs.isEmpty()) write(docs);
+					checkpoint(chunk.end);
+					pending.addAndGet(-(docs.size() + chunk.unreadable));
+					failed.add(chunk.unreadable);
+					if (failing) logger.info("Write-ahead log replay resumed");
+					failing = false;
+				} catch (JedisException e) {
+					if (!failing) logger.warn("Write-ahead log replay failed, retrying every {}ms", config.retryMillis(), e);
+					failing = true;
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(config.retryMillis()));
+				} catch (IOException e) {
+					logger.error("Failed to checkpoint write-ahead log", e);
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(config.retryMillis()));
+				}
+				docs.clear();
+			}
+
+			if (System.nanoTime() - lastForce > TimeUnit.MILLISECONDS.toNanos(config.retryMillis())) {
+				final MappedByteBuffer active = segments.get(written / segmentBytes);
+				if (active != null) active.force();
+				lastForce = System.nanoTime();
+			}
+		}
+	}
+
+	/**
+	 * Read up to a chunk of documents from the log.
+	 *
+	 * @param from position to read from
+	 * @param docs list to add documents to
+	 * @return position following the last record read, and the number of unreadable records skipped
+	 */
+	private Chunk read(long from, List<API.AddDocument> docs) {
+		final long limit = written;
+		long pos = from;
+		int unreadable = 0;
+		while (pos < limit && docs.size() < chunkSize) {
+			final MappedByteBuffer segment = segments.get(pos / segmentBytes);
+			final int offset = (int)(pos % segmentBytes);
+			final int length = offset + HEADER_BYTES <= segmentBytes ? segment.getInt(offset) : SKIP;
+			if (length <= 0 || offset + HEADER_BYTES + length > segmentBytes) {
+				// unused remainder of the segment
+				pos += segmentBytes - offset;
+				continue;
+			}
+
+			final byte[] record = new byte[length];
+			segment.get(offset + HEADER_BYTES, record);
+			pos += HEADER_BYTES + length;
+
+			try {
+				if (crc(record) != segment.getInt(offset + 4)) throw new IOException("Checksum mismatch");
+				docs.add(JacksonMapper.JSON.object(record, API.AddDocument.class));
+			} catch (IOException e) {
+				logger.error("Skipping unreadable write-ahead log record at position {}", pos - HEADER_BYTES - length, e);
+				unreadable++;
+			}
+		}
+		return new Chunk(pos, unreadable);
+	}
+
+	private void write(List<API.AddDocument> docs) {
+		final AbstractPipeline[] pipelines = new AbstractPipeline[shards.size()];
+		final List<String> keys = new ArrayList<>(docs.size());
+		final List<Map<String, String>> hashes = new ArrayList<>(docs.size());
+		final List<Response<Long>> responses = new ArrayList<>(docs.size());
+		final long start = System.nanoTime();
+		try {
+			for (API.AddDocument doc : docs) {
+				final String key = prefix + doc.id();
+				final Map<String, String> hash = fingerprints == null ? doc.toHash() : fingerprints.changed(key, doc.toHash());
+				if (hash.isEmpty()) {
+					replayed.increment();
+					continue;
+				}
+
+				final int shard = shards.shard(key);
+				if (pipelines[shard] == null) pipelines[shard] = shards.client(shard).pipelined();
+				keys.add(key);
+				hashes.add(hash);
+				responses.add(pipelines[shard].hset(key, hash));
+			}
+			for (AbstractPipeline pipeline : pipelines) {
+				if (pipeline != null) pipeline.sync();
+			}
+		} finally {
+			for (AbstractPipeline pipeline : pipelines) {
+				try {
+					if (pipeline != null) pipeline.close();
+				} catch (JedisException ignored) {
+					// the connection is released regardless
+				}
+			}
+			metrics.ingestRedis.record(System.nanoTime() - start);
+		}
+		if (!responses.isEmpty()) onWrite.run();
+
+		for (int i = 0; i < responses.size(); i++) {
+			try {
+				responses.get(i).get();
+				replayed.increment();
+				if (fingerprints != null) fingerprints.written(keys.get(i), hashes.get(i));
+				if (suggester != null) suggester.written(keys.get(i), hashes.get(i));
+			} catch (JedisDataException e) {
+				// rejected by redis, so will never succeed
+				logger.error("Failed to write document {} from write-ahead log: {}", keys.get(i).substring(prefix.length()), e.getMessage());
+				failed.increment();
+			}
+		}
+	}
+
+	private void checkpoint(long position) throws IOException {
+		final Path tmp = directory.resolve(CHECKPOINT + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+													StandardOpenOption.TRUNCATE_EXISTING)) {
+			channel.write(ByteBuffer.allocate(Long.BYTES * 2).putLong(position).putLong(segmentBytes).flip());
+			channel.force(true);
+		}
+		Files.move(tmp, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		checkpoint = position;
+
+		// segments entirely before the checkpoint are no longer needed
+		final long current = position / segmentBytes;
+		for (Long index : List.copyOf(segments.keySet())) {
+			if (index >= current) break;
+			segments.remove(index);
+			Files.deleteIfExists(segmentPath(index));
+		}
+	}
+
+	/**
+	 * Find the checkpoint, segment size and the end of the log, and count the
+	 * documents between the checkpoint and the end.
+	 */
+	private void recover() throws IOException {
+		final List<Long> existing = new ArrayList<>();
+		try (Stream<Path> files = Files.list(directory)) {
+			files.map(f -> f.getFileName().toString())
+				 .filter(f -> f.startsWith(SEGMENT_PREFIX) && f.endsWith(SEGMENT_SUFFIX))
+				 .map(f -> Long.parseLong(f.substring(SEGMENT_PREFIX.length(), f.length() - SEGMENT_SUFFIX.length())))
+				 .sorted()
+				 .forEach(existing::add);
+		}
+
+		final Path checkpointPath = directory.resolve(CHECKPOINT);
+		long from = 0;
+		segmentBytes = config.segmentBytes();
+		if (Files.exists(checkpointPath)) {
+			final ByteBuffer stored = ByteBuffer.wrap(Files.readAllBytes(checkpointPath));
+			from = stored.getLong();
+			// checkpoints written before the segment size was recorded leave it to be found from the segments
+			if (stored.remaining() >= Long.BYTES) segmentBytes = stored.getLong();
+			else if (!existing.isEmpty()) segmentBytes = Files.size(segmentPath(existing.getFirst()));
+		} else if (!existing.isEmpty()) {
+			// segments are created at their full size, so one written before any checkpoint gives the size
+			segmentBytes = Files.size(segmentPath(existing.getFirst()));
+		}
+
+		long end = from;
+		for (long index : existing) {
+			if (index < from / segmentBytes) {
+				Files.deleteIfExists(segmentPath(index));
+				continue;
+			}
+
+			final MappedByteBuffer segment = map(index);
+			int offset = index == from / segmentBytes ? (int)(from % segmentBytes) : 0;
+			while (offset + HEADER_BYTES <= segmentBytes) {
+				final int length = segment.getInt(offset);
+				if (length <= 0 || offset + HEADER_BYTES + length > segmentBytes) break;
+				final byte[] record = new byte[length];
+				segment.get(offset + HEADER_BYTES, record);
+				if (crc(record) != segment.getInt(offset + 4)) {
+					logger.warn("Write-ahead log segment {} ends with an incomplete record at offset {}", index, offset);
+					break;
+				}
+				offset += HEADER_BYTES + length;
+				pending.incrementAndGet();
+			}
+			end = (index * segmentBytes) + offset;
+		}
+
+		if (segmentBytes != config.segmentBytes()) {
+			if (pending.get() == 0) {
+				// nothing left to replay, so the log starts again with the configured size
+				logger.info("Changing write-ahead log segment size from {} to {} bytes", segmentBytes, config.segmentBytes());
+				for (Long index : List.copyOf(segments.keySet())) {
+					segments.remove(index);
+					Files.deleteIfExists(segmentPath(index));
+				}
+				segmentBytes = config.segmentBytes();
+				from = 0;
+				end = 0;
+			} else {
+				logger.warn("Write-ahead log segments are {} bytes rather than the configured {}, which takes effect once the log "
+							+ "is opened with nothing left to replay", segmentBytes, config.segmentBytes());
+			}
+		}
+
+		this.head = end;
+		this.written = end;
+		// record the segment size in use before anything is appended
+		checkpoint(from);
+	}
+
+	private MappedByteBuffer segment(long position) throws IOException {
+		final long index = position / segmentBytes;
+		MappedByteBuffer segment = segments.get(index);
+		if (segment == null) segment = map(index);
+		return segment;
+	}
+
+	private MappedByteBuffer map(long index) throws IOException {
+		try (FileChannel channel = FileChannel.open(segmentPath(index), StandardOpenOption.CREATE, StandardOpenOption.READ,
+													StandardOpenOption.WRITE)) {
+			// the mapping remains valid after the channel is closed
+			final MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+			segments.put(index, segment);
+			return segment;
+		}
+	}
+
+	private Path segmentPath(long index) {
+		return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+	}
+
+	private static int crc(byte[] record) {
+		final CRC32C crc = new CRC32C();
+		crc.update(record);
+		return (int)crc.getValue();
+	}
+
+	private record Chunk(long end, int unreadable) {}
+
+	/**
+	 * @param pending      documents in the log not yet written to redis
+	 * @param pendingBytes size of the log not yet written to redis
+	 * @param segments     number of log segment files
+	 * @param appended     documents appended since startup
+	 * @param replayed     documents written to redis since startup
+	 * @param failed       documents which could not be written, and were discarded
+	 */
+	public record Stats(long pending, long pendingBytes, int segments, long appended, long replayed, long failed) {}
+}
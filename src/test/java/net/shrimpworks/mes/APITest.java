@@ -0,0 +1,204 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class APITest {
+
+	private static final HttpClient HTTP = HttpClient.newHttpClient();
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void bulkLoggedInOrder() throws Exception {
+		// a redis which has gone away, so documents wait in the write-ahead log
+		FakeRedis gone = new FakeRedis();
+		String goneHost = gone.host();
+		gone.close();
+
+		Main.Config config = config(goneHost, "wal: { enabled: true, path: \"" + dir + "\" }");
+		try (Shards shards = new Shards(List.of(new JedisPooled(HostAndPort.from(goneHost))), List.of());
+			 API api = new API(config, shards)) {
+			HttpResponse<String> res = post(config, "/index/addBatch", "application/json", "{\"docs\": [{\"id\": \"1\", \"fields\": {\"title\": \"Old\"}}]}");
+			assertEquals(202, res.statusCode());
+			assertEquals("1", res.body());
+
+			// a newer value of the same document, which must not be replaced by the older logged value
+			res = post(config, "/index/bulk", "application/x-ndjson", """
+				{"id": "1", "fields": {"title": "New"}}
+				not json
+				{"id": "3"}
+				{"id": "2", "fields": {"title": "Other"}}
+				""");
+			assertEquals(202, res.statusCode());
+			API.BulkResult result = JacksonMapper.JSON.object(res.body().getBytes(), API.BulkResult.class);
+			assertEquals(new API.BulkResult(2, 0, 0, 1, 1, List.of(new BatchWriter.Failure("3", "Document requires an id and fields"))),
+						 result);
+		}
+
+		// once redis is available, the log is replayed in the order documents were received
+		try (FakeRedis redis = new FakeRedis();
+			 Shards shards = new Shards(List.of(new JedisPooled(HostAndPort.from(redis.host()))), List.of());
+			 API api = new API(config(redis.host(), "wal: { enabled: true, path: \"" + dir + "\" }"), shards)) {
+			JedisPooled client = shards.client(0);
+			for (int i = 0; i < 500 && client.hget("ex:2", "title") == null; i++) Thread.sleep(10);
+			assertEquals("Other", client.hget("ex:2", "title"));
+			assertEquals("New", client.hget("ex:1", "title"));
+		}
+	}
+
+	@Test
+	public void bulkCounts() throws Exception {
+		try (FakeRedis redis = new FakeRedis();
+			 Shards shards = new Shards(List.of(new JedisPooled(HostAndPort.from(redis.host()))), List.of())) {
+			Main.Config config = config(redis.host(), "");
+			try (API api = new API(config, shards)) {
+				// a document whose line is exactly as long as allowed, and one a character longer
+				String longest = "{\"id\": \"5\", \"fields\": {\"title\": \"%s\"}}";
+				String title = "x".repeat(API.MAX_BULK_LINE - longest.length() + 2);
+				HttpResponse<String> res = post(config, "/index/bulk", "application/x-ndjson", String.join("\n",
+					"{\"id\": \"1\", \"fields\": {\"title\": \"One\"}}",
+					"",
+					"not json",
+					longest.formatted(title + "x").replace("\"5\"", "\"2\""),
+					"{\"id\": \"3\"}",
+					"{\"id\": \"4\", \"fields\": {\"title\": \"Four\"}}\r",
+					longest.formatted(title)
+				));
+				assertEquals(200, res.statusCode());
+
+				// documents which fail are parsed, but not accepted, while blank lines are not counted at all
+				API.BulkResult result = JacksonMapper.JSON.object(res.body().getBytes(), API.BulkResult.class);
+				assertEquals(new API.BulkResult(3, 3, 0, 1, 2, List.of(new BatchWriter.Failure("3", "Document requires an id and fields"))),
+							 result);
+				JedisPooled client = shards.client(0);
+				assertEquals("One", client.hget("ex:1", "title"));
+				assertNull(client.hget("ex:2", "title"));
+				assertEquals("Four", client.hget("ex:4", "title"));
+				assertEquals(title, client.hget("ex:5", "title"));
+			}
+		}
+	}
+
+	@Test
+	public void addBatchInvalidDocuments() throws Exception {
+		try (FakeRedis redis = new FakeRedis();
+			 Shards shards = new Shards(List.of(new JedisPooled(HostAndPort.from(redis.host()))), List.of())) {
+			Main.Config config = config(redis.host(), "ingest: { chunkSize: 2 }");
+			try (API api = new API(config, shards)) {
+				// a document of the wrong shape fails, while those around it are still written
+				HttpResponse<String> res = post(config, "/index/addBatch?detail=true", "application/json", """
+					{ "docs": [
+					  { "id": "1", "fields": { "title": "One" } },
+					  { "id": "2", "fields": [ { "title": "Two" } ] },
+					  { "id": "3", "fields": { "title": "Three" } }
+					] }
+					""");
+				assertEquals(200, res.statusCode());
+				BatchWriter.Result result = JacksonMapper.JSON.object(res.body().getBytes(), BatchWriter.Result.class);
+				assertEquals(2, result.added());
+				assertEquals(1, result.failed().size());
+				assertNull(result.failed().getFirst().id());
+				JedisPooled client = shards.client(0);
+				assertEquals("Three", client.hget("ex:3", "title"));
+				assertNull(client.hget("ex:2", "title"));
+
+				// malformed json ends the batch, but documents read before it are written and counted
+				res = post(config, "/index/addBatch", "application/json", """
+					{ "docs": [
+					  { "id": "4", "fields": { "title": "Four" } },
+					  { "id": "5", "fields": { "title": "Five" } },
+					  { "id": "6", "fields": { "title": "Six" } },
+					  { "id": "7", "fields":
+					""");
+				assertEquals(400, res.statusCode());
+				assertEquals("3", res.body());
+				assertEquals("Six", client.hget("ex:6", "title"));
+			}
+		}
+	}
+
+	@Test
+	public void bulkWrittenWhileReading() throws Exception {
+		try (FakeRedis redis = new FakeRedis();
+			 Shards shards = new Shards(List.of(new JedisPooled(HostAndPort.from(redis.host()))), List.of())) {
+			Main.Config config = config(redis.host(), "ingest: { chunkSize: 2 }");
+			try (API api = new API(config, shards);
+				 Socket socket = new Socket(config.bindAddress().split(":")[0], Integer.parseInt(config.bindAddress().split(":")[1]))) {
+				// the request body is sent in chunks, with no length known up-front
+				OutputStream out = socket.getOutputStream();
+				out.write(("POST /index/bulk HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/x-ndjson\r\n"
+						   + "Authorization: " + config.submissionToken() + "\r\nTransfer-Encoding: chunked\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+				chunk(out, "{\"id\": \"1\", \"fields\": {\"title\": \"One\"}}\n{\"id\": \"2\", \"fields\": {\"title\": \"Two\"}}\n");
+
+				// a full chunk of documents is written to redis once read, while the rest of the request is still to come
+				JedisPooled client = shards.client(0);
+				for (int i = 0; i < 500 && client.hget("ex:2", "title") == null; i++) Thread.sleep(10);
+				assertEquals("One", client.hget("ex:1", "title"));
+				assertEquals("Two", client.hget("ex:2", "title"));
+
+				chunk(out, "{\"id\": \"3\", \"fields\": {\"title\": \"Three\"}}\n");
+				chunk(out, "");
+				String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+				assertTrue(response.startsWith("HTTP/1.1 200"));
+				assertEquals(new API.BulkResult(3, 3, 0, 0, 0, List.of()),
+							 JacksonMapper.JSON.object(response.substring(response.indexOf("\r\n\r\n") + 4), API.BulkResult.class));
+				assertEquals("Three", client.hget("ex:3", "title"));
+			}
+		}
+	}
+
+	static Main.Config config(String redisHost, String extra) throws IOException {
+		final int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		return JacksonMapper.YAML.object("""
+			index: example
+			prefix: "ex:"
+			redisHost: "%s"
+			bindAddress: "127.0.0.1:%d"
+			rootPath: ""
+			submissionToken: token
+			schema:
+			  fields:
+			    - { type: TEXT, name: title, sortable: true }
+			%s
+			""".formatted(redisHost, port, extra), Main.Config.class);
+	}
+
+	private static void chunk(OutputStream out, String data) throws IOException {
+		byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+		out.write((Integer.toHexString(bytes.length) + "\r\n").getBytes(StandardCharsets.UTF_8));
+		out.write(bytes);
+		out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+
+	static HttpResponse<String> post(Main.Config config, String path, String contentType, String body) throws Exception {
+		return HTTP.send(HttpRequest.newBuilder(URI.create("http://" + config.bindAddress() + path))
+									.header("Content-Type", contentType)
+									.header("Authorization", config.submissionToken())
+									.POST(HttpRequest.BodyPublishers.ofString(body))
+									.build(), HttpResponse.BodyHandlers.ofString());
+	}
+}
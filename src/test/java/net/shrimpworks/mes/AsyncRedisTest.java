@@ -0,0 +1,142 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.search.Query;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AsyncRedisTest {
+
+	@Test
+	public void concurrentSearches() throws IOException {
+		try (FakeRedis redis = new FakeRedis();
+			 JedisPooled client = new JedisPooled(HostAndPort.from(redis.host()));
+			 AsyncRedis async = new AsyncRedis(HostAndPort.from(redis.host()), 1, 5000)) {
+
+			for (int i = 0; i < 50; i++) {
+				client.hset("ex:" + i, Map.of("title", (i % 2 == 0 ? "Blue" : "Red") + " T-Shirt " + i, "price", Integer.toString(i)));
+			}
+
+			// many more in-flight searches than connections or threads
+			List<CompletableFuture<API.SearchResults>> searches = new ArrayList<>();
+			for (int i = 0; i < 1000; i++) {
+				searches.add(async.search("example", new Query("blue").limit(i % 20, 5).setWithScores(), i % 20, 5));
+			}
+
+			for (int i = 0; i < searches.size(); i++) {
+				API.SearchResults results = searches.get(i).join();
+				assertEquals(25, results.totalResults());
+				assertEquals(5, results.docs().size());
+				assertEquals(i % 20, results.offset());
+				assertEquals(1.0, results.docs().getFirst().getScore());
+				assertEquals("Blue", results.docs().getFirst().getString("title").substring(0, 4));
+			}
+		}
+	}
+
+	@Test
+	public void repliesLargerThanReadBuffer() throws IOException {
+		try (FakeRedis redis = new FakeRedis();
+			 JedisPooled client = new JedisPooled(HostAndPort.from(redis.host()));
+			 AsyncRedis async = new AsyncRedis(HostAndPort.from(redis.host()), 1, 5000)) {
+
+			String body = "shirt ".repeat(50_000);
+			client.hset("ex:1", Map.of("title", "Big Shirt", "body", body));
+
+			API.SearchResults results = async.search("example", new Query("big").setWithScores(), 0, 10).join();
+			assertEquals(1, results.docs().size());
+			assertEquals(body, results.docs().getFirst().getString("body"));
+		}
+	}
+
+	@Test
+	public void reconnectAfterTimeout() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress())) {
+			Thread.ofVirtual().start(() -> {
+				try (Socket stalled = server.accept();
+					 Socket socket = server.accept()) {
+					// the first connection never replies, the second replies to each command
+					InputStream in = socket.getInputStream();
+					for (int b; (b = in.read()) >= 0; ) {
+						if (b == '\n') socket.getOutputStream().write("+PONG\r\n".getBytes(StandardCharsets.US_ASCII));
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			});
+
+			try (AsyncRedis async = new AsyncRedis(new HostAndPort("127.0.0.1", server.getLocalPort()), 1, 200)) {
+				CompletableFuture<Object> first = async.send(new CommandArguments(Protocol.Command.PING));
+				CompletableFuture<Object> second = async.send(new CommandArguments(Protocol.Command.PING));
+				ExecutionException e = assertThrows(ExecutionException.class, first::get);
+				assertInstanceOf(TimeoutException.class, e.getCause());
+				// commands behind the one which timed out fail with it, as the connection is closed
+				assertThrows(ExecutionException.class, second::get);
+
+				assertEquals("PONG", async.send(new CommandArguments(Protocol.Command.PING)).get(5, TimeUnit.SECONDS));
+
+				// the read left pending on the closed connection fails, but must not close the new one
+				Thread.sleep(100);
+				for (int i = 0; i < 10; i++) {
+					assertEquals("PONG", async.send(new CommandArguments(Protocol.Command.PING)).get(5, TimeUnit.SECONDS));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void scanRepliesAsTheyArrive() {
+		String first = "*4\r\n:1\r\n*2\r\n$5\r\nhe\r\no\r\n$-1\r\n*0\r\n+OK\r\n";
+		String second = "-ERR unknown\r\n";
+		byte[] bytes = (first + second).getBytes(StandardCharsets.US_ASCII);
+
+		// bytes arrive one at a time, and neither reply is reported until all of it has arrived
+		AsyncRedis.Resp.Scanner scanner = new AsyncRedis.Resp.Scanner();
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		int received = 0;
+		while (received < first.length() - 1) {
+			buf.limit(++received);
+			assertEquals(-1, scanner.scan(buf));
+		}
+		buf.limit(++received);
+		assertEquals(first.length(), scanner.scan(buf));
+
+		List<?> reply = (List<?>)AsyncRedis.Resp.parse(buf);
+		assertEquals(1L, reply.getFirst());
+		assertArrayEquals("he\r\no".getBytes(StandardCharsets.US_ASCII), (byte[])((List<?>)reply.get(1)).getFirst());
+		assertNull(((List<?>)reply.get(1)).get(1));
+		assertEquals(List.of(), reply.get(2));
+		assertEquals("OK", reply.get(3));
+
+		while (received < bytes.length - 1) {
+			buf.limit(++received);
+			assertEquals(-1, scanner.scan(buf));
+		}
+		buf.limit(++received);
+		assertEquals(second.length(), scanner.scan(buf));
+		assertEquals("ERR unknown", ((Exception)AsyncRedis.Resp.parse(buf)).getMessage());
+	}
+}
@@ -0,0 +1,99 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchWriterTest {
+
+	@Test
+	public void chunkBoundaries() throws IOException {
+		try (FakeRedis redis = new FakeRedis();
+			 Shards shards = new Shards(List.of(new JedisPooled(HostAndPort.from(redis.host()))), List.of())) {
+			AtomicInteger flushes = new AtomicInteger();
+			Metrics metrics = new Metrics();
+			BatchWriter writer = new BatchWriter(shards, "ex:", new Main.IngestConfig(4, false, false, 0, 0, false, 0), null, null, metrics,
+												 flushes::incrementAndGet);
+			for (int i = 0; i < 10; i++) {
+				writer.add(doc(i));
+				// each full chunk has been acknowledged before add returns
+				if (i == 3 || i == 7) {
+					assertEquals(i == 3 ? 1 : 2, flushes.get());
+					assertEquals("Shirt " + i, shards.client(0).hget("ex:" + i, "title"));
+					assertEquals(0, metrics.ingestInFlight.get());
+				}
+			}
+			assertEquals(2, flushes.get());
+
+			BatchWriter.Result result = writer.finish();
+			assertEquals(3, flushes.get());
+			assertEquals(new BatchWriter.Result(10, 10, 0, List.of()), result);
+			for (int i = 0; i < 10; i++) assertEquals("Shirt " + i, shards.client(0).hget("ex:" + i, "title"));
+
+			// nothing is left to write, so finishing again does not flush
+			assertEquals(new BatchWriter.Result(10, 10, 0, List.of()), writer.finish());
+			assertEquals(3, flushes.get());
+		}
+	}
+
+	@Test
+	public void transactionFailures() throws IOException {
+		try (FakeRedis redis = new FakeRedis();
+			 Shards shards = new Shards(List.of(new JedisPooled(HostAndPort.from(redis.host()))), List.of())) {
+			BatchWriter writer = new BatchWriter(shards, "ex:", new Main.IngestConfig(3, true, false, 0, 0, false, 0), null, null, new Metrics(),
+												 () -> {});
+			// the first document of the transaction fails when executed, while the rest of the chunk is still applied
+			redis.failNext("HSET", "WRONGTYPE Operation against a key holding the wrong kind of value");
+			for (int i = 0; i < 5; i++) writer.add(doc(i));
+			writer.add(new API.AddDocument("6", null, 1));
+
+			BatchWriter.Result result = writer.finish();
+			assertEquals(4, result.written());
+			assertEquals(4, result.added());
+			assertEquals(List.of(new BatchWriter.Failure("0", "WRONGTYPE Operation against a key holding the wrong kind of value"),
+								 new BatchWriter.Failure("6", "Document requires an id and fields")), result.failed());
+			assertEquals(null, shards.client(0).hget("ex:0", "title"));
+			for (int i = 1; i < 5; i++) assertEquals("Shirt " + i, shards.client(0).hget("ex:" + i, "title"));
+		}
+	}
+
+	@Test
+	public void pipelineFailures() throws IOException {
+		try (FakeRedis redis = new FakeRedis();
+			 Shards shards = new Shards(List.of(new JedisPooled(HostAndPort.from(redis.host()))), List.of())) {
+			BatchWriter writer = new BatchWriter(shards, "ex:", new Main.IngestConfig(10, false, false, 0, 0, false, 0), null, null, new Metrics(),
+												 () -> {});
+			// invalid documents fail immediately, ahead of those failing once the chunk is written
+			redis.failNext("HSET", "OOM command not allowed when used memory > 'maxmemory'");
+			writer.add(doc(0));
+			writer.add(null);
+			writer.add(doc(1));
+			writer.add(doc(2));
+
+			BatchWriter.Result result = writer.finish();
+			assertEquals(2, result.written());
+			assertEquals(2, result.failed().size());
+			assertEquals(new BatchWriter.Failure(null, "Document requires an id and fields"), result.failed().getFirst());
+			assertEquals("0", result.failed().get(1).id());
+			assertTrue(result.failed().get(1).error().startsWith("OOM"));
+
+			// rewriting existing documents counts them as written, but not added
+			writer = new BatchWriter(shards, "ex:", new Main.IngestConfig(10, false, false, 0, 0, false, 0), null, null, new Metrics(), () -> {});
+			writer.add(doc(0));
+			writer.add(doc(1));
+			assertEquals(new BatchWriter.Result(1, 2, 0, List.of()), writer.finish());
+		}
+	}
+
+	private static API.AddDocument doc(int i) {
+		return new API.AddDocument(Integer.toString(i), Map.of("title", "Shirt " + i), 1);
+	}
+}
@@ -0,0 +1,123 @@
+package net.shrimpworks.mes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import io.undertow.Undertow;
+import io.undertow.server.handlers.encoding.EncodingHandler;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CachedResponseTest {
+
+	private static final HttpClient HTTP = HttpClient.newHttpClient();
+
+	private static final byte[] BODY = "{\"docs\": [%s]}".formatted("{\"id\": \"1\", \"title\": \"Blue Shirt\"}, ".repeat(100))
+												   .getBytes(StandardCharsets.UTF_8);
+
+	@Test
+	public void negotiateEncoding() throws Exception {
+		final int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+
+		// served the same way as the API, with each request sharing one response
+		CachedResponse response = CachedResponse.of(BODY, true);
+		Undertow server = Undertow.builder()
+								  .addHttpListener(port, "127.0.0.1")
+								  .setHandler(new EncodingHandler.Builder().build(null).wrap(response::send))
+								  .build();
+		server.start();
+		try {
+			URI uri = URI.create("http://127.0.0.1:" + port + "/");
+
+			// pre-encoded bodies are sent as-is, and not encoded again
+			HttpResponse<byte[]> res = get(uri, "gzip");
+			assertEquals("gzip", res.headers().firstValue("Content-Encoding").orElse(null));
+			assertTrue(res.headers().allValues("Vary").contains("Accept-Encoding"));
+			assertArrayEquals(BODY, new GZIPInputStream(new ByteArrayInputStream(res.body())).readAllBytes());
+
+			res = get(uri, "deflate");
+			assertEquals("deflate", res.headers().firstValue("Content-Encoding").orElse(null));
+			assertTrue(res.headers().allValues("Vary").contains("Accept-Encoding"));
+			assertArrayEquals(BODY, inflate(res.body()));
+
+			// the client's preference wins
+			res = get(uri, "gzip;q=0.5, deflate;q=1.0");
+			assertEquals("deflate", res.headers().firstValue("Content-Encoding").orElse(null));
+			assertArrayEquals(BODY, inflate(res.body()));
+
+			res = get(uri, "gzip;q=0, deflate");
+			assertEquals("deflate", res.headers().firstValue("Content-Encoding").orElse(null));
+			assertArrayEquals(BODY, inflate(res.body()));
+
+			// the plain body, when no encoding is acceptable, or none was asked for
+			assertPlain(get(uri, "identity"));
+			assertPlain(get(uri, "br"));
+			assertPlain(get(uri, null));
+
+			// later hits on the cached response are unaffected by earlier ones
+			res = get(uri, "gzip");
+			assertEquals("gzip", res.headers().firstValue("Content-Encoding").orElse(null));
+			assertTrue(res.headers().allValues("Vary").contains("Accept-Encoding"));
+			assertArrayEquals(BODY, new GZIPInputStream(new ByteArrayInputStream(res.body())).readAllBytes());
+			assertEquals(BODY.length, response.body().remaining());
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void encodeWhenNotPrecompressed() throws Exception {
+		final int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+
+		// without pre-encoded bodies, the encoding handler compresses the plain body
+		CachedResponse response = CachedResponse.of(BODY, false);
+		Undertow server = Undertow.builder()
+								  .addHttpListener(port, "127.0.0.1")
+								  .setHandler(new EncodingHandler.Builder().build(null).wrap(response::send))
+								  .build();
+		server.start();
+		try {
+			HttpResponse<byte[]> res = get(URI.create("http://127.0.0.1:" + port + "/"), "gzip");
+			assertEquals("gzip", res.headers().firstValue("Content-Encoding").orElse(null));
+			assertArrayEquals(BODY, new GZIPInputStream(new ByteArrayInputStream(res.body())).readAllBytes());
+		} finally {
+			server.stop();
+		}
+	}
+
+	private static void assertPlain(HttpResponse<byte[]> res) {
+		// undertow labels the plain body as identity when asked for it by name
+		assertTrue(res.headers().firstValue("Content-Encoding").orElse("identity").equals("identity"));
+		assertArrayEquals(BODY, res.body());
+	}
+
+	private static HttpResponse<byte[]> get(URI uri, String acceptEncoding) throws IOException, InterruptedException {
+		HttpRequest.Builder request = HttpRequest.newBuilder(uri).GET();
+		if (acceptEncoding != null) request.header("Accept-Encoding", acceptEncoding);
+		return HTTP.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+	}
+
+	private static byte[] inflate(byte[] data) throws IOException {
+		try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(data))) {
+			return in.readAllBytes();
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.search.Schema;
+import redis.clients.jedis.search.aggr.AggregationResult;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FacetsTest {
+
+	private static final Main.RediSearchSchema SCHEMA = new Main.RediSearchSchema(Set.of(
+		new Main.RediSearchField(Schema.FieldType.TEXT, "title", true, false, 5.0, false, null, true, false, false),
+		new Main.RediSearchField(Schema.FieldType.NUMERIC, "price", true, false, 1.0, false, null, true, false, false),
+		new Main.RediSearchField(Schema.FieldType.NUMERIC, "stock", false, false, 1.0, false, null, true, false, false),
+		new Main.RediSearchField(Schema.FieldType.TAG, "tags", false, false, 1.0, false, ",", true, false, false)
+	));
+
+	@Test
+	public void countAcrossShards() throws IOException {
+		List<FakeRedis> redis = new ArrayList<>();
+		List<JedisPooled> clients = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			redis.add(new FakeRedis());
+			clients.add(new JedisPooled(HostAndPort.from(redis.getLast().host())));
+		}
+
+		try (Shards shards = new Shards(clients, List.of());
+			 ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < 20; i++) {
+				String key = "ex:" + i;
+				String tags = i % 2 == 0 ? "red, cotton" : "blue";
+				if (i % 5 == 0) tags += ",sale";
+				shards.forKey(key).hset(key, Map.of("title", "Shirt " + i, "tags", tags, "price", Integer.toString(i * 10)));
+			}
+			shards.forKey("ex:hat").hset("ex:hat", Map.of("title", "Hat"));
+
+			Facets facets = new Facets(SCHEMA, new Main.FacetConfig(Map.of("price", List.of(100.0, 50.0)), 10));
+			assertEquals(Set.of("price", "tags"), facets.fields());
+
+			Facets.Results results = count(facets, facets.request("shirt", List.of(), null, 2), shards, executor);
+			assertEquals(List.of("price", "tags"), List.copyOf(results.facets().keySet()));
+			assertEquals(List.of(new Facets.Count("blue", null, null, 10), new Facets.Count("cotton", null, null, 10)),
+						 results.facets().get("tags"));
+			assertEquals(List.of(new Facets.Count(null, null, 50.0, 5),
+								 new Facets.Count(null, 50.0, 100.0, 5),
+								 new Facets.Count(null, 100.0, null, 10)),
+						 results.facets().get("price"));
+
+			results = count(facets, facets.request("*", List.of(), List.of("tags"), 10), shards, executor);
+			assertEquals(List.of("blue", "cotton", "red", "sale"),
+						 results.facets().get("tags").stream().map(Facets.Count::value).toList());
+			assertEquals(4, results.facets().get("tags").getLast().count());
+		} finally {
+			for (FakeRedis r : redis) r.close();
+		}
+	}
+
+	@Test
+	public void invalidRequest() {
+		Facets facets = new Facets(SCHEMA, new Main.FacetConfig(Map.of(), 10));
+		assertEquals(Set.of("tags"), facets.fields());
+		assertThrows(IllegalArgumentException.class, () -> facets.request("shirt", List.of(), List.of("price"), 10));
+		assertThrows(IllegalArgumentException.class, () -> facets.request("shirt", List.of(), List.of("title"), 10));
+		assertThrows(IllegalArgumentException.class, () -> facets.request("shirt", List.of(), null, 0));
+	}
+
+	private static Facets.Results count(Facets facets, Facets.Request request, Shards shards, ExecutorService executor) {
+		List<CompletableFuture<List<AggregationResult>>> counts = new ArrayList<>();
+		for (int i = 0; i < shards.size(); i++) {
+			counts.add(shards.aggregateAll(i, "example", facets.aggregations(request, request.limit() * 3), executor));
+		}
+		return facets.merge(request, counts.stream().map(CompletableFuture::join).toList());
+	}
+}
@@ -0,0 +1,652 @@
+package net.shrimpworks.mes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * A small in-process stand-in for a Redis server, speaking enough RESP2 to
+ * exercise the service without a real Redis Stack instance.
+ * <p>
+ * Hashes are held in memory, and FT.SEARCH matches documents whose field
+ * values contain the query text, or all documents for a {@code *} query.
+ * Numeric range, tag set and geo radius clauses are also applied as
+ * filters, with their values optionally given as PARAMS.
+ * RETURN limits the fields returned, and HIGHLIGHT wraps occurrences of the
+ * query text in tags, while SUMMARIZE is accepted but has no effect.
+ * FT.AGGREGATE supports loading fields, and reading results in pages with
+ * WITHCURSOR and FT.CURSOR. Of the other pipeline steps, only those used to
+ * count facets are supported: FILTER with exists(), APPLY with split() or
+ * a sum of {@code >=} comparisons, GROUPBY with REDUCE COUNT, and SORTBY.
+ * MULTI queues commands until EXEC, which runs them together, replying
+ * with each command's reply or error. SCAN supports MATCH with a trailing
+ * wildcard. FT.SUGADD, FT.SUGDEL and FT.SUGGET
+ * keep suggestion dictionaries, matched by case-insensitive prefix.
+ * Indexes created with FT.CREATE restrict searches to their key prefix, and
+ * their fields are reported by FT.INFO, which always reports them as fully
+ * indexed. Indexes may be searched through aliases, and dropped with
+ * FT.DROPINDEX. Searches against unknown indexes consider all hashes.
+ * <p>
+ * A simulated network latency may be applied to each round trip, so that
+ * pipelined commands are delayed once, as they would be against a remote
+ * server.
+ */
+public class FakeRedis implements Closeable {
+
+	// schema field options which are followed by a value
+	private static final Set<String> FIELD_ARG_OPTIONS = Set.of("AS", "WEIGHT", "SEPARATOR", "PHONETIC");
+	// schema field options which stand alone
+	private static final Set<String> FIELD_FLAG_OPTIONS = Set.of("SORTABLE", "UNF", "NOSTEM", "NOINDEX", "CASESENSITIVE",
+																 "WITHSUFFIXTRIE", "INDEXEMPTY", "INDEXMISSING");
+
+	private static final Pattern SPLIT = Pattern.compile("split\\(@(\\w+), \"(.*)\"\\)");
+	private static final Pattern AT_LEAST = Pattern.compile("\\(@(\\w+)>=([-0-9.]+)\\)");
+	private static final Pattern EXISTS = Pattern.compile("exists\\(@(\\w+)\\)");
+	private static final Pattern RANGE_CLAUSE = Pattern.compile("@(\\w+):\\[([^]]+)]");
+	private static final Pattern TAG_CLAUSE = Pattern.compile("@(\\w+):\\{([^}]+)}");
+	private static final Map<String, Double> METRES = Map.of("m", 1d, "km", 1000d, "mi", 1609.344, "ft", 0.3048);
+
+	private final ServerSocket server;
+	private final Duration latency;
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+	private final Map<String, Map<String, String>> hashes = new ConcurrentSkipListMap<>();
+	private final Map<String, Index> indexes = new ConcurrentHashMap<>();
+	private final Map<String, String> aliases = new ConcurrentHashMap<>();
+	private final Map<String, String> failures = new ConcurrentHashMap<>();
+	private final Map<Long, Cursor> cursors = new ConcurrentHashMap<>();
+	private final Map<String, Map<String, Double>> suggestions = new ConcurrentHashMap<>();
+	private final AtomicLong nextCursor = new AtomicLong(1000);
+
+	public FakeRedis() throws IOException {
+		this(Duration.ZERO);
+	}
+
+	/**
+	 * @param latency delay applied before replying to each round trip
+	 */
+	public FakeRedis(Duration latency) throws IOException {
+		this.latency = latency;
+		this.server = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+		executor.submit(this::accept);
+	}
+
+	public String host() {
+		return server.getInetAddress().getHostAddress() + ":" + server.getLocalPort();
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+		executor.shutdownNow();
+	}
+
+	private void accept() {
+		while (!server.isClosed()) {
+			try {
+				Socket socket = server.accept();
+				executor.submit(() -> serve(socket));
+			} catch (IOException e) {
+				// server closed
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (socket;
+			 InputStream in = new BufferedInputStream(socket.getInputStream());
+			 OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+			// commands queued by MULTI on this connection, until EXEC
+			List<List<String>> queued = null;
+			while (true) {
+				List<String> command = readCommand(in);
+				String name = command.getFirst().toUpperCase(Locale.ROOT);
+				if (name.equals("MULTI")) {
+					queued = new ArrayList<>();
+					reply(out, new Status("OK"));
+				} else if (name.equals("DISCARD") && queued != null) {
+					queued = null;
+					reply(out, new Status("OK"));
+				} else if (name.equals("EXEC") && queued != null) {
+					List<Object> replies = new ArrayList<>();
+					synchronized (this) {
+						for (List<String> queuedCommand : queued) replies.add(handle(queuedCommand));
+					}
+					queued = null;
+					reply(out, replies);
+				} else if (queued != null) {
+					queued.add(command);
+					reply(out, new Status("QUEUED"));
+				} else {
+					reply(out, handle(command));
+				}
+				// only flush once all pipelined commands received so far have been handled
+				if (in.available() == 0) {
+					if (latency.isPositive()) Thread.sleep(latency);
+					out.flush();
+				}
+			}
+		} catch (EOFException | InterruptedException e) {
+			// client disconnected, or server closed
+		} catch (IOException e) {
+			// connection failed
+		}
+	}
+
+	/**
+	 * Make the next use of a command fail with an error reply.
+	 *
+	 * @param command command name, such as {@code FT.ALIASADD}
+	 * @param error   error message to reply with
+	 */
+	public void failNext(String command, String error) {
+		failures.put(command.toUpperCase(Locale.ROOT), error);
+	}
+
+	private Object handle(List<String> command) {
+		String failure = failures.remove(command.getFirst().toUpperCase(Locale.ROOT));
+		if (failure != null) return new Error(failure);
+
+		return switch (command.getFirst().toUpperCase(Locale.ROOT)) {
+			case "PING" -> new Status("PONG");
+			case "CLIENT", "SELECT" -> new Status("OK");
+			case "HSET" -> {
+				Map<String, String> hash = hashes.computeIfAbsent(command.get(1), k -> new ConcurrentHashMap<>());
+				long added = 0;
+				for (int i = 2; i + 1 < command.size(); i += 2) {
+					if (hash.put(command.get(i), command.get(i + 1)) == null) added++;
+				}
+				yield added;
+			}
+			case "HGET" -> hashes.getOrDefault(command.get(1), Map.of()).get(command.get(2));
+			case "HMGET" -> {
+				Map<String, String> hash = hashes.getOrDefault(command.get(1), Map.of());
+				List<Object> reply = new ArrayList<>();
+				for (int i = 2; i < command.size(); i++) reply.add(hash.get(command.get(i)));
+				yield reply;
+			}
+			case "HGETALL" -> {
+				List<Object> reply = new ArrayList<>();
+				hashes.getOrDefault(command.get(1), Map.of()).forEach((k, v) -> {
+					reply.add(k);
+					reply.add(v);
+				});
+				yield reply;
+			}
+			case "SCAN" -> scan(command);
+			case "FT.SUGADD" -> {
+				Map<String, Double> dict = suggestions.computeIfAbsent(command.get(1), k -> new ConcurrentHashMap<>());
+				double score = Double.parseDouble(command.get(3));
+				if (command.contains("INCR")) dict.merge(command.get(2), score, Double::sum);
+				else dict.put(command.get(2), score);
+				yield (long)dict.size();
+			}
+			case "FT.SUGDEL" -> {
+				Map<String, Double> dict = suggestions.getOrDefault(command.get(1), Map.of());
+				yield dict.containsKey(command.get(2)) && dict.remove(command.get(2)) != null ? 1L : 0L;
+			}
+			case "FT.SUGGET" -> {
+				String prefix = command.get(2).toLowerCase(Locale.ROOT);
+				yield suggestions.getOrDefault(command.get(1), Map.of()).entrySet().stream()
+								 .filter(e -> e.getKey().toLowerCase(Locale.ROOT).startsWith(prefix))
+								 .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+								 .map(Map.Entry::getKey)
+								 .toList();
+			}
+			case "FT.CREATE" -> create(command);
+			case "FT.ALTER" -> {
+				Index index = index(command.get(1));
+				if (index == null) yield new Error("Unknown index name");
+				index.fields.putAll(fields(command, command.indexOf("ADD") + 1));
+				yield new Status("OK");
+			}
+			case "FT.INFO" -> info(command);
+			case "FT.DROPINDEX" -> {
+				Index index = indexes.remove(command.get(1));
+				if (index == null) yield new Error("Unknown Index name");
+				if (command.contains("DD")) hashes.keySet().removeIf(k -> k.startsWith(index.prefix));
+				// aliases of a dropped index are removed along with it
+				aliases.values().removeIf(v -> v.equals(command.get(1)));
+				yield new Status("OK");
+			}
+			case "FT.ALIASADD", "FT.ALIASUPDATE" -> {
+				if (!indexes.containsKey(command.get(2))) yield new Error("Unknown index name");
+				if (command.getFirst().equalsIgnoreCase("FT.ALIASADD")
+					&& (aliases.containsKey(command.get(1)) || indexes.containsKey(command.get(1)))) {
+					yield new Error("Alias already exists");
+				}
+				aliases.put(command.get(1), command.get(2));
+				yield new Status("OK");
+			}
+			case "FT.ALIASDEL" -> aliases.remove(command.get(1)) == null ? new Error("Alias does not exist") : new Status("OK");
+			case "FT.SEARCH" -> search(command);
+			case "FT.AGGREGATE" -> aggregate(command);
+			case "FT.CURSOR" -> switch (command.get(1).toUpperCase(Locale.ROOT)) {
+				case "READ" -> {
+					Cursor cursor = cursors.get(Long.parseLong(command.get(3)));
+					if (cursor == null) yield new Error("Cursor not found");
+					int countIdx = command.indexOf("COUNT");
+					yield readCursor(Long.parseLong(command.get(3)), cursor,
+									 countIdx > 0 ? Integer.parseInt(command.get(countIdx + 1)) : cursor.count);
+				}
+				case "DEL" -> cursors.remove(Long.parseLong(command.get(3))) == null ? new Error("Cursor not found") : new Status("OK");
+				default -> new Error("ERR unknown subcommand '" + command.get(1) + "'");
+			};
+			default -> new Error("ERR unknown command '" + command.getFirst() + "'");
+		};
+	}
+
+	private Object scan(List<String> command) {
+		int start = Integer.parseInt(command.get(1));
+		int matchIdx = command.indexOf("MATCH");
+		int countIdx = command.indexOf("COUNT");
+		String pattern = matchIdx > 0 ? command.get(matchIdx + 1) : "*";
+		int count = countIdx > 0 ? Integer.parseInt(command.get(countIdx + 1)) : 10;
+
+		List<String> keys = new ArrayList<>(hashes.keySet());
+		int end = Math.min(keys.size(), start + count);
+		List<Object> found = new ArrayList<>();
+		for (String key : keys.subList(Math.min(start, end), end)) {
+			if (pattern.endsWith("*") ? key.startsWith(pattern.substring(0, pattern.length() - 1)) : key.equals(pattern)) found.add(key);
+		}
+		return List.of(end >= keys.size() ? "0" : Integer.toString(end), found);
+	}
+
+	private Object create(List<String> command) {
+		int prefixIdx = command.indexOf("PREFIX");
+		String prefix = prefixIdx > 0 ? command.get(prefixIdx + 2) : "";
+		Index index = new Index(prefix, new ConcurrentHashMap<>(fields(command, command.indexOf("SCHEMA") + 1)));
+		if (indexes.putIfAbsent(command.get(1), index) != null) return new Error("Index already exists");
+		return new Status("OK");
+	}
+
+	private Object info(List<String> command) {
+		String name = aliases.getOrDefault(command.get(1), command.get(1));
+		Index index = indexes.get(name);
+		if (index == null) return new Error("Unknown index name");
+
+		List<Object> attributes = new ArrayList<>();
+		index.fields.forEach((field, type) -> attributes.add(List.of("identifier", field, "attribute", field, "type", type)));
+		long docs = hashes.keySet().stream().filter(k -> k.startsWith(index.prefix)).count();
+
+		return List.of("index_name", name,
+					   "index_definition", List.of("key_type", "HASH", "prefixes", List.of(index.prefix)),
+					   "attributes", attributes,
+					   "num_docs", Long.toString(docs),
+					   "indexing", 0L,
+					   "percent_indexed", "1");
+	}
+
+	private Index index(String name) {
+		return indexes.get(aliases.getOrDefault(name, name));
+	}
+
+	private static Map<String, String> fields(List<String> command, int start) {
+		Map<String, String> fields = new LinkedHashMap<>();
+		int i = start;
+		while (i + 1 < command.size()) {
+			fields.put(command.get(i), command.get(i + 1).toUpperCase(Locale.ROOT));
+			i += 2;
+			while (i < command.size()) {
+				String option = command.get(i).toUpperCase(Locale.ROOT);
+				if (FIELD_ARG_OPTIONS.contains(option)) i += 2;
+				else if (FIELD_FLAG_OPTIONS.contains(option)) i++;
+				else break;
+			}
+		}
+		return fields;
+	}
+
+	private Object search(List<String> command) {
+		Index index = index(command.get(1));
+		String prefix = index == null ? "" : index.prefix;
+		Match match = match(command);
+		String query = match.text;
+		boolean noContent = command.contains("NOCONTENT");
+		boolean withScores = command.contains("WITHSCORES");
+		int offset = 0;
+		int limit = 10;
+		int limitIdx = command.indexOf("LIMIT");
+		if (limitIdx > 0) {
+			offset = Integer.parseInt(command.get(limitIdx + 1));
+			limit = Integer.parseInt(command.get(limitIdx + 2));
+		}
+		Set<String> returned = optionFields(command, "RETURN", 1);
+		Set<String> highlighted = optionFields(command, "HIGHLIGHT", 2);
+		int tagsIdx = command.indexOf("TAGS");
+		String open = tagsIdx > 0 ? command.get(tagsIdx + 1) : "<b>";
+		String close = tagsIdx > 0 ? command.get(tagsIdx + 2) : "</b>";
+
+		List<Map.Entry<String, Map<String, String>>> matches = matches(prefix, match);
+
+		List<Object> reply = new ArrayList<>();
+		reply.add((long)matches.size());
+		matches.stream().skip(offset).limit(limit).forEach(e -> {
+			reply.add(e.getKey());
+			if (withScores) reply.add("1");
+			if (!noContent) {
+				List<Object> fields = new ArrayList<>();
+				e.getValue().forEach((k, v) -> {
+					if (returned != null && !returned.contains(k)) return;
+					fields.add(k);
+					if (highlighted != null && (highlighted.isEmpty() || highlighted.contains(k)) && !query.equals("*")) {
+						fields.add(v.replaceAll("(?i)(" + Pattern.quote(query) + ")", Matcher.quoteReplacement(open) + "$1"
+																						 + Matcher.quoteReplacement(close)));
+					} else {
+						fields.add(v);
+					}
+				});
+				reply.add(fields);
+			}
+		});
+		return reply;
+	}
+
+	private List<Map.Entry<String, Map<String, String>>> matches(String prefix, Match match) {
+		return hashes.entrySet().stream()
+					 .filter(e -> e.getKey().startsWith(prefix))
+					 .filter(e -> match.text.equals("*") || e.getValue().values().stream()
+																  .anyMatch(v -> v.toLowerCase(Locale.ROOT).contains(match.text)))
+					 .filter(e -> match.filters.stream().allMatch(f -> f.test(e.getValue())))
+					 .toList();
+	}
+
+	/**
+	 * Separate a query's text from its filter clauses, substituting any
+	 * parameters given.
+	 */
+	private static Match match(List<String> command) {
+		Map<String, String> params = new HashMap<>();
+		int paramsIdx = command.indexOf("PARAMS");
+		if (paramsIdx > 0) {
+			int count = Integer.parseInt(command.get(paramsIdx + 1));
+			for (int i = 0; i < count; i += 2) params.put(command.get(paramsIdx + 2 + i), command.get(paramsIdx + 3 + i));
+		}
+
+		String query = command.get(2);
+		List<Predicate<Map<String, String>>> filters = new ArrayList<>();
+		Matcher range = RANGE_CLAUSE.matcher(query);
+		while (range.find()) {
+			String field = range.group(1);
+			List<String> args = Arrays.stream(range.group(2).trim().split("\\s+"))
+									  .map(a -> a.startsWith("$") ? params.get(a.substring(1)) : a)
+									  .toList();
+			if (args.size() == 2) {
+				double min = bound(args.get(0));
+				double max = bound(args.get(1));
+				filters.add(h -> h.get(field) != null && Double.parseDouble(h.get(field)) >= min && Double.parseDouble(h.get(field)) <= max);
+			} else {
+				double lon = Double.parseDouble(args.get(0));
+				double lat = Double.parseDouble(args.get(1));
+				double radius = Double.parseDouble(args.get(2)) * METRES.get(args.get(3));
+				filters.add(h -> h.get(field) != null && distance(lon, lat, h.get(field)) <= radius);
+			}
+		}
+		Matcher tags = TAG_CLAUSE.matcher(query);
+		while (tags.find()) {
+			String field = tags.group(1);
+			Set<String> values = Arrays.stream(tags.group(2).split("\\|"))
+									   .map(String::trim)
+									   .map(v -> v.startsWith("$") ? params.get(v.substring(1)) : v)
+									   .map(v -> v.toLowerCase(Locale.ROOT))
+									   .collect(Collectors.toSet());
+			filters.add(h -> h.get(field) != null && Arrays.stream(h.get(field).split(","))
+															 .anyMatch(t -> values.contains(t.trim().toLowerCase(Locale.ROOT))));
+		}
+
+		String text = TAG_CLAUSE.matcher(RANGE_CLAUSE.matcher(query).replaceAll("")).replaceAll("").trim();
+		if (text.startsWith("(") && text.endsWith(")")) text = text.substring(1, text.length() - 1).trim();
+		return new Match(text.isEmpty() ? "*" : text.toLowerCase(Locale.ROOT), filters);
+	}
+
+	private static double bound(String value) {
+		return switch (value) {
+			case "-inf" -> Double.NEGATIVE_INFINITY;
+			case "+inf", "inf" -> Double.POSITIVE_INFINITY;
+			default -> Double.parseDouble(value);
+		};
+	}
+
+	/**
+	 * Distance in metres between a point, and a GEO value of "lon,lat".
+	 */
+	private static double distance(double lon, double lat, String location) {
+		String[] point = location.split(",");
+		double lat1 = Math.toRadians(lat);
+		double lat2 = Math.toRadians(Double.parseDouble(point[1].trim()));
+		double dLat = lat2 - lat1;
+		double dLon = Math.toRadians(Double.parseDouble(point[0].trim()) - lon);
+		double a = Math.pow(Math.sin(dLat / 2), 2) + Math.cos(lat1) * Math.cos(lat2) * Math.pow(Math.sin(dLon / 2), 2);
+		return 2 * 6372797.560856 * Math.asin(Math.sqrt(a));
+	}
+
+	private Object aggregate(List<String> command) {
+		Index index = index(command.get(1));
+		String prefix = index == null ? "" : index.prefix;
+		List<Map.Entry<String, Map<String, String>>> matches = matches(prefix, match(command));
+		if (command.contains("GROUPBY")) return group(command, matches);
+
+		int loadIdx = command.indexOf("LOAD");
+		Set<String> loaded = loadIdx > 0 && command.get(loadIdx + 1).equals("*") ? null : optionFields(command, "LOAD", 1);
+		List<List<Object>> rows = new ArrayList<>();
+		for (Map.Entry<String, Map<String, String>> e : matches) {
+			List<Object> row = new ArrayList<>();
+			if (loadIdx > 0 && loaded == null) {
+				e.getValue().forEach((k, v) -> {
+					row.add(k);
+					row.add(v);
+				});
+			} else if (loaded != null) {
+				for (String field : loaded) {
+					String name = field.startsWith("@") ? field.substring(1) : field;
+					String value = name.equals("__key") ? e.getKey() : e.getValue().get(name);
+					if (value == null) continue;
+					row.add(name);
+					row.add(value);
+				}
+			}
+			rows.add(row);
+		}
+
+		if (!command.contains("WITHCURSOR")) {
+			List<Object> reply = new ArrayList<>();
+			reply.add((long)rows.size());
+			reply.addAll(rows);
+			return reply;
+		}
+
+		int countIdx = command.indexOf("COUNT");
+		Cursor cursor = new Cursor(rows, countIdx > 0 ? Integer.parseInt(command.get(countIdx + 1)) : 1000, new AtomicInteger());
+		long id = nextCursor.getAndIncrement();
+		cursors.put(id, cursor);
+		return readCursor(id, cursor, cursor.count);
+	}
+
+	private Object group(List<String> command, List<Map.Entry<String, Map<String, String>>> matches) {
+		List<Map<String, Object>> rows = new ArrayList<>();
+		for (Map.Entry<String, Map<String, String>> e : matches) rows.add(new LinkedHashMap<>(e.getValue()));
+
+		for (int i = 3; i < command.size(); i++) {
+			switch (command.get(i).toUpperCase(Locale.ROOT)) {
+				case "FILTER" -> {
+					Matcher exists = EXISTS.matcher(command.get(++i));
+					if (!exists.matches()) return new Error("Unsupported filter " + command.get(i));
+					rows.removeIf(r -> r.get(exists.group(1)) == null);
+				}
+				case "APPLY" -> {
+					String expression = command.get(i + 1);
+					String alias = command.get(i + 3);
+					i += 3;
+					for (Map<String, Object> row : rows) row.put(alias, apply(expression, row));
+				}
+				case "GROUPBY" -> {
+					String field = command.get(i + 2).substring(1);
+					String alias = command.get(i + 7);
+					i += 7;
+					Map<String, Long> counts = new LinkedHashMap<>();
+					for (Map<String, Object> row : rows) {
+						Object value = row.get(field);
+						if (value == null) continue;
+						for (Object v : value instanceof List<?> list ? list : List.of(value)) counts.merge(v.toString(), 1L, Long::sum);
+					}
+					rows = new ArrayList<>();
+					for (Map.Entry<String, Long> e : counts.entrySet()) {
+						rows.add(new LinkedHashMap<>(Map.of(field, e.getKey(), alias, Long.toString(e.getValue()))));
+					}
+				}
+				case "SORTBY" -> {
+					String field = command.get(i + 2).substring(1);
+					boolean desc = command.get(i + 3).equalsIgnoreCase("DESC");
+					i += 1 + Integer.parseInt(command.get(i + 1));
+					Comparator<Map<String, Object>> order = Comparator.comparingDouble(r -> Double.parseDouble(r.get(field).toString()));
+					rows.sort(desc ? order.reversed() : order);
+					if (i + 1 < command.size() && command.get(i + 1).equalsIgnoreCase("MAX")) {
+						rows = new ArrayList<>(rows.subList(0, Math.min(rows.size(), Integer.parseInt(command.get(i + 2)))));
+						i += 2;
+					}
+				}
+				default -> {
+					// LOAD, as all fields are already available
+				}
+			}
+		}
+
+		List<Object> reply = new ArrayList<>();
+		reply.add((long)rows.size());
+		for (Map<String, Object> row : rows) {
+			List<Object> fields = new ArrayList<>();
+			row.forEach((k, v) -> {
+				fields.add(k);
+				fields.add(v.toString());
+			});
+			reply.add(fields);
+		}
+		return reply;
+	}
+
+	private static Object apply(String expression, Map<String, Object> row) {
+		Matcher split = SPLIT.matcher(expression);
+		if (split.matches()) {
+			Object value = row.get(split.group(1));
+			if (value == null) return List.of();
+			return Arrays.stream(value.toString().split(Pattern.quote(split.group(2)))).map(String::strip).filter(v -> !v.isEmpty()).toList();
+		}
+
+		// a sum of comparisons, each counting as 1 when true
+		Matcher atLeast = AT_LEAST.matcher(expression);
+		long sum = 0;
+		while (atLeast.find()) {
+			if (Double.parseDouble(row.get(atLeast.group(1)).toString()) >= Double.parseDouble(atLeast.group(2))) sum++;
+		}
+		return Long.toString(sum);
+	}
+
+	private Object readCursor(long id, Cursor cursor, int count) {
+		List<Object> page = new ArrayList<>();
+		page.add((long)cursor.rows.size());
+		int start = cursor.position.getAndAdd(count);
+		page.addAll(cursor.rows.subList(Math.min(start, cursor.rows.size()), Math.min(start + count, cursor.rows.size())));
+
+		boolean done = start + count >= cursor.rows.size();
+		if (done) cursors.remove(id);
+		return List.of(page, done ? 0L : id);
+	}
+
+	/**
+	 * Read the field names following an option such as {@code RETURN 2 a b}
+	 * or {@code HIGHLIGHT FIELDS 2 a b}.
+	 *
+	 * @param skip number of arguments between the option and the field count
+	 * @return the fields, an empty set if the option has no fields, or null if the option is absent
+	 */
+	private static Set<String> optionFields(List<String> command, String option, int skip) {
+		int idx = command.subList(3, command.size()).indexOf(option);
+		if (idx < 0) return null;
+		idx += 3;
+		if (skip > 1 && (idx + 1 >= command.size() || !command.get(idx + 1).equals("FIELDS"))) return Set.of();
+		int count = Integer.parseInt(command.get(idx + skip));
+		return Set.copyOf(command.subList(idx + skip + 1, idx + skip + 1 + count));
+	}
+
+	private static List<String> readCommand(InputStream in) throws IOException {
+		String header = readLine(in);
+		if (header.charAt(0) != '*') throw new IOException("Expected array, got " + header);
+		int count = Integer.parseInt(header.substring(1));
+		List<String> args = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			int len = Integer.parseInt(readLine(in).substring(1));
+			byte[] bytes = in.readNBytes(len + 2);
+			if (bytes.length < len + 2) throw new EOFException();
+			args.add(new String(bytes, 0, len, StandardCharsets.UTF_8));
+		}
+		return args;
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\r') {
+			if (c < 0) throw new EOFException();
+			sb.append((char)c);
+		}
+		in.read();
+		return sb.toString();
+	}
+
+	private static void reply(OutputStream out, Object value) throws IOException {
+		switch (value) {
+			case null -> out.write("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+			case Status s -> out.write(("+" + s.value + "\r\n").getBytes(StandardCharsets.UTF_8));
+			case Error e -> out.write(("-" + e.message + "\r\n").getBytes(StandardCharsets.UTF_8));
+			case Long l -> out.write((":" + l + "\r\n").getBytes(StandardCharsets.US_ASCII));
+			case String s -> {
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				out.write(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+				out.write(bytes);
+				out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+			}
+			case List<?> list -> {
+				out.write(("*" + list.size() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+				for (Object o : list) reply(out, o);
+			}
+			default -> throw new IllegalArgumentException("Cannot encode " + value);
+		}
+	}
+
+	private record Index(String prefix, Map<String, String> fields) {}
+
+	private record Match(String text, List<Predicate<Map<String, String>>> filters) {}
+
+	private record Cursor(List<List<Object>> rows, int count, AtomicInteger position) {}
+
+	private record Status(String value) {}
+
+	private record Error(String message) {}
+}
@@ -0,0 +1,100 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.search.Document;
+import redis.clients.jedis.search.Schema;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FiltersTest {
+
+	private static final Filters FILTERS = new Filters(new Main.RediSearchSchema(Set.of(
+		new Main.RediSearchField(Schema.FieldType.TEXT, "title", true, false, 5.0, false, null, true, false, false),
+		new Main.RediSearchField(Schema.FieldType.NUMERIC, "price", true, false, 1.0, false, null, true, false, false),
+		new Main.RediSearchField(Schema.FieldType.TAG, "tags", false, false, 1.0, false, ",", true, false, false),
+		new Main.RediSearchField(Schema.FieldType.GEO, "location", false, false, 1.0, false, null, true, false, false)
+	)));
+
+	@Test
+	public void parseAndCompile() {
+		List<Filters.Filter> filters = FILTERS.parse(Map.of("tags", "red, cotton ,", "price", "10..50", "location", "18.42,-33.92,5 km"));
+		assertEquals(List.of(new Filters.Radius("location", 18.42, -33.92, 5, "km"),
+							 new Filters.Range("price", 10.0, 50.0),
+							 new Filters.Tags("tags", List.of("red", "cotton"))), filters);
+
+		Filters.Compiled compiled = Filters.compile("blue shirt", filters);
+		assertEquals("(blue shirt) @location:[$p0 $p1 $p2 km] @price:[$p3 $p4] @tags:{$p5 | $p6}", compiled.query());
+		assertEquals(Map.of("p0", "18.42", "p1", "-33.92", "p2", "5.0", "p3", "10.0", "p4", "50.0", "p5", "red", "p6", "cotton"),
+					 compiled.params());
+
+		// the query string is the same whatever the values, and open bounds need no parameter
+		assertEquals(compiled.query(), Filters.compile("blue shirt", FILTERS.parse(
+			Map.of("tags", "{green} | blue,\"x\"", "price", "0..1e6", "location", "0,0,1km"))).query());
+		assertEquals("@price:[$p0 +inf]", Filters.compile("*", FILTERS.parse(Map.of("price", "10.."))).query());
+		assertEquals("@price:[-inf $p0]", Filters.compile("", FILTERS.parse(Map.of("price", "..10"))).query());
+		assertEquals(List.of(new Filters.Range("price", 25.0, 25.0)), FILTERS.parse(Map.of("price", "25")));
+		assertEquals(new Filters.Compiled("shirt", Map.of()), Filters.compile("shirt", List.of()));
+
+		assertThrows(IllegalArgumentException.class, () -> FILTERS.parse(Map.of("title", "shirt")));
+		assertThrows(IllegalArgumentException.class, () -> FILTERS.parse(Map.of("missing", "1")));
+		assertThrows(IllegalArgumentException.class, () -> FILTERS.parse(Map.of("price", "50..10")));
+		assertThrows(IllegalArgumentException.class, () -> FILTERS.parse(Map.of("price", "..")));
+		assertThrows(IllegalArgumentException.class, () -> FILTERS.parse(Map.of("price", "ten")));
+		assertThrows(IllegalArgumentException.class, () -> FILTERS.parse(Map.of("price", "NaN")));
+		assertThrows(IllegalArgumentException.class, () -> FILTERS.parse(Map.of("tags", " , ")));
+		assertThrows(IllegalArgumentException.class, () -> FILTERS.parse(Map.of("location", "18.42,-33.92")));
+		assertThrows(IllegalArgumentException.class, () -> FILTERS.parse(Map.of("location", "18.42,-33.92,5 parsecs")));
+		assertThrows(IllegalArgumentException.class, () -> FILTERS.parse(Map.of("location", "200,0,5km")));
+	}
+
+	@Test
+	public void filteredSearch() throws IOException {
+		try (FakeRedis redis = new FakeRedis();
+			 Shards shards = new Shards(List.of(new JedisPooled(HostAndPort.from(redis.host()))), List.of());
+			 ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			JedisPooled client = shards.client(0);
+			for (int i = 0; i < 20; i++) {
+				// shops every 0.01 degrees of longitude east from Cape Town, roughly 1km apart
+				client.hset("ex:" + i, Map.of("title", "Shirt " + i, "price", Integer.toString(i * 10),
+											  "tags", i % 2 == 0 ? "red,cotton" : "blue", "location", (18.42 + i * 0.01) + ",-33.92"));
+			}
+			client.hset("ex:hat", Map.of("title", "Hat", "price", "30", "tags", "red"));
+
+			SearchRequest request = new SearchRequest("shirt", 0, 20, null, true, List.of(), List.of(),
+													  FILTERS.parse(Map.of("price", "30..120", "tags", "red")));
+			assertEquals(Set.of("ex:4", "ex:6", "ex:8", "ex:10", "ex:12"), ids(client.ftSearch("example", request.toQuery()).getDocuments()));
+
+			request = new SearchRequest("*", 0, 20, null, true, List.of(), List.of(),
+										FILTERS.parse(Map.of("location", "18.42,-33.92,2.5km")));
+			assertEquals(Set.of("ex:0", "ex:1", "ex:2"), ids(client.ftSearch("example", request.toQuery()).getDocuments()));
+
+			// cursors carry the filters between pages
+			request = new SearchRequest("", 0, 2, null, true, List.of(), List.of(), FILTERS.parse(Map.of("tags", "blue")));
+			Set<String> seen = new HashSet<>();
+			SearchCursor cursor = SearchCursor.start(request, 2);
+			while (cursor != null) {
+				SearchCursor.Page page = SearchCursor.parse(cursor.token()).read(shards, "example", 60_000, executor).join();
+				seen.addAll(ids(page.docs()));
+				cursor = page.next();
+			}
+			assertEquals(10, seen.size());
+		}
+	}
+
+	private static Set<String> ids(List<Document> docs) {
+		Set<String> ids = new HashSet<>();
+		docs.forEach(d -> ids.add(d.getId()));
+		return ids;
+	}
+}
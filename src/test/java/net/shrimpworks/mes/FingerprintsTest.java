@@ -0,0 +1,80 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FingerprintsTest {
+
+	@Test
+	public void changedFields() {
+		Fingerprints fingerprints = new Fingerprints(1 << 30);
+		Map<String, String> doc = Map.of("title", "Blue Shirt", "body", "A shirt");
+		assertEquals(doc, fingerprints.changed("ex:1", doc));
+
+		fingerprints.written("ex:1", doc);
+		assertTrue(fingerprints.changed("ex:1", doc).isEmpty());
+		assertEquals(doc, fingerprints.changed("ex:2", doc));
+		assertEquals(Map.of("title", "Red Shirt"), fingerprints.changed("ex:1", Map.of("title", "Red Shirt", "body", "A shirt")));
+		assertEquals(Map.of("price", "10"), fingerprints.changed("ex:1", Map.of("title", "Blue Shirt", "price", "10")));
+
+		// the table grows to hold many more fields than it starts with
+		for (int i = 0; i < 100_000; i++) fingerprints.written("ex:" + i, Map.of("title", "Shirt " + i));
+		for (int i = 0; i < 100_000; i += 997) assertTrue(fingerprints.changed("ex:" + i, Map.of("title", "Shirt " + i)).isEmpty());
+
+		Fingerprints.Stats stats = fingerprints.stats();
+		assertEquals(100_001, stats.fields());
+		assertTrue(stats.bytes() >= 100_001 * 16);
+		assertEquals(1 + 101, stats.skippedDocuments());
+	}
+
+	@Test
+	public void limitedSize() {
+		// room for 1024 slots, which hold up to 768 fields
+		Fingerprints fingerprints = new Fingerprints(16 * 1024);
+		for (int i = 0; i < 1000; i++) fingerprints.written("ex:" + i, Map.of("title", "Shirt " + i));
+
+		Fingerprints.Stats stats = fingerprints.stats();
+		assertEquals(768, stats.fields());
+		assertEquals(16 * 1024, stats.bytes());
+
+		// fields beyond the limit are not tracked, and are always written
+		assertTrue(fingerprints.changed("ex:0", Map.of("title", "Shirt 0")).isEmpty());
+		assertEquals(Map.of("title", "Shirt 999"), fingerprints.changed("ex:999", Map.of("title", "Shirt 999")));
+	}
+
+	@Test
+	public void skipUnchangedWrites() throws IOException {
+		try (FakeRedis redis = new FakeRedis();
+			 Shards shards = new Shards(List.of(new JedisPooled(HostAndPort.from(redis.host()))), List.of())) {
+			Main.IngestConfig config = new Main.IngestConfig(10, false, false, 0, 0, true, 0);
+			Fingerprints fingerprints = new Fingerprints(1 << 30);
+
+			BatchWriter writer = new BatchWriter(shards, "ex:", config, fingerprints, null, new Metrics(), () -> {});
+			for (int i = 0; i < 25; i++) writer.add(new API.AddDocument(Integer.toString(i), Map.of("title", "Shirt " + i, "body", "A shirt"), 1));
+			BatchWriter.Result result = writer.finish();
+			assertEquals(25, result.written());
+			assertEquals(0, result.skipped());
+
+			// changes made outside the service are not seen, which shows only the changed field is written
+			shards.client(0).hset("ex:3", "body", "Changed elsewhere");
+
+			writer = new BatchWriter(shards, "ex:", config, fingerprints, null, new Metrics(), () -> {});
+			for (int i = 0; i < 25; i++) {
+				writer.add(new API.AddDocument(Integer.toString(i), Map.of("title", i == 3 ? "Red Shirt" : "Shirt " + i, "body", "A shirt"), 1));
+			}
+			result = writer.finish();
+			assertEquals(1, result.written());
+			assertEquals(24, result.skipped());
+			assertEquals(Map.of("title", "Red Shirt", "body", "Changed elsewhere"), shards.client(0).hgetAll("ex:3"));
+			assertEquals(24 * 2 + 1, fingerprints.stats().skippedFields());
+		}
+	}
+}
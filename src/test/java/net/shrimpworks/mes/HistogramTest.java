@@ -0,0 +1,64 @@
+package net.shrimpworks.mes;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HistogramTest {
+
+	@Test
+	public void quantiles() {
+		Histogram histogram = new Histogram(1_000_000_000L);
+		for (long i = 1; i <= 100_000; i++) histogram.record(i * 1000);
+
+		assertEquals(100_000, histogram.count());
+		assertEquals(100_000_000, histogram.max());
+		assertWithin(50_000_000, histogram.quantile(0.5));
+		assertWithin(99_000_000, histogram.quantile(0.99));
+		assertWithin(99_900_000, histogram.quantile(0.999));
+		assertEquals(100_000_000, histogram.quantile(1.0));
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		Histogram histogram = new Histogram(1000);
+		for (int i = 0; i < 64; i++) histogram.record(i);
+
+		assertEquals(31, histogram.quantile(0.5));
+		assertEquals(63, histogram.quantile(1.0));
+	}
+
+	@Test
+	public void recentWindows() throws InterruptedException {
+		Histogram histogram = new Histogram(1_000_000, 50_000_000L, 2);
+		for (int i = 0; i < 100; i++) histogram.record(500_000);
+		assertWithin(500_000, histogram.quantile(0.99));
+
+		// once both windows have moved on, earlier slow values no longer count towards quantiles
+		Thread.sleep(120);
+		for (int i = 0; i < 100; i++) histogram.record(10);
+		assertEquals(10, histogram.quantile(0.99));
+		assertEquals(10, histogram.max());
+
+		// while the count and sum cover everything recorded
+		assertEquals(200, histogram.count());
+		assertEquals(100 * 500_000 + 100 * 10, histogram.sum());
+
+		Thread.sleep(120);
+		assertEquals(0, histogram.quantile(0.5));
+	}
+
+	@Test
+	public void bucketBoundsContainValues() {
+		for (long v = 0; v < 1_000_000; v += 7) {
+			int index = Histogram.index(v);
+			assertTrue(Histogram.upperBound(index) >= v);
+			assertTrue(index == 0 || Histogram.upperBound(index - 1) < v);
+		}
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue(Math.abs(expected - actual) <= expected * 0.02, () -> "Expected " + expected + " but got " + actual);
+	}
+}
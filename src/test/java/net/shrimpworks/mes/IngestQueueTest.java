@@ -0,0 +1,70 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IngestQueueTest {
+
+	@Test
+	public void drainOnClose() throws IOException {
+		try (FakeRedis redis = new FakeRedis(Duration.ofMillis(5));
+			 JedisPooled client = new JedisPooled(HostAndPort.from(redis.host()))) {
+			Metrics metrics = new Metrics();
+			IngestQueue queue = new IngestQueue(new Shards(List.of(client), List.of()), "ex:", new Main.IngestConfig(100, false, true, 10_000, 1000, false, 0), null, null, metrics, () -> {});
+
+			for (int i = 0; i < 1000; i++) {
+				assertTrue(queue.offer(new API.AddDocument(Integer.toString(i), Map.of("title", "Shirt " + i), 1.0)));
+			}
+			queue.close();
+
+			assertEquals(new IngestQueue.Stats(0, 10_000, 1000, 0, 0), queue.stats());
+			assertEquals("Shirt 999", client.hget("ex:999", "title"));
+			assertEquals(1000, metrics.ingestQueueLatency.count());
+			assertFalse(queue.offer(new API.AddDocument("1000", Map.of("title", "Late Shirt"), 1.0)));
+		}
+	}
+
+	@Test
+	public void flushPartialBatchAfterInterval() throws IOException, InterruptedException {
+		try (FakeRedis redis = new FakeRedis();
+			 JedisPooled client = new JedisPooled(HostAndPort.from(redis.host()))) {
+			IngestQueue queue = new IngestQueue(new Shards(List.of(client), List.of()), "ex:", new Main.IngestConfig(100, false, true, 100, 20, false, 0), null, null, new Metrics(), () -> {});
+			try {
+				queue.offer(new API.AddDocument("1", Map.of("title", "Lonely Shirt"), 1.0));
+				for (int i = 0; i < 100 && queue.stats().written() == 0; i++) Thread.sleep(10);
+				assertEquals("Lonely Shirt", client.hget("ex:1", "title"));
+			} finally {
+				queue.close();
+			}
+		}
+	}
+
+	@Test
+	public void rejectWhenFull() throws IOException {
+		try (FakeRedis redis = new FakeRedis(Duration.ofMillis(100));
+			 JedisPooled client = new JedisPooled(HostAndPort.from(redis.host()))) {
+			IngestQueue queue = new IngestQueue(new Shards(List.of(client), List.of()), "ex:", new Main.IngestConfig(1, false, true, 2, 10, false, 0), null, null, new Metrics(), () -> {});
+
+			int accepted = 0;
+			for (int i = 0; i < 10; i++) {
+				if (queue.offer(new API.AddDocument(Integer.toString(i), Map.of("title", "Shirt " + i), 1.0))) accepted++;
+			}
+			queue.close();
+
+			IngestQueue.Stats stats = queue.stats();
+			assertTrue(stats.rejected() > 0);
+			assertEquals(10, accepted + stats.rejected());
+			assertEquals(accepted, stats.written());
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package net.shrimpworks.mes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.search.Document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class JacksonMapperTest {
+
+	@Test
+	public void streamArrayElements() throws IOException {
+		String json = """
+			{
+			  "before": { "docs": [ { "id": "nope" } ] },
+			  "docs": [
+			    { "id": "1", "fields": { "title": "one" } },
+			    { "id": "2", "fields": { "title": "two" }, "score": 0.5 }
+			  ],
+			  "after": [ 1, 2, 3 ]
+			}
+			""";
+
+		List<API.AddDocument> docs = new ArrayList<>();
+		JacksonMapper.JSON.stream(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), "docs", API.AddDocument.class,
+								  docs::add);
+
+		assertEquals(2, docs.size());
+		assertEquals("1", docs.get(0).id());
+		assertEquals("two", docs.get(1).fields().get("title"));
+		assertEquals(0.5, docs.get(1).score());
+	}
+
+	@Test
+	public void streamBareArray() throws IOException {
+		String json = "[ { \"id\": \"1\" }, { \"id\": \"2\" }, { \"id\": \"3\" } ]";
+
+		List<API.AddDocument> docs = new ArrayList<>();
+		JacksonMapper.JSON.stream(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), "docs", API.AddDocument.class,
+								  docs::add);
+
+		assertEquals(3, docs.size());
+	}
+
+	@Test
+	public void streamSkipsInvalidElements() throws IOException {
+		String json = """
+			{ "docs": [
+			  { "id": "1", "fields": { "title": "one" } },
+			  { "id": "2", "fields": [ { "nested": [ 1, 2 ] }, "x" ], "score": 0.5 },
+			  "not an object",
+			  { "id": "4", "fields": { "title": "four" } }
+			] }
+			""";
+
+		List<API.AddDocument> docs = new ArrayList<>();
+		List<JsonMappingException> invalid = new ArrayList<>();
+		JacksonMapper.JSON.stream(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), "docs", API.AddDocument.class,
+								  docs::add, invalid::add);
+
+		assertEquals(List.of("1", "4"), docs.stream().map(API.AddDocument::id).toList());
+		assertEquals(2, invalid.size());
+
+		// without somewhere to send invalid elements, they fail the stream
+		assertThrows(JsonMappingException.class, () -> JacksonMapper.JSON.stream(
+			new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), "docs", API.AddDocument.class, d -> {}));
+	}
+
+	@Test
+	public void serialiseDocumentsAsAddDocuments() throws IOException {
+		Document doc = new Document("1", Map.of("title", "Blue T-Shirt", "price", 100, "tags", "shirt,blue"), 0.75);
+
+		API.SearchResults results = new API.SearchResults(List.of(doc), 1, 0, 10);
+
+		// search results should serialise identically to the AddDocument representation of the same documents
+		assertEquals(
+			JacksonMapper.JSON.string(Map.of("docs", List.of(API.AddDocument.fromDocument(doc)),
+											 "totalResults", 1, "offset", 0, "limit", 10)),
+			JacksonMapper.JSON.string(results)
+		);
+	}
+}
@@ -0,0 +1,45 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LineReaderTest {
+
+	@Test
+	public void lines() throws IOException {
+		LineReader reader = new LineReader(new StringReader("one\r\n\ntwo\nthree"), 10);
+		assertEquals("one", reader.readLine());
+		assertEquals("", reader.readLine());
+		assertEquals("two", reader.readLine());
+		assertEquals("three", reader.readLine());
+		assertFalse(reader.tooLong());
+		assertNull(reader.readLine());
+	}
+
+	@Test
+	public void longLinesSkipped() throws IOException {
+		// lines longer than the read buffer, so the limit is reached part way through a read
+		String max = "x".repeat(10_000);
+		LineReader reader = new LineReader(new StringReader(max + "\r\n" + max + "yz\nafter\n" + max + "y"), max.length());
+		assertEquals(max, reader.readLine());
+		assertFalse(reader.tooLong());
+
+		assertEquals(max, reader.readLine());
+		assertTrue(reader.tooLong());
+
+		// reading continues from the next line
+		assertEquals("after", reader.readLine());
+		assertFalse(reader.tooLong());
+
+		assertEquals(max, reader.readLine());
+		assertTrue(reader.tooLong());
+		assertNull(reader.readLine());
+	}
+}
@@ -3,8 +3,15 @@ package net.shrimpworks.mes;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.search.Schema;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -17,5 +24,40 @@ public class MainTest {
 
 		Main.Config config = JacksonMapper.YAML.object(os.toByteArray(), Main.Config.class);
 		assertEquals("example", config.index());
+		assertEquals(0, config.cache().maxEntries());
+
+		// sections missing from older config files are defaulted, leaving the cache disabled
+		config = JacksonMapper.YAML.object("index: example\nprefix: \"ex:\"\nredisHost: localhost:6379", Main.Config.class);
+		assertEquals(0, config.cache().maxEntries());
+		assertEquals(1, config.redisHosts().size());
+	}
+
+	@Test
+	public void createIndexAddsMissingFields() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		Main.sampleConfig(new PrintStream(os));
+		Main.Config config = JacksonMapper.YAML.object(os.toByteArray(), Main.Config.class);
+
+		try (FakeRedis redis = new FakeRedis();
+			 JedisPooled client = new JedisPooled(HostAndPort.from(redis.host()))) {
+			Main.createIndex(client, config);
+			assertEquals(Set.of("title", "body", "price", "tags"), fieldNames(client, config.index()));
+
+			// simulate a restart with a new field added to the schema
+			Set<Main.RediSearchField> fields = new HashSet<>(config.schema().fields());
+			fields.add(new Main.RediSearchField(Schema.FieldType.TEXT, "author", false, false, 1.0, false, null, true, false, false));
+			Main.Config updated = new Main.Config(config.index(), config.prefix(), config.redisHost(), config.redisShards(),
+												  config.redisTimeoutMillis(), config.bindAddress(), config.rootPath(),
+												  config.corsAllowOrigins(), config.submissionToken(), new Main.RediSearchSchema(fields),
+												  config.ingest(), config.cache(), config.server(), config.pool(), config.search(),
+												  config.wal(), config.replicas(), config.suggest(), config.facets());
+			Main.createIndex(client, updated);
+			assertEquals(Set.of("title", "body", "price", "tags", "author"), fieldNames(client, config.index()));
+		}
+	}
+
+	private static Set<String> fieldNames(JedisPooled client, String index) {
+		List<List<Object>> attributes = (List<List<Object>>)client.ftInfo(index).get("attributes");
+		return attributes.stream().map(a -> (String)a.get(1)).collect(Collectors.toSet());
 	}
 }
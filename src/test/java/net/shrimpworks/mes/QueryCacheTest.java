@@ -0,0 +1,57 @@
+package net.shrimpworks.mes;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class QueryCacheTest {
+
+	@Test
+	public void evictLeastRecentlyUsed() {
+		QueryCache<String, String> cache = new QueryCache<>(2, 0);
+		cache.put("a", "A", cache.generation());
+		cache.put("b", "B", cache.generation());
+
+		// touch a, so b becomes the eldest entry
+		assertEquals("A", cache.get("a"));
+		cache.put("c", "C", cache.generation());
+
+		assertNull(cache.get("b"));
+		assertEquals("A", cache.get("a"));
+		assertEquals("C", cache.get("c"));
+
+		QueryCache.Stats stats = cache.stats();
+		assertEquals(2, stats.size());
+		assertEquals(3, stats.hits());
+		assertEquals(1, stats.misses());
+		assertEquals(1, stats.evictions());
+	}
+
+	@Test
+	public void expireAfterTtl() throws InterruptedException {
+		QueryCache<String, String> cache = new QueryCache<>(10, 1);
+		cache.put("a", "A", cache.generation());
+		Thread.sleep(5);
+
+		assertNull(cache.get("a"));
+		assertEquals(1, cache.stats().expirations());
+	}
+
+	@Test
+	public void discardResultsFromBeforeInvalidation() {
+		QueryCache<String, String> cache = new QueryCache<>(10, 0);
+		cache.put("a", "A", cache.generation());
+
+		long generation = cache.generation();
+		cache.invalidate();
+		assertNull(cache.get("a"));
+
+		// a result queried before the invalidation should not be cached
+		cache.put("b", "B", generation);
+		assertNull(cache.get("b"));
+
+		cache.put("b", "B", cache.generation());
+		assertEquals("B", cache.get("b"));
+	}
+}
@@ -0,0 +1,126 @@
+package net.shrimpworks.mes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.search.Schema;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ReindexerTest {
+
+	@Test
+	public void reindexAndSwap() throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		Main.sampleConfig(new PrintStream(os));
+		Main.Config config = JacksonMapper.YAML.object(os.toByteArray(), Main.Config.class);
+
+		List<FakeRedis> redis = new ArrayList<>();
+		List<JedisPooled> clients = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			redis.add(new FakeRedis());
+			clients.add(new JedisPooled(HostAndPort.from(redis.getLast().host())));
+		}
+
+		try (Shards shards = new Shards(clients, List.of())) {
+			for (JedisPooled client : clients) Main.createIndex(client, config);
+			for (int i = 0; i < 20; i++) shards.forKey("ex:" + i).hset("ex:" + i, Map.of("title", "Shirt " + i, "price", "10"));
+
+			// the price field changes type, which requires the index to be rebuilt
+			Set<Main.RediSearchField> fields = new HashSet<>(config.schema().fields());
+			fields.removeIf(f -> f.name().equals("price"));
+			fields.add(new Main.RediSearchField(Schema.FieldType.TAG, "price", false, false, 1.0, false, null, true, false, false));
+			Main.Config updated = new Main.Config(config.index(), config.prefix(), config.redisHost(), config.redisShards(),
+												  config.redisTimeoutMillis(), config.bindAddress(), config.rootPath(),
+												  config.corsAllowOrigins(), config.submissionToken(), new Main.RediSearchSchema(fields),
+												  config.ingest(), config.cache(), config.server(), config.pool(), config.search(),
+												  config.wal(), config.replicas(), config.suggest(), config.facets());
+
+			AtomicInteger swaps = new AtomicInteger();
+			Reindexer reindexer = new Reindexer(shards, updated, swaps::incrementAndGet);
+			Reindexer.Status status = finish(reindexer);
+			assertEquals(Reindexer.State.DONE, status.state());
+			assertEquals("example-v1", status.index());
+			assertEquals(20, status.docs());
+			assertEquals(1.0, status.progress());
+			assertEquals(1, swaps.get());
+
+			long total = 0;
+			for (JedisPooled client : clients) {
+				// the configured name is now an alias of the new index, which searches follow
+				assertEquals("example-v1", client.ftInfo("example").get("index_name"));
+				assertEquals("TAG", typeOf(client, "price"));
+				total += client.ftSearch("example", "*").getTotalResults();
+			}
+			assertEquals(20, total);
+
+			// a restart updates the aliased index, rather than creating the original one again
+			Main.createIndex(clients.getFirst(), updated);
+			assertEquals("example-v1", clients.getFirst().ftInfo("example").get("index_name"));
+
+			status = finish(reindexer);
+			assertEquals(Reindexer.State.DONE, status.state());
+			assertEquals("example-v2", status.index());
+			for (JedisPooled client : clients) {
+				assertEquals("example-v2", client.ftInfo("example").get("index_name"));
+				assertThrows(JedisDataException.class, () -> client.ftInfo("example-v1"));
+			}
+			assertEquals(2, swaps.get());
+		} finally {
+			for (FakeRedis r : redis) r.close();
+		}
+	}
+
+	@Test
+	public void failedSwapKeepsIndex() throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		Main.sampleConfig(new PrintStream(os));
+		Main.Config config = JacksonMapper.YAML.object(os.toByteArray(), Main.Config.class);
+
+		try (FakeRedis redis = new FakeRedis();
+			 Shards shards = new Shards(List.of(new JedisPooled(HostAndPort.from(redis.host()))), List.of())) {
+			JedisPooled client = shards.client(0);
+			Main.createIndex(client, config);
+			for (int i = 0; i < 5; i++) client.hset("ex:" + i, Map.of("title", "Shirt " + i));
+
+			// the original index is dropped in the same transaction, but the alias cannot be added
+			redis.failNext("FT.ALIASADD", "ERR simulated failure");
+			AtomicInteger swaps = new AtomicInteger();
+			Reindexer reindexer = new Reindexer(shards, config, swaps::incrementAndGet);
+			Reindexer.Status status = finish(reindexer);
+			assertEquals(Reindexer.State.FAILED, status.state());
+			assertEquals(0, swaps.get());
+
+			// the configured name is created again, and the unused new index removed
+			assertEquals("example", client.ftInfo("example").get("index_name"));
+			assertEquals(5, client.ftSearch("example", "*").getTotalResults());
+			assertThrows(JedisDataException.class, () -> client.ftInfo("example-v1"));
+
+			assertEquals(Reindexer.State.DONE, finish(reindexer).state());
+			assertEquals("example-v1", client.ftInfo("example").get("index_name"));
+		}
+	}
+
+	private static Reindexer.Status finish(Reindexer reindexer) throws InterruptedException {
+		reindexer.start();
+		Reindexer.Status status;
+		while ((status = reindexer.status()).state() == Reindexer.State.BUILDING) Thread.sleep(10);
+		return status;
+	}
+
+	private static String typeOf(JedisPooled client, String field) {
+		List<List<Object>> attributes = (List<List<Object>>)client.ftInfo("example").get("attributes");
+		return attributes.stream().filter(a -> a.get(1).equals(field)).map(a -> (String)a.get(5)).findFirst().orElse(null);
+	}
+}
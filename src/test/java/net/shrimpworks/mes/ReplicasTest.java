@@ -0,0 +1,127 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.search.Query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReplicasTest {
+
+	@Test
+	public void leastOutstanding() {
+		Replicas.Node primary = new Replicas.Node("primary", null, null);
+		Replicas.Node a = new Replicas.Node("a", null, null);
+		Replicas.Node b = new Replicas.Node("b", null, null);
+		Replicas replicas = new Replicas(primary, List.of(a, b), 3, 5000, 1000);
+
+		List<Replicas.Node> used = new ArrayList<>();
+		List<CompletableFuture<String>> reads = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			CompletableFuture<String> pending = new CompletableFuture<>();
+			replicas.read(node -> {
+				used.add(node);
+				return pending;
+			});
+			reads.add(pending);
+		}
+
+		// reads alternate between replicas while each is equally busy, and never go to the primary
+		assertNotSame(used.get(0), used.get(1));
+		assertEquals(2, used.stream().filter(n -> n == a).count());
+		assertEquals(2, used.stream().filter(n -> n == b).count());
+
+		// completing reads on one replica makes it preferred
+		reads.get(used.indexOf(b)).complete("done");
+		reads.get(used.lastIndexOf(b)).complete("done");
+		replicas.read(node -> {
+			used.add(node);
+			return CompletableFuture.completedFuture("done");
+		});
+		assertSame(b, used.getLast());
+	}
+
+	@Test
+	public void primaryAfterWrite() throws InterruptedException {
+		Replicas.Node primary = new Replicas.Node("primary", null, null);
+		Replicas.Node replica = new Replicas.Node("replica", null, null);
+		Replicas replicas = new Replicas(primary, List.of(replica), 3, 5000, 100);
+
+		List<Replicas.Node> used = new ArrayList<>();
+		replicas.read(node -> {
+			used.add(node);
+			return CompletableFuture.completedFuture("done");
+		});
+		assertSame(replica, used.getLast());
+
+		// the replica may not have received the write yet, so the primary serves reads until it is likely to have
+		replicas.written();
+		replicas.read(node -> {
+			used.add(node);
+			return CompletableFuture.completedFuture("done");
+		});
+		assertSame(primary, used.getLast());
+
+		Thread.sleep(150);
+		replicas.read(node -> {
+			used.add(node);
+			return CompletableFuture.completedFuture("done");
+		});
+		assertSame(replica, used.getLast());
+	}
+
+	@Test
+	public void ejectFailedReplica() throws IOException {
+		try (FakeRedis redis = new FakeRedis();
+			 FakeRedis replica = new FakeRedis();
+			 ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			Replicas.Node primaryNode = new Replicas.Node(redis.host(), new JedisPooled(HostAndPort.from(redis.host())), null);
+			Replicas.Node replicaNode = new Replicas.Node(replica.host(), new JedisPooled(HostAndPort.from(replica.host())), null);
+			try (Replicas replicas = new Replicas(primaryNode, List.of(replicaNode), 3, 200, 1000)) {
+				primaryNode.client().hset("ex:1", Map.of("title", "Primary Shirt"));
+				replicaNode.client().hset("ex:1", Map.of("title", "Replica Shirt"));
+
+				assertEquals("Replica Shirt", title(replicas, executor));
+
+				// reads are retried on the primary while the replica is down, until it is ejected
+				replica.close();
+				for (int i = 0; i < 3; i++) assertEquals("Primary Shirt", title(replicas, executor));
+				Replicas.Stats stats = replicas.stats().getFirst();
+				assertFalse(stats.healthy());
+				assertEquals(1, stats.ejections());
+				assertEquals(3, stats.failures());
+
+				// no further reads are attempted on the ejected replica
+				assertEquals("Primary Shirt", title(replicas, executor));
+				assertEquals(4, replicas.stats().getFirst().reads());
+
+				// once the ejection period passes, the replica is tried again
+				for (int i = 0; i < 50 && !replicas.stats().getFirst().healthy(); i++) Thread.sleep(10);
+				assertTrue(replicas.stats().getFirst().healthy());
+				assertEquals("Primary Shirt", title(replicas, executor));
+				assertEquals(5, replicas.stats().getFirst().reads());
+				assertEquals(2, replicas.stats().getFirst().ejections());
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private static String title(Replicas replicas, ExecutorService executor) {
+		return replicas.read(node -> node.search("example", new Query("shirt"), 0, 10, executor))
+					   .join().docs().getFirst().getString("title");
+	}
+}
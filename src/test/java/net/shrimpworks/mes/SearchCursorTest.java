@@ -0,0 +1,87 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.search.Document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SearchCursorTest {
+
+	@Test
+	public void readAllShards() throws IOException {
+		List<FakeRedis> redis = new ArrayList<>();
+		List<JedisPooled> clients = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			redis.add(new FakeRedis());
+			clients.add(new JedisPooled(HostAndPort.from(redis.getLast().host())));
+		}
+
+		try (Shards shards = new Shards(clients, List.of());
+			 ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < 25; i++) {
+				String key = "ex:" + i;
+				shards.forKey(key).hset(key, Map.of("title", "Shirt " + i, "body", "A shirt"));
+			}
+
+			SearchRequest request = new SearchRequest("shirt", 0, 4, List.of("title"), true, List.of(), List.of(), List.of());
+			SearchCursor cursor = SearchCursor.start(request, 4);
+			Set<String> seen = new HashSet<>();
+			int pages = 0;
+			while (cursor != null) {
+				// as a client would, pass the cursor around as a token between pages
+				SearchCursor.Page page = SearchCursor.parse(cursor.token()).read(shards, "example", 60_000, executor).join();
+				assertTrue(page.docs().size() <= 4);
+				for (Document doc : page.docs()) {
+					assertTrue(seen.add(doc.getId()));
+					assertEquals("Shirt " + doc.getId().substring(3), doc.getString("title"));
+					assertNull(doc.get("body"));
+				}
+				cursor = page.next();
+				pages++;
+			}
+			assertEquals(25, seen.size());
+			assertTrue(pages >= 7);
+		} finally {
+			for (FakeRedis r : redis) r.close();
+		}
+	}
+
+	@Test
+	public void expiredCursor() throws IOException {
+		try (FakeRedis redis = new FakeRedis();
+			 Shards shards = new Shards(List.of(new JedisPooled(HostAndPort.from(redis.host()))), List.of());
+			 ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			SearchCursor cursor = new SearchCursor("shirt", null, null, true, 10, 0, 12345);
+			CompletionException e = assertThrows(CompletionException.class,
+												 () -> cursor.read(shards, "example", 60_000, executor).join());
+			assertInstanceOf(JedisDataException.class, e.getCause());
+
+			SearchCursor wrongShard = new SearchCursor("shirt", null, null, true, 10, 3, 0);
+			e = assertThrows(CompletionException.class, () -> wrongShard.read(shards, "example", 60_000, executor).join());
+			assertInstanceOf(IllegalArgumentException.class, e.getCause());
+		}
+	}
+
+	@Test
+	public void invalidToken() {
+		assertThrows(IllegalArgumentException.class, () -> SearchCursor.parse("not a cursor"));
+		assertThrows(IllegalArgumentException.class, () -> SearchCursor.parse("e30"));
+	}
+}
@@ -0,0 +1,62 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.search.Document;
+import redis.clients.jedis.search.SearchResult;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SearchRequestTest {
+
+	@Test
+	public void projectionAndHighlighting() throws IOException {
+		try (FakeRedis redis = new FakeRedis();
+			 JedisPooled client = new JedisPooled(HostAndPort.from(redis.host()))) {
+			client.hset("ex:1", Map.of("title", "Blue Shirt", "body", "A very long description of a shirt", "url", "/shirts/1"));
+
+			Document all = search(client, new SearchRequest("shirt", 0, 10));
+			assertEquals(Map.of("title", "Blue Shirt", "body", "A very long description of a shirt", "url", "/shirts/1"),
+						 fields(all));
+
+			Document projected = search(client, new SearchRequest("shirt", 0, 10, List.of("title", "url"), true, List.of(), List.of(), List.of()));
+			assertEquals(Map.of("title", "Blue Shirt", "url", "/shirts/1"), fields(projected));
+
+			Document highlighted = search(client, new SearchRequest("shirt", 0, 10, List.of("title"), true, List.of("title"),
+																	List.of(), List.of()));
+			assertEquals("Blue <b>Shirt</b>", highlighted.getString("title"));
+
+			SearchResult idsOnly = client.ftSearch("example", new SearchRequest("shirt", 0, 10, null, false, List.of("title"),
+																				List.of(), List.of()).toQuery());
+			assertEquals(1, idsOnly.getTotalResults());
+			assertEquals("ex:1", idsOnly.getDocuments().getFirst().getId());
+			assertFalse(idsOnly.getDocuments().getFirst().getProperties().iterator().hasNext());
+		}
+	}
+
+	@Test
+	public void formatted() {
+		assertFalse(new SearchRequest("shirt", 0, 10).formatted());
+		assertFalse(new SearchRequest("shirt", 0, 10, List.of("title"), true, List.of(), List.of(), List.of()).formatted());
+		assertTrue(new SearchRequest("shirt", 0, 10, null, true, List.of(), List.of("body"), List.of()).formatted());
+		assertFalse(new SearchRequest("shirt", 0, 10, null, false, List.of("title"), List.of(), List.of()).formatted());
+	}
+
+	private static Document search(JedisPooled client, SearchRequest request) {
+		return client.ftSearch("example", request.toQuery()).getDocuments().getFirst();
+	}
+
+	private static Map<String, Object> fields(Document doc) {
+		Map<String, Object> fields = new HashMap<>();
+		doc.getProperties().forEach(e -> fields.put(e.getKey(), e.getValue()));
+		return fields;
+	}
+}
@@ -0,0 +1,126 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.search.Document;
+import redis.clients.jedis.search.Query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShardsTest {
+
+	@Test
+	public void writesRoutedByKey() throws IOException {
+		List<FakeRedis> redis = new ArrayList<>();
+		List<JedisPooled> clients = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			redis.add(new FakeRedis());
+			clients.add(new JedisPooled(HostAndPort.from(redis.getLast().host())));
+		}
+
+		try (Shards shards = new Shards(clients, List.of());
+			 ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			BatchWriter writer = new BatchWriter(shards, "ex:", new Main.IngestConfig(10, false, false, 0, 0, false, 0), null, null, new Metrics(), () -> {});
+			for (int i = 0; i < 100; i++) writer.add(new API.AddDocument(Integer.toString(i), Map.of("title", "Shirt " + i), 1.0));
+			assertEquals(100, writer.finish().added());
+
+			long total = 0;
+			for (int s = 0; s < shards.size(); s++) {
+				API.SearchResults results = shards.search(s, "example", new Query("*").limit(0, 100).setWithScores(), 0, 100, executor)
+												  .join();
+				assertTrue(results.totalResults() > 0);
+				for (Document doc : results.docs()) assertEquals(s, shards.shard(doc.getId()));
+				total += results.totalResults();
+			}
+			assertEquals(100, total);
+
+			for (int i = 0; i < 100; i++) {
+				String key = "ex:" + i;
+				assertEquals("Shirt " + i, shards.forKey(key).hget(key, "title"));
+				for (int s = 0; s < shards.size(); s++) {
+					if (s != shards.shard(key)) assertNull(shards.client(s).hget(key, "title"));
+				}
+			}
+
+			int shard = shards.shard("ex:42");
+			assertEquals(List.of(Map.of("title", "Shirt 42")), shards.fetch(shard, List.of("ex:42"), null, executor).join());
+			assertEquals(List.of(Map.of("title", "Shirt 42")),
+						 shards.fetch(shard, List.of("ex:42"), List.of("title", "missing"), executor).join());
+		} finally {
+			for (FakeRedis r : redis) r.close();
+		}
+	}
+
+	@Test
+	public void searchAllInOrder() throws IOException {
+		try (FakeRedis redis = new FakeRedis();
+			 Shards shards = new Shards(List.of(new JedisPooled(HostAndPort.from(redis.host()))), List.of());
+			 ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < 10; i++) {
+				shards.client(0).hset("ex:" + i, Map.of("title", (i % 2 == 0 ? "Blue" : "Red") + " Shirt " + i));
+			}
+
+			List<API.SearchResults> results = shards.searchAll(0, "example", List.of(
+				new Shards.Search(new Query("blue").setWithScores(), 0, 10),
+				new Shards.Search(new Query("red").limit(2, 2).setWithScores(), 2, 2),
+				new Shards.Search(new Query("green").setWithScores(), 0, 10)
+			), executor).join();
+
+			assertEquals(List.of(5L, 5L, 0L), results.stream().map(API.SearchResults::totalResults).toList());
+			assertEquals("Blue Shirt 0", results.get(0).docs().getFirst().getString("title"));
+			assertEquals(2, results.get(1).docs().size());
+			assertEquals(2, results.get(1).offset());
+			assertTrue(results.get(2).docs().isEmpty());
+		}
+	}
+
+	@Test
+	public void routingIsStable() {
+		// documents already written are found on the same shards, so these must never change
+		assertEquals(8371356515094919947L, MurmurHash.hash64(""));
+		assertEquals(7990182172224381693L, MurmurHash.hash64("a"));
+		assertEquals(6223599415212061701L, MurmurHash.hash64("ex:1"));
+		assertEquals(4610808925873135192L, MurmurHash.hash64("ex:12345678"));
+		assertEquals(463482535224732994L, MurmurHash.hash64("product:\u00fcmlaut-1234567"));
+		assertEquals(-4222481705218208754L, MurmurHash.hash64("example:shirt:0\0title"));
+	}
+
+	@Test
+	public void mergeByScore() {
+		List<API.SearchResults> shards = List.of(
+			results(0, 30, 9.0, 7.0, 5.0, 1.0),
+			results(1, 20, 8.0, 7.0, 2.0),
+			results(2, 0)
+		);
+
+		API.SearchResults first = API.SearchResults.merge(shards, 0, 3);
+		assertEquals(50, first.totalResults());
+		assertEquals(List.of(9.0, 8.0, 7.0), first.docs().stream().map(Document::getScore).toList());
+		// equal scores are ordered by shard
+		assertEquals("0:1", first.docs().get(2).getId());
+
+		API.SearchResults second = API.SearchResults.merge(shards, 3, 3);
+		assertEquals(3, second.offset());
+		assertEquals(List.of("1:1", "0:2", "1:2"), second.docs().stream().map(Document::getId).toList());
+
+		API.SearchResults last = API.SearchResults.merge(shards, 6, 3);
+		assertEquals(List.of("0:3"), last.docs().stream().map(Document::getId).toList());
+	}
+
+	private static API.SearchResults results(int shard, long total, double... scores) {
+		List<Document> docs = new ArrayList<>();
+		for (int i = 0; i < scores.length; i++) docs.add(new Document(shard + ":" + i, new HashMap<>(), scores[i]));
+		return new API.SearchResults(docs, total, 0, scores.length);
+	}
+}
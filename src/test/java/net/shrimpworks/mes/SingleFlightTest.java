@@ -0,0 +1,84 @@
+package net.shrimpworks.mes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SingleFlightTest {
+
+	@Test
+	public void concurrentCallsShareResult() {
+		SingleFlight<String, String> flights = new SingleFlight<>();
+		AtomicInteger calls = new AtomicInteger();
+		CompletableFuture<String> redis = new CompletableFuture<>();
+
+		List<CompletableFuture<String>> results = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			results.add(flights.execute("blue", () -> {
+				calls.incrementAndGet();
+				return redis;
+			}));
+		}
+		CompletableFuture<String> other = flights.execute("red", () -> {
+			calls.incrementAndGet();
+			return CompletableFuture.completedFuture("red results");
+		});
+
+		assertEquals(2, calls.get());
+		assertEquals(1, flights.stats().inFlight());
+
+		redis.complete("blue results");
+		results.forEach(r -> assertSame("blue results", r.join()));
+		assertEquals("red results", other.join());
+		assertEquals(new SingleFlight.Stats(0, 2, 99), flights.stats());
+
+		// once complete, the next call runs again
+		flights.execute("blue", () -> {
+			calls.incrementAndGet();
+			return CompletableFuture.completedFuture("new blue results");
+		});
+		assertEquals(3, calls.get());
+	}
+
+	@Test
+	public void failuresShared() {
+		SingleFlight<String, String> flights = new SingleFlight<>();
+		CompletableFuture<String> redis = new CompletableFuture<>();
+
+		CompletableFuture<String> first = flights.execute("blue", () -> redis);
+		CompletableFuture<String> second = flights.execute("blue", () -> CompletableFuture.completedFuture("unused"));
+		redis.completeExceptionally(new IllegalStateException("failed"));
+
+		assertThrows(CompletionException.class, first::join);
+		assertThrows(CompletionException.class, second::join);
+		assertEquals(0, flights.stats().inFlight());
+
+		CompletableFuture<String> thrown = flights.execute("red", () -> {
+			throw new IllegalStateException("failed");
+		});
+		assertThrows(CompletionException.class, thrown::join);
+		assertEquals(0, flights.stats().inFlight());
+	}
+
+	@Test
+	public void forgottenCallsNotJoined() {
+		SingleFlight<String, String> flights = new SingleFlight<>();
+		CompletableFuture<String> before = new CompletableFuture<>();
+
+		CompletableFuture<String> first = flights.execute("blue", () -> before);
+		flights.forget();
+		CompletableFuture<String> second = flights.execute("blue", () -> CompletableFuture.completedFuture("after write"));
+
+		before.complete("before write");
+		assertEquals("before write", first.join());
+		assertEquals("after write", second.join());
+	}
+}
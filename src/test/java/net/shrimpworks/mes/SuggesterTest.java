@@ -0,0 +1,127 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class SuggesterTest {
+
+	@Test
+	public void prefixCompletions() {
+		try (Suggester suggester = new Suggester(null, "ex:", List.of("title"), 3, null, 1 << 20)) {
+			suggester.add("Blue Shirt", 1);
+			suggester.add("Blue Shoes", 1);
+			suggester.add("Bluebell", 1);
+			suggester.add("Black Hat", 1);
+			suggester.add("blue  shirt", 2);
+
+			// values differing only by case and whitespace are the same value, completed as first seen
+			assertEquals(List.of("Blue Shirt", "Blue Shoes", "Bluebell"), suggester.suggest("blu", 10));
+			assertEquals(List.of("Blue Shirt", "Blue Shoes"), suggester.suggest("  BLUE   ", 10));
+			assertEquals(List.of("Blue Shirt", "Blue Shoes"), suggester.suggest("blue sh", 10));
+			assertEquals(List.of("Blue Shoes"), suggester.suggest("blue sho", 10));
+			assertEquals(List.of("Black Hat"), suggester.suggest("bla", 10));
+			assertEquals(List.of("Blue Shirt"), suggester.suggest("blu", 1));
+			assertEquals(List.of(), suggester.suggest("green", 10));
+			assertEquals(List.of(), suggester.suggest("blue shirts", 10));
+
+			// weights only increase, so a value may overtake others, and only the highest weighted are kept for each prefix
+			suggester.add("Black Hat", 5);
+			assertEquals(List.of("Black Hat", "Blue Shirt", "Blue Shoes"), suggester.suggest("bl", 10));
+			assertEquals(4, suggester.stats().terms());
+
+			assertFalse(suggester.add("   ", 1));
+		}
+	}
+
+	@Test
+	public void loadAndPersist() throws IOException {
+		try (FakeRedis redis = new FakeRedis();
+			 Shards shards = new Shards(List.of(new JedisPooled(HostAndPort.from(redis.host()))), List.of())) {
+			final JedisPooled client = shards.client(0);
+			for (int i = 0; i < 25; i++) client.hset("ex:" + i, Map.of("title", i % 2 == 0 ? "Red Shirt" : "Red Shoes " + i));
+			client.hset("other:1", Map.of("title", "Red Herring"));
+
+			try (Suggester suggester = new Suggester(shards, "ex:", List.of("title"), 5, "example:suggest", 1 << 20)) {
+				suggester.load();
+				assertEquals(13, suggester.stats().terms());
+				assertFalse(suggester.stats().loading());
+				assertEquals("Red Shirt", suggester.suggest("red", 5).getFirst());
+				assertFalse(suggester.suggest("red", 5).contains("Red Herring"));
+
+				// only documents written after loading are written to the redis dictionary
+				client.hset("ex:100", Map.of("title", "Red Cap"));
+				suggester.written("ex:100", Map.of("title", "Red Cap", "body", "A cap"));
+				suggester.written("ex:101", Map.of("title", "Red Hat"));
+				suggester.sync();
+				assertEquals(List.of("Red Cap"), suggester.suggest("red c", 5));
+				assertEquals(List.of("Red Hat"), suggester.suggest("red h", 5));
+				assertEquals(2, suggester.stats().pending());
+			}
+			assertEquals(List.of("Red Cap", "Red Hat"), client.ftSugGet("example:suggest", "red").stream().sorted().toList());
+
+			try (Suggester suggester = new Suggester(shards, "ex:", List.of("title"), 5, "example:suggest", 1 << 20)) {
+				suggester.load();
+				assertEquals(List.of("Red Cap"), suggester.suggest("red c", 5));
+
+				// the loaded value is replaced, and no longer held by any document
+				suggester.written("ex:100", Map.of("title", "Red Hat"));
+				suggester.sync();
+				assertEquals(List.of(), suggester.suggest("red c", 5));
+			}
+			assertEquals(List.of("Red Hat"), client.ftSugGet("example:suggest", "red"));
+		}
+	}
+
+	@Test
+	public void writtenDocuments() {
+		try (Suggester suggester = new Suggester(null, "ex:", List.of("title", "brand"), 2, null, 1 << 20)) {
+			for (int i = 0; i < 3; i++) suggester.written("ex:" + i, Map.of("title", "Blue Shoes"));
+			for (int i = 3; i < 5; i++) suggester.written("ex:" + i, Map.of("title", "Blue Shirt"));
+			suggester.written("ex:5", Map.of("title", "Bluebell", "brand", "Acme"));
+			suggester.sync();
+			assertEquals(List.of("Blue Shoes", "Blue Shirt"), suggester.suggest("blu", 10));
+
+			// documents written again with the same values, or without completed fields, are not counted again
+			suggester.written("ex:0", Map.of("title", "Blue Shoes", "price", "10"));
+			suggester.written("ex:5", Map.of("price", "10"));
+			suggester.sync();
+			assertEquals(List.of("Blue Shoes", "Blue Shirt"), suggester.suggest("blu", 10));
+
+			// changed values move weight from the previous value, which are removed once no document holds them
+			suggester.written("ex:0", Map.of("title", "Bluebell"));
+			suggester.written("ex:1", Map.of("title", "Bluebell"));
+			suggester.sync();
+			assertEquals(List.of("Bluebell", "Blue Shirt"), suggester.suggest("blu", 10));
+			suggester.written("ex:3", Map.of("title", "Acme Hat"));
+			suggester.written("ex:4", Map.of("title", "Acme Hat"));
+			suggester.sync();
+			assertEquals(List.of("Bluebell", "Blue Shoes"), suggester.suggest("blu", 10));
+			assertEquals(List.of(), suggester.suggest("blue shi", 10));
+			assertEquals(List.of("Acme Hat", "Acme"), suggester.suggest("acme", 10));
+			assertEquals(4, suggester.stats().terms());
+
+			suggester.written("ex:5", Map.of("title", "Acme Hat", "brand", "Other"));
+			suggester.written("ex:2", Map.of("title", "Acme Hat"));
+			suggester.sync();
+			assertEquals(List.of("Bluebell"), suggester.suggest("blu", 10));
+			assertEquals(List.of("Acme Hat"), suggester.suggest("a", 10));
+			assertEquals(3, suggester.stats().terms());
+
+			// a value replaced straight away is not held, whether or not both are applied in the same batch
+			suggester.written("ex:6", Map.of("title", "Green Hat"));
+			suggester.written("ex:6", Map.of("title", "Red Hat"));
+			suggester.sync();
+			assertEquals(List.of(), suggester.suggest("green", 10));
+			assertEquals(List.of("Red Hat"), suggester.suggest("red", 10));
+			assertEquals(4, suggester.stats().terms());
+		}
+	}
+}
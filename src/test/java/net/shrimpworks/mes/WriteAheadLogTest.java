@@ -0,0 +1,203 @@
+package net.shrimpworks.mes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WriteAheadLogTest {
+
+	private static final Main.IngestConfig INGEST = new Main.IngestConfig(100, false, false, 0, 0, false, 0);
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void replayAcrossSegments() throws IOException, InterruptedException {
+		try (FakeRedis redis = new FakeRedis();
+			 JedisPooled client = new JedisPooled(HostAndPort.from(redis.host()))) {
+			WriteAheadLog wal = open(client, 4096);
+			try {
+				for (int i = 0; i < 1000; i++) wal.append(doc(i));
+				awaitReplay(wal);
+
+				assertEquals("Shirt 999", client.hget("ex:999", "title"));
+				WriteAheadLog.Stats stats = wal.stats();
+				assertEquals(1000, stats.replayed());
+				assertEquals(0, stats.pendingBytes());
+				// replayed segments are removed
+				assertEquals(1, stats.segments());
+				assertEquals(1, segmentFiles().size());
+
+				assertThrows(IllegalArgumentException.class, () -> wal.append(new API.AddDocument("big", Map.of("body", "x".repeat(5000)), 1)));
+			} finally {
+				wal.close();
+			}
+		}
+	}
+
+	@Test
+	public void retainedWhileRedisUnavailable() throws IOException, InterruptedException {
+		// a redis which has gone away
+		FakeRedis gone = new FakeRedis();
+		String goneHost = gone.host();
+		gone.close();
+
+		try (JedisPooled client = new JedisPooled(HostAndPort.from(goneHost))) {
+			WriteAheadLog wal = open(client, 4096);
+			for (int i = 0; i < 200; i++) wal.append(doc(i));
+			Thread.sleep(100);
+			assertEquals(200, wal.stats().pending());
+			wal.close();
+		}
+
+		// on restart, documents are replayed to the available redis
+		try (FakeRedis redis = new FakeRedis();
+			 JedisPooled client = new JedisPooled(HostAndPort.from(redis.host()))) {
+			WriteAheadLog wal = open(client, 4096);
+			try {
+				assertEquals(200, wal.stats().pending());
+				awaitReplay(wal);
+				assertEquals("Shirt 0", client.hget("ex:0", "title"));
+				assertEquals("Shirt 199", client.hget("ex:199", "title"));
+			} finally {
+				wal.close();
+			}
+		}
+	}
+
+	@Test
+	public void incompleteRecordIgnored() throws IOException, InterruptedException {
+		FakeRedis gone = new FakeRedis();
+		String goneHost = gone.host();
+		gone.close();
+
+		try (JedisPooled client = new JedisPooled(HostAndPort.from(goneHost))) {
+			WriteAheadLog wal = open(client, 64 * 1024);
+			for (int i = 0; i < 3; i++) wal.append(doc(i));
+			wal.close();
+		}
+
+		// simulate the last record being partially written, by damaging its final byte
+		Path segment = segmentFiles().getFirst();
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(4);
+			int offset = 0;
+			int last = 0;
+			while (true) {
+				channel.read(header.clear(), offset);
+				int length = header.flip().getInt();
+				if (length <= 0) break;
+				last = offset + 8 + length - 1;
+				offset += 8 + length;
+			}
+			channel.write(ByteBuffer.wrap(new byte[] { '!' }), last);
+		}
+
+		try (FakeRedis redis = new FakeRedis();
+			 JedisPooled client = new JedisPooled(HostAndPort.from(redis.host()))) {
+			WriteAheadLog wal = open(client, 64 * 1024);
+			try {
+				assertEquals(2, wal.stats().pending());
+				// new documents follow the last complete record
+				wal.append(doc(3));
+				awaitReplay(wal);
+				assertEquals("Shirt 1", client.hget("ex:1", "title"));
+				assertNull(client.hget("ex:2", "title"));
+				assertEquals("Shirt 3", client.hget("ex:3", "title"));
+			} finally {
+				wal.close();
+			}
+		}
+	}
+
+	@Test
+	public void segmentSizeChanged() throws IOException, InterruptedException {
+		// a log part way through its segments, with documents replayed before and pending after the checkpoint
+		try (FakeRedis redis = new FakeRedis();
+			 JedisPooled client = new JedisPooled(HostAndPort.from(redis.host()))) {
+			WriteAheadLog wal = open(client, 4096);
+			for (int i = 0; i < 300; i++) wal.append(doc(i));
+			awaitReplay(wal);
+			wal.close();
+		}
+
+		FakeRedis gone = new FakeRedis();
+		String goneHost = gone.host();
+		gone.close();
+		try (JedisPooled client = new JedisPooled(HostAndPort.from(goneHost))) {
+			WriteAheadLog wal = open(client, 4096);
+			for (int i = 300; i < 600; i++) wal.append(doc(i));
+			wal.close();
+		}
+
+		// reopened with both smaller and larger segments, the log keeps the size it was written with
+		for (int segmentBytes : new int[] { 1024, 64 * 1024 }) {
+			try (JedisPooled client = new JedisPooled(HostAndPort.from(goneHost))) {
+				WriteAheadLog wal = open(client, segmentBytes);
+				assertEquals(300, wal.stats().pending());
+				wal.close();
+			}
+		}
+
+		try (FakeRedis redis = new FakeRedis();
+			 JedisPooled client = new JedisPooled(HostAndPort.from(redis.host()))) {
+			WriteAheadLog wal = open(client, 1024);
+			try {
+				assertEquals(300, wal.stats().pending());
+				awaitReplay(wal);
+				for (int i = 300; i < 600; i++) assertEquals("Shirt " + i, client.hget("ex:" + i, "title"));
+			} finally {
+				wal.close();
+			}
+
+			// once replayed, the configured size takes effect
+			WriteAheadLog resized = open(client, 1024);
+			try {
+				assertThrows(IllegalArgumentException.class,
+							 () -> resized.append(new API.AddDocument("big", Map.of("body", "x".repeat(2000)), 1)));
+				resized.append(doc(600));
+				awaitReplay(resized);
+				assertEquals("Shirt 600", client.hget("ex:600", "title"));
+				assertEquals(1024, Files.size(segmentFiles().getFirst()));
+			} finally {
+				resized.close();
+			}
+		}
+	}
+
+	private WriteAheadLog open(JedisPooled client, int segmentBytes) throws IOException {
+		return new WriteAheadLog(new Shards(List.of(client), List.of()), "ex:", INGEST, new Main.WalConfig(true, dir.toString(), segmentBytes, 20), null, null, new Metrics(),
+								 () -> {});
+	}
+
+	private List<Path> segmentFiles() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.filter(f -> f.toString().endsWith(".wal")).sorted().toList();
+		}
+	}
+
+	private static void awaitReplay(WriteAheadLog wal) throws InterruptedException {
+		for (int i = 0; i < 500 && wal.stats().pending() > 0; i++) Thread.sleep(10);
+		assertTrue(wal.stats().pending() == 0, "Log not replayed");
+	}
+
+	private static API.AddDocument doc(int i) {
+		return new API.AddDocument(Integer.toString(i), Map.of("title", "Shirt " + i), 1.0);
+	}
+}